@@ -0,0 +1,105 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Raw model outputs of one frame and its letterbox metadata, plus how frames are chunked into
+ * session calls and how the outputs of a batch are split per frame (see
+ * {@link ObjectDetector#inferBatch}). Android-free, so the batching can be tested on the JVM.
+ */
+class BatchOutput {
+    // the n detections passing the score thresholds
+    public int[][] boxes;       // (n, 4) - [x1, y1, x2, y2] in infer coordinates
+    public float[] scores;      // (n)
+    public long[] labels;       // (n)
+    public float[] masks;       // (n, h, w) flat, from masksOffset (possibly shared by a batch), null if no detection passes the thresholds
+    public int masksOffset;
+    int[] sources;              // (n) - index of each detection in the (b, n) model output
+    public int origWidth;
+    public int origHeight;
+    public int padX;
+    public int padY;
+
+    /**
+     * @param modelBatchSize batch dimension of the model input: fixed size, or -1 if dynamic
+     * @param maxBatch       largest chunk for dynamic-batch models
+     * @return frames per session call
+     */
+    static int chunkSize(long modelBatchSize, int maxBatch) {
+        return modelBatchSize > 0 ? (int) modelBatchSize : Math.max(1, maxBatch);
+    }
+
+    /**
+     * @return batch dimension of the input tensor for a chunk of frames: a fixed-batch model always
+     * takes full batches (unused slots are ignored), a dynamic one just the frames
+     */
+    static int batchSize(long modelBatchSize, int chunkSize, int frames) {
+        return modelBatchSize > 0 ? chunkSize : frames;
+    }
+
+    /**
+     * Copy the letterbox metadata of batch element index of input.
+     */
+    void setMetadata(InputTensor input, int index) {
+        origWidth = input.origWidth[index];
+        origHeight = input.origHeight[index];
+        padX = input.padX[index];
+        padY = input.padY[index];
+    }
+
+    /**
+     * Split the detections of the first outputs.length batch elements into outputs, keeping the
+     * ones passing the score thresholds of postProcessor only (the others would be dropped first
+     * anyway), and lay out their masks one after the other in a compact masks array: see
+     * {@link #copyMasks}. Masks themselves are not set.
+     *
+     * @param dets     (b, n, 5) - [x1, y1, x2, y2, score]
+     * @param labels   (b, n)
+     * @param maskSize h * w of one mask
+     * @return number of detections kept over the batch, i.e. of masks to copy
+     */
+    static int split(BatchOutput[] outputs, FloatBuffer dets, LongBuffer labels, int n, int maskSize, PostProcessor postProcessor) {
+        int total = 0;
+        int[] candidates = new int[n];
+        for (int b = 0; b < outputs.length; b++) {
+            int m = 0;
+            for (int i = 0; i < n; i++) {
+                int d = b * n + i;
+                if (postProcessor.isCandidate(dets.get(d * 5 + 4), labels.get(d))) {
+                    candidates[m++] = d;
+                }
+            }
+
+            BatchOutput output = outputs[b];
+            output.boxes = new int[m][];
+            output.scores = new float[m];
+            output.labels = new long[m];
+            output.sources = new int[m];
+            for (int k = 0; k < m; k++) {
+                int d = candidates[k];
+                output.boxes[k] = new int[]{(int) dets.get(d * 5), (int) dets.get(d * 5 + 1), (int) dets.get(d * 5 + 2), (int) dets.get(d * 5 + 3)};
+                output.scores[k] = dets.get(d * 5 + 4);
+                output.labels[k] = labels.get(d);
+                output.sources[k] = d;
+            }
+            output.masksOffset = total * maskSize;
+            total += m;
+        }
+        return total;
+    }
+
+    /**
+     * Copy the masks of the detections kept by {@link #split} from the (b, n, h, w) masks output
+     * into masks, which must hold at least as many masks as split returned, and set it on outputs.
+     */
+    static void copyMasks(BatchOutput[] outputs, FloatBuffer source, int maskSize, float[] masks) {
+        for (BatchOutput output : outputs) {
+            for (int k = 0; k < output.sources.length; k++) {
+                source.position(output.sources[k] * maskSize);
+                source.get(masks, output.masksOffset + k * maskSize, maskSize);
+            }
+            output.masks = masks;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.rtmdet_ins_snapedit;
+
+/**
+ * Binarized mask restricted to its own box [x, x + width) x [y, y + height),
+ * bit-packed row by row into longs so that overlaps are counted with {@link Long#bitCount}.
+ */
+public class BinaryMask {
+    public final int x;
+    public final int y;
+    public final int width;
+    public final int height;
+    public final int area;              // number of set pixels
+
+    final int wordsPerRow;
+    final long[] bits;                  // bit (col & 63) of word (row * wordsPerRow + (col >>> 6))
+
+    BinaryMask(int x, int y, int width, int height, long[] bits) {
+        this(x, y, width, height, bits, count(bits));
+    }
+
+    private BinaryMask(int x, int y, int width, int height, long[] bits, int area) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.wordsPerRow = (width + 63) >>> 6;
+        this.bits = bits;
+        this.area = area;
+    }
+
+    private static int count(long[] bits) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Binarize (round to 0/1) the region [x1, x2) x [y1, y2) of a mask of probabilities,
+     * pixel (x, y) being probs[offset + y * stride + x].
+     */
+    public static BinaryMask fromProbabilities(float[] probs, int offset, int stride, int x1, int y1, int x2, int y2) {
+        int width = Math.max(0, x2 - x1);
+        int height = Math.max(0, y2 - y1);
+        int wordsPerRow = (width + 63) >>> 6;
+        long[] bits = new long[wordsPerRow * height];
+        setBits(bits, wordsPerRow, x1, y1, probs, offset, stride, x1, y1, x2, y2);
+        return new BinaryMask(x1, y1, width, height, bits);
+    }
+
+    /**
+     * Binarize the region [x1, x2) x [y1, y2) of the pixel-wise maximum of several masks of probs:
+     * the owner mask everywhere, each member mask inside its own (inclusive) box only.
+     *
+     * @param memberOffsets (m) - offsets of the member masks in probs
+     * @param memberBoxes   (m, 4) - [x1, y1, x2, y2] boxes of the member masks
+     */
+    public static BinaryMask fromMerged(float[] probs, int stride, int ownerOffset, int[] memberOffsets, int[][] memberBoxes,
+                                        int x1, int y1, int x2, int y2) {
+        int width = Math.max(0, x2 - x1);
+        int height = Math.max(0, y2 - y1);
+        int wordsPerRow = (width + 63) >>> 6;
+        long[] bits = new long[wordsPerRow * height];
+        setBits(bits, wordsPerRow, x1, y1, probs, ownerOffset, stride, x1, y1, x2, y2);
+        for (int k = 0; k < memberOffsets.length; k++) {
+            int[] box = memberBoxes[k];
+            setBits(bits, wordsPerRow, x1, y1, probs, memberOffsets[k], stride,
+                    Math.max(x1, box[0]), Math.max(y1, box[1]), Math.min(x2, box[2] + 1), Math.min(y2, box[3] + 1));
+        }
+        return new BinaryMask(x1, y1, width, height, bits);
+    }
+
+    /**
+     * Union of masks (in the same coordinates) restricted to the region [x1, x2) x [y1, y2).
+     */
+    public static BinaryMask union(BinaryMask[] masks, int x1, int y1, int x2, int y2) {
+        int width = Math.max(0, x2 - x1);
+        int height = Math.max(0, y2 - y1);
+        int wordsPerRow = (width + 63) >>> 6;
+        long[] bits = new long[wordsPerRow * height];
+        for (BinaryMask mask : masks) {
+            int fromX = Math.max(x1, mask.x), toX = Math.min(x2, mask.x + mask.width);
+            int fromY = Math.max(y1, mask.y), toY = Math.min(y2, mask.y + mask.height);
+            int overlapWidth = toX - fromX;
+            for (int py = fromY; py < toY; py++) {
+                int srcBase = (py - mask.y) * mask.wordsPerRow;
+                int dstBase = (py - y1) * wordsPerRow;
+                for (int k = 0; k < overlapWidth; k += 64) {
+                    long word = extract(mask.bits, srcBase, mask.wordsPerRow, fromX - mask.x + k);
+                    int remaining = overlapWidth - k;
+                    if (remaining < 64) {
+                        word &= (1L << remaining) - 1;
+                    }
+                    int col = fromX - x1 + k;
+                    int w = col >>> 6;
+                    int shift = col & 63;
+                    bits[dstBase + w] |= word << shift;
+                    if (shift != 0 && w + 1 < wordsPerRow) {
+                        bits[dstBase + w + 1] |= word >>> (64 - shift);
+                    }
+                }
+            }
+        }
+        return new BinaryMask(x1, y1, width, height, bits);
+    }
+
+    // set the bits of the pixels of [fromX, toX) x [fromY, toY) with probability >= 0.5
+    private static void setBits(long[] bits, int wordsPerRow, int originX, int originY,
+                                float[] probs, int offset, int stride, int fromX, int fromY, int toX, int toY) {
+        for (int py = fromY; py < toY; py++) {
+            int row = offset + py * stride;
+            int base = (py - originY) * wordsPerRow;
+            for (int px = fromX; px < toX; px++) {
+                if (probs[row + px] >= 0.5F) {
+                    int j = px - originX;
+                    bits[base + (j >>> 6)] |= 1L << j;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return approximate heap size
+     */
+    public long sizeInBytes() {
+        return 48 + 16 + bits.length * 8L;
+    }
+
+    /**
+     * @return same mask moved by (dx, dy), sharing the bits of this one
+     */
+    public BinaryMask translate(int dx, int dy) {
+        return new BinaryMask(x + dx, y + dy, width, height, bits, area);
+    }
+
+    /**
+     * @return whether the pixel at absolute coordinates (px, py) is set
+     */
+    public boolean get(int px, int py) {
+        int col = px - x;
+        int row = py - y;
+        if (col < 0 || row < 0 || col >= width || row >= height) {
+            return false;
+        }
+        return (bits[row * wordsPerRow + (col >>> 6)] >>> col & 1L) != 0;
+    }
+
+    /**
+     * @return number of pixels set in both masks, counted over the overlap of the two boxes only
+     */
+    public int intersection(BinaryMask other) {
+        int ox1 = Math.max(x, other.x);
+        int oy1 = Math.max(y, other.y);
+        int ox2 = Math.min(x + width, other.x + other.width);
+        int oy2 = Math.min(y + height, other.y + other.height);
+        if (ox1 >= ox2 || oy1 >= oy2) {
+            return 0;
+        }
+
+        int overlapWidth = ox2 - ox1;
+        int col1 = ox1 - x;
+        int col2 = ox1 - other.x;
+        int inter = 0;
+        for (int py = oy1; py < oy2; py++) {
+            int base1 = (py - y) * wordsPerRow;
+            int base2 = (py - other.y) * other.wordsPerRow;
+            for (int k = 0; k < overlapWidth; k += 64) {
+                long word = extract(bits, base1, wordsPerRow, col1 + k)
+                        & extract(other.bits, base2, other.wordsPerRow, col2 + k);
+                int remaining = overlapWidth - k;
+                if (remaining < 64) {
+                    word &= (1L << remaining) - 1;
+                }
+                inter += Long.bitCount(word);
+            }
+        }
+        return inter;
+    }
+
+    // 64 bits of a row starting at column col (bits past the row end are 0)
+    private static long extract(long[] words, int base, int rowWords, int col) {
+        int w = col >>> 6;
+        int shift = col & 63;
+        long word = words[base + w] >>> shift;
+        if (shift != 0 && w + 1 < rowWords) {
+            word |= words[base + w + 1] << (64 - shift);
+        }
+        return word;
+    }
+}
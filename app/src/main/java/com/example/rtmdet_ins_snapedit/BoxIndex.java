@@ -0,0 +1,74 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.util.Arrays;
+
+/**
+ * Sorted-sweep index over boxes [x1, x2) x [y1, y2): for every box, the boxes with a higher index
+ * whose areas intersect it. Boxes that do not intersect can not overlap in mask either,
+ * so the NMS/merge loop only needs to visit these pairs.
+ */
+class BoxIndex {
+    private static final int[] EMPTY = new int[0];
+
+    private final int[][] neighbors;
+
+    BoxIndex(int[][] boxes, boolean[] isSkipped) {
+        int n = boxes.length;
+
+        // sweep order: active, non-empty boxes sorted by x1
+        long[] keys = new long[n];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            int[] box = boxes[i];
+            if (isSkipped[i] || box[0] >= box[2] || box[1] >= box[3]) {
+                continue;
+            }
+            keys[m++] = (long) box[0] << 32 | i;
+        }
+        Arrays.sort(keys, 0, m);
+        int[] order = new int[m];
+        for (int k = 0; k < m; k++) {
+            order[k] = (int) keys[k];
+        }
+
+        int[] counts = new int[n];
+        int[][] lists = new int[n][];
+        for (int p = 0; p < m; p++) {
+            int a = order[p];
+            int[] boxA = boxes[a];
+            // every later box in the sweep starts at or after boxA[0]; stop once it starts past boxA[2]
+            for (int q = p + 1; q < m && boxes[order[q]][0] < boxA[2]; q++) {
+                int b = order[q];
+                int[] boxB = boxes[b];
+                if (boxB[1] >= boxA[3] || boxA[1] >= boxB[3]) {
+                    continue;
+                }
+                int lo = Math.min(a, b);
+                int hi = Math.max(a, b);
+                if (lists[lo] == null) {
+                    lists[lo] = new int[4];
+                } else if (counts[lo] == lists[lo].length) {
+                    lists[lo] = Arrays.copyOf(lists[lo], counts[lo] * 2);
+                }
+                lists[lo][counts[lo]++] = hi;
+            }
+        }
+
+        neighbors = new int[n][];
+        for (int i = 0; i < n; i++) {
+            if (lists[i] == null) {
+                neighbors[i] = EMPTY;
+            } else {
+                neighbors[i] = Arrays.copyOf(lists[i], counts[i]);
+                Arrays.sort(neighbors[i]);
+            }
+        }
+    }
+
+    /**
+     * @return indices j > i of the boxes intersecting box i, in increasing order
+     */
+    int[] laterNeighbors(int i) {
+        return neighbors[i];
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.rtmdet_ins_snapedit;
+
+import android.graphics.Bitmap;
+
+/**
+ * Image decoded at a reduced size, straight from the encoded file (see
+ * {@link ImageUtils#decodeBitmap} and {@link ImageUtils#decodeRegion}): the bitmap plus the
+ * region of the original image it covers, so that results on the bitmap can be mapped back to
+ * original resolution.
+ */
+public class DecodedImage {
+    public final Bitmap bitmap;
+    public final int originalWidth;     // of the whole encoded image
+    public final int originalHeight;
+    public final int regionX;           // decoded region in original coordinates
+    public final int regionY;
+    public final int regionWidth;
+    public final int regionHeight;
+
+    public DecodedImage(Bitmap bitmap, int originalWidth, int originalHeight,
+                        int regionX, int regionY, int regionWidth, int regionHeight) {
+        this.bitmap = bitmap;
+        this.originalWidth = originalWidth;
+        this.originalHeight = originalHeight;
+        this.regionX = regionX;
+        this.regionY = regionY;
+        this.regionWidth = regionWidth;
+        this.regionHeight = regionHeight;
+    }
+
+    /**
+     * @return original pixels per bitmap pixel, horizontally
+     */
+    public float getScaleX() {
+        return regionWidth / (float) bitmap.getWidth();
+    }
+
+    /**
+     * @return original pixels per bitmap pixel, vertically
+     */
+    public float getScaleY() {
+        return regionHeight / (float) bitmap.getHeight();
+    }
+
+    /**
+     * @return result on the bitmap in original image coordinates, masks rescaled lazily
+     */
+    public ObjectDetector.DetectionResult toOriginal(ObjectDetector.DetectionResult result) {
+        return result.scale(getScaleX(), getScaleY(), regionX, regionY);
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.rtmdet_ins_snapedit;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.os.Build;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import kotlin.io.ByteStreamsKt;
+
+/**
+ * Builds detectors off the calling thread. The first launch builds the session from the raw model
+ * and then, in the background, saves an ORT-format optimized model to a cache keyed by model
+ * content and session options; later launches load the optimized model from its file directly.
+ * The model content is hashed once per install or update of the app, and looked up afterwards.
+ * The detector is warmed up before it is handed out. Without an explicit {@link SessionProfile},
+ * the fastest candidate is picked once per model and device by a {@link ProfileTuner}.
+ */
+public class DetectorFactory {
+    private static final int CACHE_ENTRIES = 4;
+    private static final int TUNE_WARM_UP_RUNS = 2;
+    private static final int TUNE_TIMED_RUNS = 5;
+
+    private final Resources resources;
+    private final String appStamp;      // null if unknown: models are hashed on every launch
+    private final ModelCache modelCache;
+    private final File profileCacheFile;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "detector-factory");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public DetectorFactory(Context context, File cacheDir) {
+        this.resources = context.getResources();
+        this.appStamp = appStamp(context);
+        this.modelCache = new ModelCache(new File(cacheDir, "ort-models"), CACHE_ENTRIES);
+        this.profileCacheFile = new File(cacheDir, "session-profiles.properties");
+    }
+
+    /**
+     * Detector with the default session profile, see {@link SessionProfile#defaults(int)}.
+     */
+    public CompletableFuture<ObjectDetector> create(int classesFileID, int modelID, int inferSize,
+                                                    float commonThres, float personThres, int warmUpRuns) {
+        return create(classesFileID, modelID, inferSize, commonThres, personThres, warmUpRuns,
+                SessionProfile.defaults(Build.VERSION.SDK_INT));
+    }
+
+    /**
+     * @param warmUpRuns synthetic inferences to run before the detector is ready (0 to skip)
+     * @param profile    session profile, null to auto-tune among {@link SessionProfile#candidates}
+     * @return detector, completed on a background thread
+     */
+    public CompletableFuture<ObjectDetector> create(final int classesFileID, final int modelID, final int inferSize,
+                                                    final float commonThres, final float personThres, final int warmUpRuns,
+                                                    final SessionProfile profile) {
+        final CompletableFuture<ObjectDetector> future = new CompletableFuture<>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    OrtEnvironment ortEnv = OrtEnvironment.getEnvironment();
+                    String modelHash = hashModel(modelID);
+                    SessionProfile sessionProfile = profile != null ? profile : tune(ortEnv, modelID, modelHash, inferSize);
+                    String key = ModelCache.key(modelHash, sessionProfile.key() + "|" + ortEnv.getVersion());
+
+                    OrtSession session = loadCached(ortEnv, key, sessionProfile);
+                    byte[] model = null;
+                    if (session == null) {
+                        model = readModel(modelID);
+                        session = createSession(ortEnv, model, sessionProfile);
+                    }
+
+                    ObjectDetector detector = new ObjectDetector(resources, classesFileID, modelHash, ortEnv, session, inferSize, commonThres, personThres);
+                    detector.warmUp(warmUpRuns);
+                    future.complete(detector);
+
+                    // after the detector is ready, so the first launch is not slowed down further
+                    if (model != null) {
+                        saveOptimized(ortEnv, model, key);
+                    }
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Pool of size detectors of the same model for concurrent requests. Every member has its own
+     * pre/post-processing buffers; the sessions are either one per member, each with an equal share
+     * of the cores as intra-op threads unless the profile sets a count, or a single one shared by all.
+     *
+     * @param sharedSession true for one session shared by the members (less memory, runs may contend)
+     * @param profile       session profile, null to auto-tune among {@link SessionProfile#candidates}
+     * @return pool, completed on a background thread
+     */
+    public CompletableFuture<DetectorPool<ObjectDetector>> createPool(final int classesFileID, final int modelID, final int inferSize,
+                                                                      final float commonThres, final float personThres, final int warmUpRuns,
+                                                                      final int size, final boolean sharedSession,
+                                                                      final SessionProfile profile) {
+        final CompletableFuture<DetectorPool<ObjectDetector>> future = new CompletableFuture<>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ArrayList<OrtSession> sessions = new ArrayList<>();
+                ArrayList<ObjectDetector> members = new ArrayList<>();
+                try {
+                    OrtEnvironment ortEnv = OrtEnvironment.getEnvironment();
+                    String modelHash = hashModel(modelID);
+                    SessionProfile sessionProfile = profile != null ? profile : tune(ortEnv, modelID, modelHash, inferSize);
+                    int sessionCount = sharedSession ? 1 : size;
+                    if (sessionProfile.intraOpThreads == 0) {
+                        int cores = Runtime.getRuntime().availableProcessors();
+                        sessionProfile = sessionProfile.withIntraOpThreads(Math.max(1, cores / sessionCount));
+                    }
+                    String key = ModelCache.key(modelHash, sessionProfile.key() + "|" + ortEnv.getVersion());
+
+                    byte[] model = null;
+                    for (int i = 0; i < sessionCount; i++) {
+                        OrtSession session = loadCached(ortEnv, key, sessionProfile);
+                        if (session == null) {
+                            if (model == null) {
+                                model = readModel(modelID);
+                            }
+                            session = createSession(ortEnv, model, sessionProfile);
+                        }
+                        sessions.add(session);
+                    }
+
+                    for (int i = 0; i < size; i++) {
+                        OrtSession session = sessions.get(sharedSession ? 0 : i);
+                        ObjectDetector detector = new ObjectDetector(resources, classesFileID, modelHash, ortEnv, session,
+                                inferSize, commonThres, personThres, !sharedSession);
+                        members.add(detector);
+                        detector.warmUp(warmUpRuns);
+                    }
+                    future.complete(new DetectorPool<>(members, sharedSession ? sessions.get(0) : null));
+
+                    if (model != null) {
+                        saveOptimized(ortEnv, model, key);
+                    }
+                } catch (Throwable e) {
+                    // members close their own sessions, except a shared one
+                    for (ObjectDetector detector : members) {
+                        detector.close();
+                    }
+                    for (int i = sharedSession ? 0 : members.size(); i < sessions.size(); i++) {
+                        try {
+                            sessions.get(i).close();
+                        } catch (OrtException closeError) {
+                            closeError.printStackTrace();
+                        }
+                    }
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    // raw models only change with the app, so their hash is kept until it is installed or updated again
+    private static String appStamp(Context context) {
+        try {
+            return String.valueOf(context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime);
+        } catch (PackageManager.NameNotFoundException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private String hashModel(int modelID) throws IOException {
+        String name = String.valueOf(modelID);
+        String hash = appStamp != null ? modelCache.getHash(name, appStamp) : null;
+        if (hash != null) {
+            return hash;
+        }
+        try (InputStream inputStream = resources.openRawResource(modelID)) {
+            hash = ModelCache.sha256(inputStream);
+        }
+        if (appStamp != null) {
+            modelCache.putHash(name, appStamp, hash);
+        }
+        return hash;
+    }
+
+    private byte[] readModel(int modelID) {
+        return ByteStreamsKt.readBytes(resources.openRawResource(modelID));
+    }
+
+    // the choice is cached per model and device, the model is only read if candidates must be timed
+    private SessionProfile tune(final OrtEnvironment ortEnv, final int modelID, String modelHash, final int inferSize) {
+        ProfileTuner.TrialFactory trials = new ProfileTuner.TrialFactory() {
+            private ProfileTuner.TrialFactory sessionTrials;
+
+            @Override
+            public ProfileTuner.Trial open(SessionProfile profile) throws Exception {
+                if (sessionTrials == null) {
+                    byte[] model = readModel(modelID);
+                    sessionTrials = ProfileTuner.sessionTrials(ortEnv, model, inferSize);
+                }
+                return sessionTrials.open(profile);
+            }
+        };
+        List<SessionProfile> candidates = SessionProfile.candidates(Runtime.getRuntime().availableProcessors(), Build.VERSION.SDK_INT >= 27);
+        String device = Build.MANUFACTURER + " " + Build.MODEL + " " + Build.VERSION.SDK_INT;
+        SessionProfile best = new ProfileTuner(trials, TUNE_WARM_UP_RUNS, TUNE_TIMED_RUNS)
+                .tune(candidates, profileCacheFile, modelHash.substring(0, 32) + "@" + device.replace(' ', '_'));
+        return best != null ? best : SessionProfile.defaults(Build.VERSION.SDK_INT);
+    }
+
+    // the session keeps what it needs from the options, which are native and closed right away
+    private static OrtSession createSession(OrtEnvironment ortEnv, byte[] model, SessionProfile profile) throws OrtException {
+        try (OrtSession.SessionOptions sessionOptions = profile.createOptions()) {
+            return ortEnv.createSession(model, sessionOptions);
+        }
+    }
+
+    private OrtSession loadCached(OrtEnvironment ortEnv, String key, SessionProfile profile) {
+        File cached = modelCache.get(key);
+        if (cached == null) {
+            return null;
+        }
+        try (OrtSession.SessionOptions sessionOptions = profile.createOptions()) {
+            sessionOptions.addConfigEntry("session.load_model_format", "ORT");
+            return ortEnv.createSession(cached.getAbsolutePath(), sessionOptions);
+        } catch (OrtException e) {
+            // unreadable (e.g. written by another runtime version): rebuild it
+            e.printStackTrace();
+            modelCache.remove(key);
+            return null;
+        }
+    }
+
+    // graph rewrites that do not depend on the execution provider only (BASIC), so that NNAPI can
+    // still take the whole graph when loading the cached model
+    private void saveOptimized(OrtEnvironment ortEnv, byte[] model, String key) {
+        File tempFile = modelCache.tempFile(key);
+        try (OrtSession.SessionOptions sessionOptions = new OrtSession.SessionOptions()) {
+            sessionOptions.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.BASIC_OPT);
+            sessionOptions.addConfigEntry("session.save_model_format", "ORT");
+            sessionOptions.setOptimizedModelFilePath(tempFile.getAbsolutePath());
+            ortEnv.createSession(model, sessionOptions).close();
+            modelCache.commit(key, tempFile);
+        } catch (OrtException e) {
+            e.printStackTrace();
+            tempFile.delete();
+        }
+    }
+}
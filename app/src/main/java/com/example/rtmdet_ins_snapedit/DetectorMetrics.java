@@ -0,0 +1,258 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.lang.reflect.Method;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-stage latency, allocation and detection-count metrics of the detector. Stages report
+ * nanoTime deltas to pluggable {@link Listener}s; the default {@link Recorder} aggregates them
+ * into histograms that can be snapshot and exported to JSON.
+ * Thread-safe: stages of different frames may report concurrently.
+ */
+public class DetectorMetrics {
+
+    public enum Stage {
+        PREPROCESS,     // resize + pad + normalize into the input tensor
+        INPUT_TENSOR,   // acquiring (pooled) or creating the input tensor
+        SESSION_RUN,    // ONNX session run
+        EXTRACT,        // reading the session outputs
+        NMS_MERGE,      // score filter, box clamping, NMS and merge of redundant instances
+        MASK_RENDER     // building the final masks and materializing them on demand
+    }
+
+    public interface Listener {
+        /**
+         * @param allocatedBytes bytes allocated by the reporting thread during the stage, -1 if not tracked
+         */
+        void onStage(Stage stage, long nanos, long allocatedBytes);
+
+        /**
+         * @param raw  detections output by the model
+         * @param kept detections left after post-processing
+         */
+        void onDetections(int raw, int kept);
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, or -1 if the runtime does not tell.
+     */
+    public interface AllocationCounter {
+        long allocatedBytes();
+    }
+
+    private static final Listener[] NO_LISTENERS = new Listener[0];
+
+    private volatile Listener[] listeners = NO_LISTENERS;
+    private volatile AllocationCounter allocationCounter;   // null when allocation tracking is off
+
+    public synchronized void addListener(Listener listener) {
+        Listener[] updated = new Listener[listeners.length + 1];
+        System.arraycopy(listeners, 0, updated, 0, listeners.length);
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                Listener[] updated = new Listener[listeners.length - 1];
+                System.arraycopy(listeners, 0, updated, 0, i);
+                System.arraycopy(listeners, i + 1, updated, i, updated.length - i);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Track bytes allocated per stage with the given counter (see {@link #threadAllocationCounter()}),
+     * or stop tracking with null. Off by default, since counters are not free on every runtime.
+     */
+    public void setAllocationCounter(AllocationCounter allocationCounter) {
+        this.allocationCounter = allocationCounter;
+    }
+
+    /**
+     * @return start time of a stage, to pass to {@link #record}
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * @return allocation counter at the start of a stage, to pass to {@link #record} (-1 if not tracked)
+     */
+    public long startAllocated() {
+        AllocationCounter counter = allocationCounter;
+        return counter == null ? -1 : counter.allocatedBytes();
+    }
+
+    public void record(Stage stage, long startNanos, long startAllocated) {
+        long nanos = System.nanoTime() - startNanos;
+        long allocated = -1;
+        AllocationCounter counter = allocationCounter;
+        if (startAllocated >= 0 && counter != null) {
+            allocated = counter.allocatedBytes() - startAllocated;
+        }
+        for (Listener listener : listeners) {
+            listener.onStage(stage, nanos, allocated);
+        }
+    }
+
+    public void recordDetections(int raw, int kept) {
+        for (Listener listener : listeners) {
+            listener.onDetections(raw, kept);
+        }
+    }
+
+    /**
+     * Per-thread allocated bytes from the JVM management beans (HotSpot and OpenJDK),
+     * or null where they are not available (e.g. Android).
+     */
+    public static AllocationCounter threadAllocationCounter() {
+        try {
+            final Object bean = Class.forName("java.lang.management.ManagementFactory")
+                    .getMethod("getThreadMXBean").invoke(null);
+            Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+            if (!beanClass.isInstance(bean)
+                    || !(Boolean) beanClass.getMethod("isThreadAllocatedMemorySupported").invoke(bean)) {
+                return null;
+            }
+            beanClass.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(bean, true);
+            final Method method = beanClass.getMethod("getThreadAllocatedBytes", long.class);
+            return new AllocationCounter() {
+                @Override
+                public long allocatedBytes() {
+                    try {
+                        return (Long) method.invoke(bean, Thread.currentThread().getId());
+                    } catch (Exception e) {
+                        return -1;
+                    }
+                }
+            };
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Default listener: a latency histogram and allocation total per stage, plus detection counts.
+     */
+    public static class Recorder implements Listener {
+        private final EnumMap<Stage, LatencyHistogram> latencies = new EnumMap<>(Stage.class);
+        private final EnumMap<Stage, AtomicLong> allocated = new EnumMap<>(Stage.class);
+        private final AtomicLong frames = new AtomicLong();
+        private final AtomicLong rawDetections = new AtomicLong();
+        private final AtomicLong keptDetections = new AtomicLong();
+
+        public Recorder() {
+            for (Stage stage : Stage.values()) {
+                latencies.put(stage, new LatencyHistogram());
+                allocated.put(stage, new AtomicLong(-1));
+            }
+        }
+
+        @Override
+        public void onStage(Stage stage, long nanos, long allocatedBytes) {
+            latencies.get(stage).record(nanos);
+            if (allocatedBytes >= 0) {
+                AtomicLong total = allocated.get(stage);
+                // -1 until the first tracked sample
+                total.compareAndSet(-1, 0);
+                total.addAndGet(allocatedBytes);
+            }
+        }
+
+        @Override
+        public void onDetections(int raw, int kept) {
+            frames.incrementAndGet();
+            rawDetections.addAndGet(raw);
+            keptDetections.addAndGet(kept);
+        }
+
+        public Snapshot snapshot() {
+            EnumMap<Stage, StageStats> stages = new EnumMap<>(Stage.class);
+            for (Stage stage : Stage.values()) {
+                LatencyHistogram histogram = latencies.get(stage);
+                stages.put(stage, new StageStats(histogram.getCount(), histogram.getPercentile(50),
+                        histogram.getPercentile(95), histogram.getPercentile(99), histogram.getMax(),
+                        histogram.getMean(), allocated.get(stage).get()));
+            }
+            return new Snapshot(stages, frames.get(), rawDetections.get(), keptDetections.get());
+        }
+
+        public void reset() {
+            for (Stage stage : Stage.values()) {
+                latencies.get(stage).reset();
+                allocated.get(stage).set(-1);
+            }
+            frames.set(0);
+            rawDetections.set(0);
+            keptDetections.set(0);
+        }
+    }
+
+    public static class StageStats {
+        public final long count;
+        public final long p50Nanos;
+        public final long p95Nanos;
+        public final long p99Nanos;
+        public final long maxNanos;
+        public final long meanNanos;
+        public final long allocatedBytes;   // total over all samples, -1 if not tracked
+
+        public StageStats(long count, long p50Nanos, long p95Nanos, long p99Nanos, long maxNanos, long meanNanos, long allocatedBytes) {
+            this.count = count;
+            this.p50Nanos = p50Nanos;
+            this.p95Nanos = p95Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+            this.meanNanos = meanNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    public static class Snapshot {
+        public final Map<Stage, StageStats> stages;
+        public final long frames;
+        public final long rawDetections;
+        public final long keptDetections;
+
+        public Snapshot(Map<Stage, StageStats> stages, long frames, long rawDetections, long keptDetections) {
+            this.stages = stages;
+            this.frames = frames;
+            this.rawDetections = rawDetections;
+            this.keptDetections = keptDetections;
+        }
+
+        public String toJson() {
+            StringBuilder json = new StringBuilder("{\"stages\":{");
+            boolean first = true;
+            for (Map.Entry<Stage, StageStats> entry : stages.entrySet()) {
+                StageStats stats = entry.getValue();
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                json.append('"').append(entry.getKey().name()).append("\":{")
+                        .append("\"count\":").append(stats.count)
+                        .append(",\"p50Nanos\":").append(stats.p50Nanos)
+                        .append(",\"p95Nanos\":").append(stats.p95Nanos)
+                        .append(",\"p99Nanos\":").append(stats.p99Nanos)
+                        .append(",\"maxNanos\":").append(stats.maxNanos)
+                        .append(",\"meanNanos\":").append(stats.meanNanos)
+                        .append(",\"allocatedBytes\":").append(stats.allocatedBytes)
+                        .append('}');
+            }
+            json.append("},\"detections\":{")
+                    .append("\"frames\":").append(frames)
+                    .append(",\"raw\":").append(rawDetections)
+                    .append(",\"kept\":").append(keptDetections)
+                    .append("}}");
+            return json.toString();
+        }
+    }
+}
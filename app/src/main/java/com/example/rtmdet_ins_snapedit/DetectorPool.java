@@ -0,0 +1,175 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed set of detectors of the same model, handed out as leases so that each in-flight request
+ * owns a member (and its pre/post-processing buffers) exclusively. Waiting callers are served
+ * first come, first served.
+ *
+ * @param <D> member, e.g. {@link ObjectDetector}
+ */
+public class DetectorPool<D extends AutoCloseable> implements AutoCloseable {
+
+    public interface Task<D, A, R> {
+        R apply(D detector, A input) throws Exception;
+    }
+
+    public static class Lease<D extends AutoCloseable> implements AutoCloseable {
+        private final DetectorPool<D> pool;
+        private D detector;
+
+        Lease(DetectorPool<D> pool, D detector) {
+            this.pool = pool;
+            this.detector = detector;
+        }
+
+        public D get() {
+            if (detector == null) {
+                throw new IllegalStateException("lease already returned");
+            }
+            return detector;
+        }
+
+        /**
+         * Return the member to the pool (once).
+         */
+        @Override
+        public void close() {
+            if (detector != null) {
+                pool.release(detector);
+                detector = null;
+            }
+        }
+    }
+
+    private final List<D> members;
+    private final AutoCloseable shared;     // resource shared by the members (e.g. one session), may be null
+    private final ArrayBlockingQueue<D> idle;
+    private final ExecutorService executor;
+    private volatile boolean closed;
+
+    /**
+     * @param shared closed after the members, null if they share nothing
+     */
+    public DetectorPool(List<D> members, AutoCloseable shared) {
+        this.members = new ArrayList<>(members);
+        this.shared = shared;
+        this.idle = new ArrayBlockingQueue<>(members.size(), true);
+        this.idle.addAll(members);
+        final AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(members.size(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "detector-pool-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * Wait for a free member.
+     */
+    public Lease<D> acquire() throws InterruptedException {
+        checkOpen();
+        return new Lease<>(this, idle.take());
+    }
+
+    /**
+     * @return a lease, or null if no member got free in time
+     */
+    public Lease<D> tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        checkOpen();
+        D detector = idle.poll(timeout, unit);
+        return detector == null ? null : new Lease<>(this, detector);
+    }
+
+    /**
+     * Run task on a leased member in the calling thread.
+     */
+    public <A, R> R run(Task<D, A, R> task, A input) throws Exception {
+        try (Lease<D> lease = acquire()) {
+            return task.apply(lease.get(), input);
+        }
+    }
+
+    /**
+     * Run task over all inputs with up to {@link #size()} of them in flight at once.
+     *
+     * @return results in input order
+     */
+    public <A, R> List<R> map(final Task<D, A, R> task, List<A> inputs) throws InterruptedException, ExecutionException {
+        checkOpen();
+        ArrayList<Future<R>> futures = new ArrayList<>(inputs.size());
+        for (final A input : inputs) {
+            futures.add(executor.submit(new Callable<R>() {
+                @Override
+                public R call() throws Exception {
+                    return run(task, input);
+                }
+            }));
+        }
+        ArrayList<R> results = new ArrayList<>(inputs.size());
+        try {
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+        } finally {
+            for (Future<R> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    private void release(D detector) {
+        idle.add(detector);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("pool is closed");
+        }
+    }
+
+    /**
+     * Close every member, then the shared resource. Leases must have been returned.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        executor.shutdownNow();
+        for (D detector : members) {
+            closeQuietly(detector);
+        }
+        if (shared != null) {
+            closeQuietly(shared);
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
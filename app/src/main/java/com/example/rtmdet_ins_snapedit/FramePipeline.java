@@ -0,0 +1,246 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Three-stage asynchronous pipeline (pre-process -> session run -> post-process), each stage on its
+ * own single thread, so frame N + 1 is pre-processed while frame N is inferring and frame N - 1 is
+ * post-processed. Frames wait in a bounded queue handled according to a {@link QueuePolicy}, and at
+ * most one prepared frame waits for the run stage, so two input buffers are enough downstream.
+ *
+ * @param <F> input frame
+ * @param <P> pre-processed frame
+ * @param <O> raw model output
+ * @param <R> final result
+ */
+public class FramePipeline<F, P, O, R> implements AutoCloseable {
+
+    public interface Stage<A, B> {
+        B apply(A input) throws Exception;
+    }
+
+    public enum QueuePolicy {
+        BLOCK,          // submit waits for a free slot (backpressure)
+        DROP_OLDEST,    // the oldest waiting frame is cancelled to make room
+        REJECT          // the new frame fails with RejectedExecutionException
+    }
+
+    private static class Job<F, R> {
+        final F frame;
+        final CompletableFuture<R> future = new CompletableFuture<>();
+
+        Job(F frame) {
+            this.frame = frame;
+        }
+    }
+
+    private final Stage<F, P> preprocess;
+    private final Stage<P, O> run;
+    private final Stage<O, R> postprocess;
+    private final QueuePolicy policy;
+
+    private final LinkedBlockingDeque<Job<F, R>> pending;
+    private final Semaphore preparedSlot = new Semaphore(1);
+    private final ExecutorService preprocessExecutor;
+    private final ExecutorService runExecutor;
+    private final ExecutorService postprocessExecutor;
+    private final CompletableFuture<Void> terminated = new CompletableFuture<>();
+
+    public FramePipeline(Stage<F, P> preprocess, Stage<P, O> run, Stage<O, R> postprocess, int capacity, QueuePolicy policy) {
+        this.preprocess = preprocess;
+        this.run = run;
+        this.postprocess = postprocess;
+        this.policy = policy;
+        this.pending = new LinkedBlockingDeque<>(capacity);
+        this.preprocessExecutor = Executors.newSingleThreadExecutor(namedThreads("pipeline-preprocess"));
+        this.runExecutor = Executors.newSingleThreadExecutor(namedThreads("pipeline-run"));
+        this.postprocessExecutor = Executors.newSingleThreadExecutor(namedThreads("pipeline-postprocess"));
+    }
+
+    private static ThreadFactory namedThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Queue a frame. With {@link QueuePolicy#BLOCK} this waits while the queue is full.
+     */
+    public CompletableFuture<R> submit(F frame) {
+        Job<F, R> job = new Job<>(frame);
+        if (preprocessExecutor.isShutdown()) {
+            job.future.completeExceptionally(new RejectedExecutionException("pipeline is closed"));
+            return job.future;
+        }
+
+        switch (policy) {
+            case BLOCK:
+                try {
+                    pending.putLast(job);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    job.future.completeExceptionally(e);
+                    return job.future;
+                }
+                break;
+            case DROP_OLDEST:
+                while (!pending.offerLast(job)) {
+                    Job<F, R> dropped = pending.pollFirst();
+                    if (dropped != null) {
+                        dropped.future.completeExceptionally(new CancellationException("dropped by a newer frame"));
+                    }
+                }
+                break;
+            case REJECT:
+                if (!pending.offerLast(job)) {
+                    job.future.completeExceptionally(new RejectedExecutionException("frame queue is full"));
+                    return job.future;
+                }
+                break;
+        }
+
+        // one task per queued frame; a task finding the queue empty belongs to a dropped frame
+        try {
+            preprocessExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    preprocessNext();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (pending.remove(job)) {
+                job.future.completeExceptionally(e);
+            }
+        }
+        return job.future;
+    }
+
+    private void preprocessNext() {
+        try {
+            preparedSlot.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        final Job<F, R> job = pending.pollFirst();
+        if (job == null) {
+            preparedSlot.release();
+            return;
+        }
+
+        final P prepared;
+        try {
+            prepared = preprocess.apply(job.frame);
+        } catch (Throwable e) {
+            preparedSlot.release();
+            job.future.completeExceptionally(e);
+            return;
+        }
+
+        try {
+            runExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runStage(job, prepared);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            preparedSlot.release();
+            job.future.completeExceptionally(e);
+        }
+    }
+
+    private void runStage(final Job<F, R> job, P prepared) {
+        // the run stage took the prepared frame, the next one can be pre-processed
+        preparedSlot.release();
+
+        final O output;
+        try {
+            output = run.apply(prepared);
+        } catch (Throwable e) {
+            job.future.completeExceptionally(e);
+            return;
+        }
+
+        try {
+            postprocessExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        job.future.complete(postprocess.apply(output));
+                    } catch (Throwable e) {
+                        job.future.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            job.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return number of frames waiting for pre-processing
+     */
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stop accepting frames, cancel the waiting ones and let in-flight frames finish.
+     */
+    @Override
+    public void close() {
+        closeAsync();
+    }
+
+    /**
+     * Same as {@link #close()}.
+     *
+     * @return completed once the in-flight frames are finished and the stages stopped, e.g. to free
+     * what the stages use only then
+     */
+    public synchronized CompletableFuture<Void> closeAsync() {
+        if (preprocessExecutor.isShutdown()) {
+            return terminated;
+        }
+        Job<F, R> job;
+        while ((job = pending.pollFirst()) != null) {
+            job.future.completeExceptionally(new CancellationException("pipeline closed"));
+        }
+
+        // shut the stages down in order, behind the tasks already queued in each of them
+        preprocessExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        postprocessExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                terminated.complete(null);
+                            }
+                        });
+                        postprocessExecutor.shutdown();
+                    }
+                });
+                runExecutor.shutdown();
+            }
+        });
+        preprocessExecutor.shutdown();
+        return terminated;
+    }
+}
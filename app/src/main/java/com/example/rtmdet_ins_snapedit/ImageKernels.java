@@ -0,0 +1,158 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Pixel kernels of the pre-processing over ARGB {@code int[]} arrays (no Android classes),
+ * shared by {@link ImageUtils} and the JVM benchmarks.
+ */
+public class ImageKernels {
+
+    /**
+     * @return largest power of two subsampling of a width x height image that keeps its longest
+     * side at least maxSize: decoders subsample for free, the rest is left to an exact resize
+     */
+    public static int sampleSize(int width, int height, int maxSize) {
+        int longest = Math.max(width, height);
+        int sample = 1;
+        while (sample <= Integer.MAX_VALUE / 2 && longest / (sample * 2) >= maxSize) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    /**
+     * Place the image at the center of a maxSize x maxSize canvas filled with gray padValue.
+     *
+     * @return padded pixels (maxSize * maxSize), padding offsets are (maxSize - width) / 2 and (maxSize - height) / 2
+     */
+    public static int[] pad(int[] pixels, int width, int height, int maxSize, int padValue) {
+        int padX = (maxSize - width) / 2;
+        int padY = (maxSize - height) / 2;
+
+        int[] padded = new int[maxSize * maxSize];
+        Arrays.fill(padded, 0xFF000000 | padValue << 16 | padValue << 8 | padValue);
+        for (int i = 0; i < height; i++) {
+            System.arraycopy(pixels, i * width, padded, (i + padY) * maxSize + padX, width);
+        }
+        return padded;
+    }
+
+    /**
+     * Convert ARGB pixels to a (3, height, width) float tensor of (value - mean) / std per channel.
+     */
+    public static FloatBuffer normalize(int[] pixels, int width, int height, float[] mean, float[] std) {
+        int stride = width * height;
+        FloatBuffer normalizedResult = FloatBuffer.allocate(3 * stride);
+        normalizedResult.rewind();
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                int idx = i * width + j;
+                int pixelValue = pixels[idx];
+                normalizedResult.put(idx, ((float) (pixelValue >> 16 & 255) - mean[0]) / std[0]);
+                normalizedResult.put(idx + stride, ((float) (pixelValue >> 8 & 255) - mean[1]) / std[1]);
+                normalizedResult.put(idx + stride * 2, ((float) (pixelValue & 255) - mean[2]) / std[2]);
+            }
+        }
+        normalizedResult.rewind();
+        return normalizedResult;
+    }
+
+    /**
+     * Write pad value and normalized pixels straight into a (3, size, size) tensor in one pass,
+     * with the width x height image placed at (padX, padY).
+     * Absolute puts only: the buffer position is left untouched.
+     */
+    public static void letterbox(int[] pixels, int width, int height, int size, int padX, int padY,
+                                 int padValue, float[] mean, float[] std, FloatBuffer out) {
+        int stride = size * size;
+        float padR = ((float) padValue - mean[0]) / std[0];
+        float padG = ((float) padValue - mean[1]) / std[1];
+        float padB = ((float) padValue - mean[2]) / std[2];
+        for (int i = 0; i < size; i++) {
+            int row = i * size;
+            int srcRow = i - padY;
+            boolean inside = srcRow >= 0 && srcRow < height;
+            for (int j = 0; j < size; j++) {
+                int idx = row + j;
+                int srcCol = j - padX;
+                if (!inside || srcCol < 0 || srcCol >= width) {
+                    out.put(idx, padR);
+                    out.put(idx + stride, padG);
+                    out.put(idx + stride * 2, padB);
+                    continue;
+                }
+                int pixelValue = pixels[srcRow * width + srcCol];
+                out.put(idx, ((float) (pixelValue >> 16 & 255) - mean[0]) / std[0]);
+                out.put(idx + stride, ((float) (pixelValue >> 8 & 255) - mean[1]) / std[1]);
+                out.put(idx + stride * 2, ((float) (pixelValue & 255) - mean[2]) / std[2]);
+            }
+        }
+    }
+
+    /**
+     * Full-range BT.601 (JFIF) conversion in 16-bit fixed point.
+     *
+     * @return opaque ARGB pixel
+     */
+    public static int yuvToArgb(int y, int u, int v) {
+        u -= 128;
+        v -= 128;
+        int r = y + (91881 * v >> 16);
+        int g = y - (22554 * u + 46802 * v >> 16);
+        int b = y + (116130 * u >> 16);
+        return 0xFF000000 | clampByte(r) << 16 | clampByte(g) << 8 | clampByte(b);
+    }
+
+    // branch-free clamp to [0, 255]: out-of-range values are common in saturated areas and hard to predict
+    private static int clampByte(int value) {
+        value &= ~(value >> 31);
+        return (value | (255 - value) >> 31) & 255;
+    }
+
+    /**
+     * Convert a YUV frame to ARGB pixels, rotated clockwise by rotation degrees (0, 90, 180 or 270).
+     * Reference of {@link YuvLetterboxKernel}, which does the same without the full-frame copy.
+     */
+    public static int[] yuvToArgb(YuvFrame frame, int rotation) {
+        int width = frame.rotatedWidth(rotation);
+        int height = frame.rotatedHeight(rotation);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = frame.argb(sensorX(frame, rotation, x, y), sensorY(frame, rotation, x, y));
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * @return sensor column of the pixel at (x, y) of the frame rotated clockwise by rotation degrees
+     */
+    static int sensorX(YuvFrame frame, int rotation, int x, int y) {
+        switch (rotation) {
+            case 90:
+                return y;
+            case 180:
+                return frame.width - 1 - x;
+            case 270:
+                return frame.width - 1 - y;
+            default:
+                return x;
+        }
+    }
+
+    static int sensorY(YuvFrame frame, int rotation, int x, int y) {
+        switch (rotation) {
+            case 90:
+                return frame.height - 1 - x;
+            case 180:
+                return frame.height - 1 - y;
+            case 270:
+                return x;
+            default:
+                return y;
+        }
+    }
+}
@@ -4,18 +4,25 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.ImageDecoder;
 import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.Image;
 import android.net.Uri;
 import android.os.Build;
 import android.provider.MediaStore;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
 
 public class ImageUtils {
 
@@ -59,11 +66,10 @@ public class ImageUtils {
         int padX = (maxSize - width) / 2;
         int padY = (maxSize - height) / 2;
 
-        Bitmap mutableBm = image.copy(Bitmap.Config.ARGB_8888, true);
-        Bitmap newImage = Bitmap.createBitmap(maxSize, maxSize, mutableBm.getConfig());
-        Canvas canvas = new Canvas(newImage);
-        canvas.drawRGB(padValue, padValue, padValue);
-        canvas.drawBitmap(mutableBm, padX, padY, null);
+        int[] pixels = new int[width * height];
+        image.getPixels(pixels, 0, width, 0, 0, width, height);
+        int[] padded = ImageKernels.pad(pixels, width, height, maxSize, padValue);
+        Bitmap newImage = Bitmap.createBitmap(padded, maxSize, maxSize, Bitmap.Config.ARGB_8888);
 
         return new PaddedImage(newImage, padX, padY);
     }
@@ -71,99 +77,168 @@ public class ImageUtils {
     public static FloatBuffer normalizeImage(@NotNull Bitmap image, float[] mean, float[] std) {
         int width = image.getWidth();
         int height = image.getHeight();
-        int bufferSize = 3 * width * height;
-
-        int stride = width * height;
-        int[] bmpData = new int[stride];
+        int[] bmpData = new int[width * height];
         image.getPixels(bmpData, 0, width, 0, 0, width, height);
 
-        FloatBuffer normalizedResult = FloatBuffer.allocate(bufferSize);
-        normalizedResult.rewind();
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                int idx = i * width + j;
-                int pixelValue = bmpData[idx];
-                normalizedResult.put(idx, ((float) (pixelValue >> 16 & 255) - mean[0]) / std[0]);
-                normalizedResult.put(idx + stride, ((float) (pixelValue >> 8 & 255) - mean[1]) / std[1]);
-                normalizedResult.put(idx + stride * 2, ((float) (pixelValue & 255) - mean[2]) / std[2]);
-            }
-        }
-        normalizedResult.rewind();
-        return normalizedResult;
+        return ImageKernels.normalize(bmpData, width, height, mean, std);
     }
 
-    private static Bitmap myDecodeBitmap(Context context, Uri selectedImage) {
-        Bitmap bm = null;
+    /**
+     * Decode an image at most maxSize on its longest side, keeping its ratio, without ever holding
+     * it at full resolution: the decoder is asked for the target size up front (ImageDecoder), or
+     * subsamples by a power of two (BitmapFactory) before a final exact resize.
+     *
+     * @return decoded image with its original size, or null if it can not be decoded
+     */
+    public static DecodedImage decodeBitmap(Context context, Uri uri, final int maxSize) {
         ContentResolver contentResolver = context.getContentResolver();
         try {
-            if(Build.VERSION.SDK_INT < 28) {
-                bm = MediaStore.Images.Media.getBitmap(contentResolver, selectedImage);
-            } else {
-                ImageDecoder.Source source = ImageDecoder.createSource(contentResolver, selectedImage);
-                bm = ImageDecoder.decodeBitmap(source);
+            if (Build.VERSION.SDK_INT >= 28) {
+                final int[] originalSize = new int[2];
+                ImageDecoder.Source source = ImageDecoder.createSource(contentResolver, uri);
+                Bitmap bitmap = ImageDecoder.decodeBitmap(source, new ImageDecoder.OnHeaderDecodedListener() {
+                    @Override
+                    public void onHeaderDecoded(ImageDecoder decoder, ImageDecoder.ImageInfo info, ImageDecoder.Source source) {
+                        originalSize[0] = info.getSize().getWidth();
+                        originalSize[1] = info.getSize().getHeight();
+                        int[] target = LetterboxKernel.fitSize(originalSize[0], originalSize[1], maxSize);
+                        decoder.setTargetSize(target[0], target[1]);
+                        // pixels are read back for inference and rendering: no hardware bitmap
+                        decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+                    }
+                });
+                return new DecodedImage(bitmap, originalSize[0], originalSize[1], 0, 0, originalSize[0], originalSize[1]);
+            }
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            try (InputStream inputStream = contentResolver.openInputStream(uri)) {
+                BitmapFactory.decodeStream(inputStream, null, options);
+            }
+            int width = options.outWidth;
+            int height = options.outHeight;
+            if (width <= 0 || height <= 0) {
+                throw new IOException("can not decode " + uri);
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = ImageKernels.sampleSize(width, height, maxSize);
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            Bitmap bitmap;
+            try (InputStream inputStream = contentResolver.openInputStream(uri)) {
+                bitmap = BitmapFactory.decodeStream(inputStream, null, options);
             }
+            if (bitmap == null) {
+                throw new IOException("can not decode " + uri);
+            }
+            return new DecodedImage(resize(bitmap, maxSize), width, height, 0, 0, width, height);
         } catch (Exception e) {
             e.printStackTrace();
+            return null;
         }
-        return bm;
     }
 
+    /**
+     * Decode the region [x, x + width) x [y, y + height) of an image (clipped to it) at most
+     * maxSize on its longest side, subsampled by the region decoder, e.g. to re-run detection on
+     * a crop at a better resolution than the whole image was decoded at.
+     * Note: the EXIF orientation is not applied, as {@link RegionTileSource}.
+     *
+     * @return decoded region with its place in the original image, or null if it can not be decoded
+     */
+    public static DecodedImage decodeRegion(Context context, Uri uri, int x, int y, int width, int height, int maxSize) {
+        BitmapRegionDecoder decoder = null;
+        try (InputStream inputStream = context.getContentResolver().openInputStream(uri)) {
+            if (inputStream == null) {
+                throw new IOException("can not open " + uri);
+            }
+            decoder = BitmapRegionDecoder.newInstance(inputStream, false);
+            Rect rect = new Rect(Math.max(x, 0), Math.max(y, 0),
+                    Math.min(x + width, decoder.getWidth()), Math.min(y + height, decoder.getHeight()));
+            if (rect.isEmpty()) {
+                throw new IOException("empty region " + rect);
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = ImageKernels.sampleSize(rect.width(), rect.height(), maxSize);
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            Bitmap bitmap = decoder.decodeRegion(rect, options);
+            if (bitmap == null) {
+                throw new IOException("can not decode region " + rect);
+            }
+            return new DecodedImage(resize(bitmap, maxSize), decoder.getWidth(), decoder.getHeight(),
+                    rect.left, rect.top, rect.width(), rect.height());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+        }
+    }
+
+    // resizeKeepRatio, releasing the subsampled bitmap once it is replaced
+    private static Bitmap resize(Bitmap bitmap, int maxSize) {
+        Bitmap resized = resizeKeepRatio(bitmap, maxSize);
+        if (resized != bitmap) {
+            bitmap.recycle();
+        }
+        return resized;
+    }
+
+    /**
+     * Render the detections over a copy of the image: masks composited in bulk (see
+     * {@link MaskCompositor}), then boxes and labels drawn on one canvas. The result is not modified.
+     */
     public static Bitmap drawDetectionResult(ObjectDetector.DetectionResult result, Bitmap inputImage, int[] boxColor, int[] maskColor, float maskOpacity) {
-        ArrayList<Float> scores = result.scores;
         ArrayList<int[]> boxes = result.boxes;
         ArrayList<String> labels = result.labels;
-        ArrayList<Bitmap> masks = result.masks;
-
-        Bitmap outputBm = inputImage.copy(Bitmap.Config.ARGB_8888, true);
-
-
-        for (int i = 0; i < scores.size(); i++) {
+        int width = inputImage.getWidth();
+        int height = inputImage.getHeight();
+
+        // draw masks
+        int[] pixels = new int[width * height];
+        inputImage.getPixels(pixels, 0, width, 0, 0, width, height);
+        if (result.hasMasks()) {
+            long startTime = result.metrics.start();
+            long startAllocated = result.metrics.startAllocated();
+            MaskCompositor compositor = new MaskCompositor(Color.rgb(maskColor[0], maskColor[1], maskColor[2]), maskOpacity,
+                    ForkJoinPool.commonPool());
+            compositor.composite(pixels, width, height, boxes, result.masks);
+            result.metrics.record(DetectorMetrics.Stage.MASK_RENDER, startTime, startAllocated);
+        }
+        Bitmap outputBm = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        outputBm.setPixels(pixels, 0, width, 0, 0, width, height);
+
+        Canvas canvas = new Canvas(outputBm);
+        Paint boxPaint = new Paint();
+        boxPaint.setStyle(Paint.Style.STROKE);
+        boxPaint.setStrokeWidth(3);
+        boxPaint.setColor(Color.rgb(boxColor[0], boxColor[1], boxColor[2]));
+        Paint labelPaint = new Paint();
+        labelPaint.setStyle(Paint.Style.FILL);
+        labelPaint.setTextSize(20);
+        labelPaint.setColor(Color.rgb(255, 0, 0));
+
+        for (int i = 0; i < boxes.size(); i++) {
             int[] box = boxes.get(i);
-            String label = labels.get(i);
-            float score = scores.get(i);
-
-            Canvas canvas = new Canvas(outputBm);
-            Paint paint = new Paint();
-            paint.setStyle(Paint.Style.STROKE);
-            paint.setStrokeWidth(3);
-            paint.setColor(Color.rgb(boxColor[0], boxColor[1], boxColor[2]));
-
             // draw box
             int x1 = box[0], y1 = box[1], x2 = box[2], y2 = box[3];
-            canvas.drawRect(x1, y1, x2, y2, paint);
-
-            // draw mask
-            Bitmap mask = masks.get(i); // same size as box
-            for (int y = 0; y < mask.getHeight(); y++) {
-                for (int x = 0; x < mask.getWidth(); x++) {
-                    int pixel = mask.getPixel(x, y);
-                    int r = Color.red(pixel), g = Color.green(pixel), b = Color.blue(pixel);
-                    if (r > 0) {
-                        r = (int) (r * maskColor[0]);
-                        g = (int) (g * maskColor[1]);
-                        b = (int) (b * maskColor[2]);
-                        mask.setPixel(x, y, Color.argb((int) (maskOpacity * 255), r, g, b));
-                    } else {
-                        mask.setPixel(x, y, outputBm.getPixel(x + x1, y + y1));
-                    }
-                }
-            }
-            canvas.drawBitmap(mask, x1, y1, null);
-
-            // write label and score
-            paint.setStyle(Paint.Style.FILL);
-            paint.setTextSize(20);
-            paint.setColor(Color.rgb(255, 0, 0));
-//            String text = label + ": " + score;
-            String text = label;
-            canvas.drawText(text, x1, y1 - 10, paint);
+            canvas.drawRect(x1, y1, x2, y2, boxPaint);
+
+            // write label
+            String text = labels.get(i);
+            canvas.drawText(text, x1, y1 - 10, labelPaint);
         }
 
         return outputBm;
     }
 
 
-    public static Bitmap getImageFromPickerIntent(Context context, Intent imageReturnedIntent) {
+    /**
+     * @return picked image decoded at most maxSize on its longest side (see {@link #decodeBitmap}),
+     * or null if it can not be decoded
+     */
+    public static DecodedImage getImageFromPickerIntent(Context context, Intent imageReturnedIntent, int maxSize) {
         Bitmap bm = null;
         Uri selectedImage;
         boolean isCamera = (imageReturnedIntent == null || imageReturnedIntent.getData() == null);
@@ -176,8 +251,18 @@ public class ImageUtils {
             selectedImage = imageReturnedIntent.getData();
         }
 
-        bm = myDecodeBitmap(context, selectedImage);
-        return bm;
+        return decodeBitmap(context, selectedImage, maxSize);
+    }
+
+    /**
+     * Wrap the planes of a YUV_420_888 camera image (no copy). The frame is valid until the image is closed.
+     */
+    public static YuvFrame toYuvFrame(Image image) {
+        Image.Plane[] planes = image.getPlanes();
+        return new YuvFrame(image.getWidth(), image.getHeight(),
+                planes[0].getBuffer(), planes[1].getBuffer(), planes[2].getBuffer(),
+                planes[0].getRowStride(), planes[0].getPixelStride(),
+                planes[1].getRowStride(), planes[1].getPixelStride());
     }
 
 }
@@ -0,0 +1,71 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Collections;
+import java.util.Map;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+
+/**
+ * Reusable model input: a direct (batchSize, 3, inferSize, inferSize) buffer wrapped once into an
+ * {@link OnnxTensor} (the tensor reads the buffer in place), plus pixel scratch space and the
+ * letterbox metadata of every frame it currently holds.
+ * Not thread-safe: one instance per in-flight frame (or batch).
+ */
+public class InputTensor implements AutoCloseable {
+    public final int batchSize;
+    public final int inferSize;
+    public final FloatBuffer data;
+    public final OnnxTensor tensor;
+    public final Map<String, OnnxTensor> inputs;    // session feed: input name -> tensor
+    private int[] pixels;           // scratch for source ARGB pixels, allocated and grown on demand
+    final int[] newSize = new int[2];   // scratch for the letterboxed size of a frame
+    public final int[] origWidth;   // (batchSize) - size of each frame
+    public final int[] origHeight;
+    public final int[] padX;        // (batchSize) - letterbox offsets of each frame
+    public final int[] padY;
+
+    public InputTensor(OrtEnvironment ortEnv, String inputName, int inferSize) throws OrtException {
+        this(ortEnv, inputName, 1, inferSize);
+    }
+
+    public InputTensor(OrtEnvironment ortEnv, String inputName, int batchSize, int inferSize) throws OrtException {
+        this.batchSize = batchSize;
+        this.inferSize = inferSize;
+        this.data = ByteBuffer.allocateDirect(batchSize * 3 * inferSize * inferSize * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        this.tensor = OnnxTensor.createTensor(ortEnv, data, new long[]{batchSize, 3, inferSize, inferSize});
+        this.inputs = Collections.singletonMap(inputName, tensor);
+        this.origWidth = new int[batchSize];
+        this.origHeight = new int[batchSize];
+        this.padX = new int[batchSize];
+        this.padY = new int[batchSize];
+    }
+
+    /**
+     * @return offset of batch element index in {@link #data}
+     */
+    public int offset(int index) {
+        return index * 3 * inferSize * inferSize;
+    }
+
+    /**
+     * @return scratch array holding at least count pixels
+     */
+    public int[] pixels(int count) {
+        if (pixels == null || pixels.length < count) {
+            pixels = new int[count];
+        }
+        return pixels;
+    }
+
+    @Override
+    public void close() {
+        tensor.close();
+    }
+}
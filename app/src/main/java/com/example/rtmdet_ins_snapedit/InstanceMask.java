@@ -0,0 +1,122 @@
+package com.example.rtmdet_ins_snapedit;
+
+/**
+ * Lazily materialized instance mask: the compact binary ROI at infer resolution ({@link #roi},
+ * box-local), scaled on demand to the width x height box in original image coordinates.
+ * Nothing at output resolution is kept, so results stay small until a mask is actually needed.
+ */
+public class InstanceMask {
+    public final BinaryMask roi;
+    public final int width;     // size of the box in the original image
+    public final int height;
+
+    // crop window: this mask is [originX, originX + width) x [originY, originY + height) of a
+    // fullWidth x fullHeight mask scaled from the ROI
+    private final int originX, originY;
+    private final int fullWidth, fullHeight;
+
+    public InstanceMask(BinaryMask roi, int width, int height) {
+        this(roi, 0, 0, width, height, width, height);
+    }
+
+    private InstanceMask(BinaryMask roi, int originX, int originY, int width, int height, int fullWidth, int fullHeight) {
+        this.roi = roi;
+        this.width = width;
+        this.height = height;
+        this.originX = originX;
+        this.originY = originY;
+        this.fullWidth = fullWidth;
+        this.fullHeight = fullHeight;
+    }
+
+    /**
+     * @return the box-local region [x, x + width) x [y, y + height) of this mask, sharing its ROI
+     */
+    public InstanceMask crop(int x, int y, int width, int height) {
+        return new InstanceMask(roi, originX + x, originY + y, width, height, fullWidth, fullHeight);
+    }
+
+    /**
+     * @return this mask scaled to width x height (e.g. for a box at another resolution), sharing
+     * its ROI; a cropped mask keeps its crop window, scaled the same way
+     */
+    public InstanceMask resize(int width, int height) {
+        float scaleX = width / (float) this.width;
+        float scaleY = height / (float) this.height;
+        return new InstanceMask(roi, Math.round(originX * scaleX), Math.round(originY * scaleY), width, height,
+                Math.max(width, Math.round(fullWidth * scaleX)), Math.max(height, Math.round(fullHeight * scaleY)));
+    }
+
+    /**
+     * @return approximate heap size, ROI included
+     */
+    public long sizeInBytes() {
+        return 40 + roi.sizeInBytes();
+    }
+
+    /**
+     * @return whether the pixel at box-local output coordinates (x, y) is set
+     */
+    public boolean get(int x, int y) {
+        return roi.get(roi.x + srcX(x), roi.y + srcY(y));
+    }
+
+    /**
+     * @return binary mask (0/1) of size width * height, row-major
+     */
+    public byte[] toBytes() {
+        byte[] mask = new byte[width * height];
+        int[] srcX = sourceColumns();
+        int idx = 0;
+        for (int y = 0; y < height; y++) {
+            int py = roi.y + srcY(y);
+            for (int x = 0; x < width; x++) {
+                mask[idx++] = roi.get(srcX[x], py) ? (byte) 1 : (byte) 0;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * @return ARGB pixels of size width * height, row-major, set pixels as on and the others as off
+     */
+    public int[] toPixels(int on, int off) {
+        int[] pixels = new int[width * height];
+        int[] srcX = sourceColumns();
+        int idx = 0;
+        for (int y = 0; y < height; y++) {
+            int py = roi.y + srcY(y);
+            for (int x = 0; x < width; x++) {
+                pixels[idx++] = roi.get(srcX[x], py) ? on : off;
+            }
+        }
+        return pixels;
+    }
+
+    // nearest-neighbour sampling at pixel centers, like PostProcessor.scaleMask
+    private int srcX(int x) {
+        return Math.min((int) ((originX + x + 0.5F) * roi.width / fullWidth), roi.width - 1);
+    }
+
+    private int srcY(int y) {
+        return Math.min((int) ((originY + y + 0.5F) * roi.height / fullHeight), roi.height - 1);
+    }
+
+    /**
+     * @return ROI row sampled by output row y
+     */
+    int sourceRow(int y) {
+        return roi.y + srcY(y);
+    }
+
+    /**
+     * @return ROI column sampled by each output column
+     */
+    int[] sourceColumns() {
+        int[] srcX = new int[width];
+        for (int x = 0; x < width; x++) {
+            srcX[x] = roi.x + srcX(x);
+        }
+        return srcX;
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps instances alive between keyframes of a stream. At a keyframe, detections are associated to
+ * the tracks greedily by IoU (mask IoU when both have masks, box IoU otherwise, same label only);
+ * between keyframes, every track moves by its estimated per-frame velocity. Masks are box-local, so
+ * a moved track reuses its keyframe mask as is.
+ */
+public class InstanceTracker {
+
+    public static class Track {
+        public final int id;
+        public String label;
+        public float score;
+        public int[] box;               // x1, y1, x2, y2 at the current frame
+        public InstanceMask mask;       // of the last matched detection, null if masks are skipped
+        int[] keyBox;                   // box at the last matched keyframe
+        float vx, vy;                   // estimated motion, pixels per frame
+        boolean moving;                 // whether vx, vy were estimated yet
+        int framesSinceKey;             // frames since the last matched keyframe
+        int missed;                     // keyframes in a row without a match
+
+        Track(int id, String label, float score, int[] box, InstanceMask mask) {
+            this.id = id;
+            this.label = label;
+            this.score = score;
+            this.box = box;
+            this.mask = mask;
+            this.keyBox = box;
+        }
+
+        /**
+         * @return whether the track was matched at the last keyframe (it is reported)
+         */
+        public boolean isVisible() {
+            return missed == 0;
+        }
+    }
+
+    private static final float VELOCITY_SMOOTHING = 0.5F;   // weight of the newest velocity estimate
+
+    private final float iouThreshold;
+    private final int maxMissed;
+    private final ArrayList<Track> tracks = new ArrayList<>();
+    private int nextId;
+    private int frameWidth, frameHeight;
+
+    /**
+     * @param iouThreshold minimum IoU to associate a detection with a track
+     * @param maxMissed    keyframes a track survives (hidden) without a match, so that it keeps its id
+     *                     through a flickering detection
+     */
+    public InstanceTracker(float iouThreshold, int maxMissed) {
+        this.iouThreshold = iouThreshold;
+        this.maxMissed = maxMissed;
+    }
+
+    /**
+     * Keyframe: associate the detections of a frame of size frameWidth x frameHeight with the tracks.
+     *
+     * @return visible tracks, in detection order
+     */
+    public ArrayList<Track> update(ObjectDetector.DetectionResult detections, int frameWidth, int frameHeight) {
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        int n = detections.boxes.size();
+        int t = tracks.size();
+
+        // candidate pairs above the threshold (tracks at their position predicted for this frame), best first
+        ArrayList<float[]> pairs = new ArrayList<>();   // iou, track, detection
+        for (int i = 0; i < t; i++) {
+            Track track = tracks.get(i);
+            advance(track);
+            for (int j = 0; j < n; j++) {
+                if (!track.label.equals(detections.labels.get(j))) {
+                    continue;
+                }
+                float iou = iou(track, detections.boxes.get(j), detections.hasMasks() ? detections.masks.get(j) : null);
+                if (iou >= iouThreshold) {
+                    pairs.add(new float[]{iou, i, j});
+                }
+            }
+        }
+        float[][] sorted = pairs.toArray(new float[0][]);
+        Arrays.sort(sorted, new Comparator<float[]>() {
+            @Override
+            public int compare(float[] a, float[] b) {
+                return Float.compare(b[0], a[0]);
+            }
+        });
+
+        Track[] matchOf = new Track[n];
+        boolean[] trackMatched = new boolean[t];
+        for (float[] pair : sorted) {
+            int i = (int) pair[1];
+            int j = (int) pair[2];
+            if (trackMatched[i] || matchOf[j] != null) {
+                continue;
+            }
+            trackMatched[i] = true;
+            matchOf[j] = tracks.get(i);
+        }
+
+        ArrayList<Track> kept = new ArrayList<>();
+        for (int i = 0; i < t; i++) {
+            Track track = tracks.get(i);
+            if (!trackMatched[i] && ++track.missed <= maxMissed) {
+                kept.add(track);
+            }
+        }
+
+        ArrayList<Track> visible = new ArrayList<>(n);
+        for (int j = 0; j < n; j++) {
+            int[] box = detections.boxes.get(j);
+            InstanceMask mask = detections.hasMasks() ? detections.masks.get(j) : null;
+            Track track = matchOf[j];
+            if (track == null) {
+                track = new Track(nextId++, detections.labels.get(j), detections.scores.get(j), box, mask);
+            } else {
+                if (track.framesSinceKey > 0) {
+                    float vx = (centerX(box) - centerX(track.keyBox)) / track.framesSinceKey;
+                    float vy = (centerY(box) - centerY(track.keyBox)) / track.framesSinceKey;
+                    float weight = track.moving ? VELOCITY_SMOOTHING : 1F;
+                    track.vx += weight * (vx - track.vx);
+                    track.vy += weight * (vy - track.vy);
+                    track.moving = true;
+                }
+                track.score = detections.scores.get(j);
+                track.box = box;
+                track.keyBox = box;
+                track.mask = mask;
+                track.framesSinceKey = 0;
+                track.missed = 0;
+            }
+            kept.add(track);
+            visible.add(track);
+        }
+        tracks.clear();
+        tracks.addAll(kept);
+        return visible;
+    }
+
+    /**
+     * Non-keyframe: move every track by one frame of its velocity. Boxes keep their size and stay
+     * inside the frame, so that their box-local masks remain valid.
+     *
+     * @return visible tracks
+     */
+    public ArrayList<Track> predict() {
+        ArrayList<Track> visible = new ArrayList<>();
+        for (Track track : tracks) {
+            advance(track);
+            if (track.isVisible()) {
+                visible.add(track);
+            }
+        }
+        return visible;
+    }
+
+    private void advance(Track track) {
+        track.framesSinceKey++;
+        int[] key = track.keyBox;
+        int width = key[2] - key[0];
+        int height = key[3] - key[1];
+        int x1 = clamp(Math.round(key[0] + track.vx * track.framesSinceKey), 0, Math.max(0, frameWidth - width));
+        int y1 = clamp(Math.round(key[1] + track.vy * track.framesSinceKey), 0, Math.max(0, frameHeight - height));
+        track.box = new int[]{x1, y1, x1 + width, y1 + height};
+    }
+
+    public List<Track> getTracks() {
+        return tracks;
+    }
+
+    public void reset() {
+        tracks.clear();
+    }
+
+    // IoU of a track at its predicted position and a detection
+    private static float iou(Track track, int[] box, InstanceMask mask) {
+        if (track.mask == null || mask == null || track.mask.roi.area == 0 || mask.roi.area == 0) {
+            return PostProcessor.calcBoxIoU(track.box, box);
+        }
+        // the keyframe ROI moved by the predicted motion, in infer coordinates
+        BinaryMask roi = track.mask.roi;
+        float scaleX = track.mask.width > 0 ? (float) roi.width / track.mask.width : 0F;
+        float scaleY = track.mask.height > 0 ? (float) roi.height / track.mask.height : 0F;
+        BinaryMask moved = roi.translate(Math.round((track.box[0] - track.keyBox[0]) * scaleX),
+                Math.round((track.box[1] - track.keyBox[1]) * scaleY));
+        int inter = moved.intersection(mask.roi);
+        return (float) inter / (moved.area + mask.roi.area - inter);
+    }
+
+    private static float centerX(int[] box) {
+        return (box[0] + box[2]) * 0.5F;
+    }
+
+    private static float centerY(int[] box) {
+        return (box[1] + box[3]) * 0.5F;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fused letterbox pre-processing: source ARGB pixels -> bilinear resize -> pad -> (v - mean) / std,
+ * written as a (3, size, size) tensor in one pass. Normalization is a multiply-add with precomputed
+ * scale = 1 / std and bias = -mean / std, and row bands are split across a fork-join pool.
+ * One kernel per caller: {@link #run} keeps per-call column tables and reuses its row bands, with
+ * their scratch rows, so it does not allocate per frame; it is not reentrant.
+ */
+public class LetterboxKernel {
+    private static final int MIN_BAND_ROWS = 32;    // rows per task, at least
+
+    private final int size;
+    private final float[] scale = new float[3];
+    private final float[] bias = new float[3];
+    private final float[] padNorm = new float[3];
+    private final ForkJoinPool pool;    // null to run on the calling thread
+
+    // per-column sampling positions of the current call
+    private final int[] colX0;
+    private final int[] colX1;
+    private final float[] colWeight;
+
+    // arguments of the current call, read by the bands
+    private int[] src;
+    private int srcWidth, srcHeight, newWidth, newHeight, padX, padY;
+    private FloatBuffer out;
+    private int offset;
+
+    // row bands of MIN_BAND_ROWS rows (a single one without pool), reused by every call
+    private final Band[] bands;
+    private final RecursiveAction allBands = new RecursiveAction() {
+        @Override
+        protected void compute() {
+            invokeAll(bands);
+        }
+    };
+
+    public LetterboxKernel(int size, int padValue, float[] mean, float[] std, ForkJoinPool pool) {
+        this.size = size;
+        this.pool = pool;
+        for (int c = 0; c < 3; c++) {
+            scale[c] = 1F / std[c];
+            bias[c] = -mean[c] / std[c];
+            padNorm[c] = padValue * scale[c] + bias[c];
+        }
+        colX0 = new int[size];
+        colX1 = new int[size];
+        colWeight = new float[size];
+        int bandCount = pool != null ? Math.max(1, size / MIN_BAND_ROWS) : 1;
+        bands = new Band[bandCount];
+        for (int i = 0; i < bandCount; i++) {
+            bands[i] = new Band(i * size / bandCount, (i + 1) * size / bandCount);
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return [newWidth, newHeight] of a width x height image letterboxed into size x size: scaled
+     * down keeping its ratio if larger, as is otherwise
+     */
+    public static int[] fitSize(int width, int height, int size) {
+        return fitSize(width, height, size, new int[2]);
+    }
+
+    /**
+     * {@link #fitSize(int, int, int)} into newSize, e.g. a reused scratch array.
+     */
+    public static int[] fitSize(int width, int height, int size, int[] newSize) {
+        int newWidth = width;
+        int newHeight = height;
+        if (width > size || height > size) {
+            newWidth = size;
+            newHeight = size;
+            if (width > height) {
+                newHeight = (int) ((float) size * (float) height / (float) width);
+            } else {
+                newWidth = (int) ((float) size * (float) width / (float) height);
+            }
+        }
+        newSize[0] = newWidth;
+        newSize[1] = newHeight;
+        return newSize;
+    }
+
+    /**
+     * Resize the srcWidth x srcHeight image to newWidth x newHeight (bilinear, pixel-center aligned),
+     * place it at (padX, padY) and normalize everything into out[offset, offset + 3 * size * size).
+     */
+    public void run(int[] src, int srcWidth, int srcHeight, int newWidth, int newHeight, int padX, int padY,
+                    FloatBuffer out, int offset) {
+        float sx = (float) srcWidth / newWidth;
+        for (int x = 0; x < newWidth; x++) {
+            float fx = Math.max(0F, (x + 0.5F) * sx - 0.5F);
+            int x0 = Math.min((int) fx, srcWidth - 1);
+            colX0[x] = x0;
+            colX1[x] = Math.min(x0 + 1, srcWidth - 1);
+            colWeight[x] = fx - x0;
+        }
+
+        this.src = src;
+        this.srcWidth = srcWidth;
+        this.srcHeight = srcHeight;
+        this.newWidth = newWidth;
+        this.newHeight = newHeight;
+        this.padX = padX;
+        this.padY = padY;
+        this.out = out;
+        this.offset = offset;
+        try {
+            if (pool == null) {
+                bands[0].fill();
+            } else {
+                for (Band band : bands) {
+                    band.reinitialize();
+                }
+                allBands.reinitialize();
+                pool.invoke(allBands);
+            }
+        } finally {
+            this.src = null;
+            this.out = null;
+        }
+    }
+
+    // a fixed band of rows with its own scratch rows and views of the output
+    private class Band extends RecursiveAction {
+        private final int rowStart, rowEnd;
+        private final float[] rowR = new float[size], rowG = new float[size], rowB = new float[size];
+        // views of the last two outputs, e.g. the two pooled inputs of ObjectDetector
+        private final FloatBuffer[] viewOf = new FloatBuffer[2];
+        private final FloatBuffer[] views = new FloatBuffer[2];
+        private int lastView;
+
+        Band(int rowStart, int rowEnd) {
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+        }
+
+        @Override
+        protected void compute() {
+            fill();
+        }
+
+        void fill() {
+            int stride = size * size;
+            float sy = (float) srcHeight / newHeight;
+            FloatBuffer dst = view(out);
+            for (int i = rowStart; i < rowEnd; i++) {
+                int y = i - padY;
+                if (y < 0 || y >= newHeight) {
+                    fillPad(0, size);
+                } else {
+                    fillPad(0, padX);
+                    fillPad(padX + newWidth, size);
+
+                    float fy = Math.max(0F, (y + 0.5F) * sy - 0.5F);
+                    int y0 = Math.min((int) fy, srcHeight - 1);
+                    int row0 = y0 * srcWidth;
+                    int row1 = Math.min(y0 + 1, srcHeight - 1) * srcWidth;
+                    float wy = fy - y0;
+                    for (int x = 0; x < newWidth; x++) {
+                        int p00 = src[row0 + colX0[x]], p01 = src[row0 + colX1[x]];
+                        int p10 = src[row1 + colX0[x]], p11 = src[row1 + colX1[x]];
+                        float wx = colWeight[x];
+                        float w00 = (1F - wx) * (1F - wy), w01 = wx * (1F - wy);
+                        float w10 = (1F - wx) * wy, w11 = wx * wy;
+                        float r = (p00 >> 16 & 255) * w00 + (p01 >> 16 & 255) * w01 + (p10 >> 16 & 255) * w10 + (p11 >> 16 & 255) * w11;
+                        float g = (p00 >> 8 & 255) * w00 + (p01 >> 8 & 255) * w01 + (p10 >> 8 & 255) * w10 + (p11 >> 8 & 255) * w11;
+                        float b = (p00 & 255) * w00 + (p01 & 255) * w01 + (p10 & 255) * w10 + (p11 & 255) * w11;
+                        rowR[padX + x] = r * scale[0] + bias[0];
+                        rowG[padX + x] = g * scale[1] + bias[1];
+                        rowB[padX + x] = b * scale[2] + bias[2];
+                    }
+                }
+
+                int idx = offset + i * size;
+                dst.position(idx);
+                dst.put(rowR);
+                dst.position(idx + stride);
+                dst.put(rowG);
+                dst.position(idx + stride * 2);
+                dst.put(rowB);
+            }
+        }
+
+        // own view of out, as bands write into it at the same time
+        private FloatBuffer view(FloatBuffer out) {
+            for (int k = 0; k < 2; k++) {
+                if (viewOf[k] == out) {
+                    lastView = k;
+                    return views[k];
+                }
+            }
+            lastView ^= 1;
+            viewOf[lastView] = out;
+            views[lastView] = out.duplicate();
+            return views[lastView];
+        }
+
+        private void fillPad(int from, int to) {
+            for (int x = from; x < to; x++) {
+                rowR[x] = padNorm[0];
+                rowG[x] = padNorm[1];
+                rowB[x] = padNorm[2];
+            }
+        }
+    }
+}
@@ -22,7 +22,12 @@ import android.widget.ImageView;
 
 import com.google.android.material.snackbar.Snackbar;
 
-import ai.onnxruntime.OrtException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 public class MainActivity extends AppCompatActivity {
     private ActivityResultLauncher<Intent> imagePickerActivityResultLauncher;
@@ -32,11 +37,26 @@ public class MainActivity extends AppCompatActivity {
     private static final int MAX_INPUT_SIZE = 1200;     // avoid OOM for large image
 
     //    Constants for Object Detection
-    private static int INFER_SIZE;
+    // model variants, picked per image (see ModelRegistry.select); sizes and latencies are rough
+    // priors, latency is measured on the device after a few detections
+    private static final ModelRegistry.ModelSpec[] MODELS = {
+            new ModelRegistry.ModelSpec("rtmdetins_s_640_f16", R.raw.classes, R.raw.rtmdetins_s_640_f16, 640, 0.325F, 0.2F,
+                    120L << 20, TimeUnit.MILLISECONDS.toNanos(350)),
+            new ModelRegistry.ModelSpec("rtmdetins_tiny_800_f16", R.raw.classes, R.raw.rtmdetins_tiny_800_f16, 800, 0.35F, 0.2F,
+                    120L << 20, TimeUnit.MILLISECONDS.toNanos(450)),
+    };
+    private static final long LATENCY_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(500);   // per detection on this screen
+    private static final long MODEL_MEMORY_BUDGET = 160L << 20;     // one model resident at a time
+    private static final long MODEL_IDLE_NANOS = TimeUnit.MINUTES.toNanos(2);
     private static final int[] MASK_COLOR = {255, 0, 0};    // red
     private static final int[] BOX_COLOR = {0, 255, 0};     // green
+    private static final int WARM_UP_RUNS = 1;
+    private static final long RESULT_CACHE_BYTES = 32L << 20;
 
-    private ObjectDetector objectDetector;
+    private DetectorFactory detectorFactory;
+    private ModelRegistry<ObjectDetector> models;
+    private ModelRegistry.Lease<ObjectDetector> modelLease;     // model of the pipeline
+    private FramePipeline<Bitmap, ?, ?, ObjectDetector.DetectionResult> detectionPipeline;
     private ImageView inputImageView, outputImageView;
     private Button selectImageBtn, detectBtn;
 
@@ -45,14 +65,94 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        // Uncomment each pair to change model
-//        INFER_SIZE = 800;
-//        objectDetector = new ObjectDetector(getResources(), R.raw.classes, R.raw.rtmdetins_tiny_800_f16, INFER_SIZE, 0.35F, 0.2F);
-        INFER_SIZE = 640;
-        objectDetector = new ObjectDetector(getResources(), R.raw.classes, R.raw.rtmdetins_s_640_f16, INFER_SIZE, 0.325F, 0.2F);
-
         initViews();
         setupEvents();
+
+        detectorFactory = new DetectorFactory(this, getCacheDir());
+        models = new ModelRegistry<>(Arrays.asList(MODELS), new ModelRegistry.Loader<ObjectDetector>() {
+            @Override
+            public CompletableFuture<ObjectDetector> load(final ModelRegistry.ModelSpec spec) {
+                return detectorFactory.create(spec.classesFileID, spec.modelID, spec.inferSize, spec.commonThres, spec.personThres, WARM_UP_RUNS)
+                        .thenApply(new Function<ObjectDetector, ObjectDetector>() {
+                            @Override
+                            public ObjectDetector apply(ObjectDetector detector) {
+                                detector.setResultCache(new ResultCache<>(RESULT_CACHE_BYTES, ObjectDetector.RESULT_WEIGHER));
+                                // session runs only, so that cached results do not count as fast inferences
+                                detector.getMetrics().addListener(new DetectorMetrics.Listener() {
+                                    @Override
+                                    public void onStage(DetectorMetrics.Stage stage, long nanos, long allocatedBytes) {
+                                        if (stage == DetectorMetrics.Stage.SESSION_RUN) {
+                                            models.recordLatency(spec, nanos);
+                                        }
+                                    }
+
+                                    @Override
+                                    public void onDetections(int raw, int kept) {
+                                    }
+                                });
+                                return detector;
+                            }
+                        });
+            }
+        }, MODEL_MEMORY_BUDGET, MODEL_IDLE_NANOS);
+
+        // the model for full-size photos is built and warmed up in the background, detection is enabled once it is ready
+        useModel(models.select(LATENCY_BUDGET_NANOS, MAX_INPUT_SIZE, MAX_INPUT_SIZE), null);
+    }
+
+    /**
+     * Switch the pipeline to the model of spec (loaded if needed), then detect on image if not null.
+     */
+    private void useModel(ModelRegistry.ModelSpec spec, final Bitmap image) {
+        detectBtn.setEnabled(false);
+        releaseModel();
+        models.acquire(spec).whenComplete(new BiConsumer<ModelRegistry.Lease<ObjectDetector>, Throwable>() {
+            @Override
+            public void accept(final ModelRegistry.Lease<ObjectDetector> lease, final Throwable error) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onModelReady(lease, error, image);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onModelReady(ModelRegistry.Lease<ObjectDetector> lease, Throwable error, Bitmap image) {
+        if (error != null) {
+            error.printStackTrace();
+            Snackbar.make(detectBtn, "Failed to load the model", Snackbar.LENGTH_LONG).show();
+            return;
+        }
+        if (isDestroyed()) {
+            lease.close();
+            return;
+        }
+        System.out.println("[LOG] Using model " + lease.getSpec());
+        modelLease = lease;
+        // only the latest tap matters: a newer request replaces the one still waiting
+        detectionPipeline = lease.get().createPipeline(1, FramePipeline.QueuePolicy.DROP_OLDEST);
+        detectBtn.setEnabled(true);
+        if (image != null) {
+            detect(image);
+        }
+    }
+
+    // close the pipeline; the model goes back to the registry once the frames in flight are done
+    private void releaseModel() {
+        if (detectionPipeline == null) {
+            return;
+        }
+        final ModelRegistry.Lease<ObjectDetector> lease = modelLease;
+        detectionPipeline.closeAsync().whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void done, Throwable error) {
+                lease.close();
+            }
+        });
+        detectionPipeline = null;
+        modelLease = null;
     }
 
     private void initViews() {
@@ -81,14 +181,44 @@ public class MainActivity extends AppCompatActivity {
                     Snackbar.make(view, "Please select an image first", Snackbar.LENGTH_LONG).show();
                     return;
                 }
-                try {
-                    ObjectDetector.DetectionResult result = objectDetector.infer(bm);
-                    Bitmap outputBm = ImageUtils.drawDetectionResult(result, bm, BOX_COLOR, MASK_COLOR, 0.5f);
-                    setOutputImage(outputBm);
+                models.evictIdle();
+                ModelRegistry.ModelSpec spec = models.select(LATENCY_BUDGET_NANOS, bm.getWidth(), bm.getHeight());
+                if (modelLease == null || modelLease.getSpec() != spec) {
+                    useModel(spec, bm);
+                } else {
+                    detect(bm);
+                }
+            }
+        });
+    }
 
-                } catch (OrtException e) {
-                    throw new RuntimeException(e);
+    private void detect(final Bitmap inputBm) {
+        final ObjectDetector detector = modelLease.get();
+        detectionPipeline.submit(inputBm).whenComplete(new BiConsumer<ObjectDetector.DetectionResult, Throwable>() {
+            @Override
+            public void accept(ObjectDetector.DetectionResult result, Throwable error) {
+                if (error instanceof CancellationException) {
+                    return;
                 }
+                if (error != null) {
+                    error.printStackTrace();
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Snackbar.make(detectBtn, "Detection failed", Snackbar.LENGTH_LONG).show();
+                        }
+                    });
+                    return;
+                }
+                // draw on the pipeline thread, only the view update goes to the UI thread
+                final Bitmap outputBm = ImageUtils.drawDetectionResult(result, inputBm, BOX_COLOR, MASK_COLOR, 0.5f);
+                System.out.println("[LOG] metrics: " + detector.getRecorder().snapshot().toJson());
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        setOutputImage(outputBm);
+                    }
+                });
             }
         });
     }
@@ -127,15 +257,36 @@ public class MainActivity extends AppCompatActivity {
                     public void onActivityResult(ActivityResult result) {
                         if (result.getResultCode() == Activity.RESULT_OK) {
                             Intent data = result.getData();
-                            Bitmap bitmap = ImageUtils.getImageFromPickerIntent(MainActivity.this, data);
-                            bitmap = ImageUtils.resizeKeepRatio(bitmap, MAX_INPUT_SIZE);
-                            setInputImage(bitmap);
+                            // decoded straight to MAX_INPUT_SIZE, never at full resolution
+                            DecodedImage image = ImageUtils.getImageFromPickerIntent(MainActivity.this, data, MAX_INPUT_SIZE);
+                            if (image == null) {
+                                Snackbar.make(inputImageView, "Can not open this image", Snackbar.LENGTH_LONG).show();
+                                return;
+                            }
+                            System.out.println("[LOG] decoded " + image.bitmap.getWidth() + "x" + image.bitmap.getHeight()
+                                    + " from " + image.originalWidth + "x" + image.originalHeight);
+                            setInputImage(image.bitmap);
                         }
                     }
                 }
         );
     }
 
+    @Override
+    protected void onDestroy() {
+        releaseModel();
+        models.close();
+        detectorFactory.shutdown();
+        super.onDestroy();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // the model in use stays loaded
+        models.trim();
+    }
+
     private void setInputImage(Bitmap bitmap) {
         inputImageView.setImageBitmap(bitmap);
         outputImageView.setImageBitmap(null);
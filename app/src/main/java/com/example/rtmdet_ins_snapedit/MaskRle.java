@@ -0,0 +1,175 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.util.Arrays;
+
+/**
+ * COCO run-length encoding of instance masks: alternating run lengths of 0s and 1s (starting with
+ * 0s) over the whole image in column-major order, optionally compressed into the COCO counts
+ * string. Masks are encoded straight from their bit-packed ROI at original resolution, columns of
+ * the box that sample the same ROI column sharing their runs.
+ */
+public class MaskRle {
+
+    private MaskRle() {
+    }
+
+    /**
+     * @return run lengths of mask placed at (boxX, boxY) in an imageWidth x imageHeight image,
+     * clipped to the image
+     */
+    public static int[] encode(InstanceMask mask, int boxX, int boxY, int imageWidth, int imageHeight) {
+        BinaryMask roi = mask.roi;
+        int x1 = Math.max(boxX, 0), x2 = Math.min(boxX + mask.width, imageWidth);
+        int y1 = Math.max(boxY, 0), y2 = Math.min(boxY + mask.height, imageHeight);
+        if (roi.area == 0 || x2 <= x1 || y2 <= y1) {
+            return new int[]{imageWidth * imageHeight};
+        }
+        int[] srcX = mask.sourceColumns();
+        int[] srcY = new int[y2 - y1];
+        for (int y = y1; y < y2; y++) {
+            srcY[y - y1] = mask.sourceRow(y - boxY);
+        }
+
+        Runs runs = new Runs();
+        runs.add(false, x1 * imageHeight);
+        int[] column = new int[srcY.length + 1];    // run lengths of the last column, from a 0-run
+        int columnRuns = 0;
+        int lastSrc = -1;
+        for (int x = x1; x < x2; x++) {
+            int src = srcX[x - boxX];
+            if (src != lastSrc) {
+                columnRuns = columnRuns(roi, src, srcY, column);
+                lastSrc = src;
+            }
+            runs.add(false, y1);
+            for (int k = 0; k < columnRuns; k++) {
+                runs.add((k & 1) == 1, column[k]);
+            }
+            runs.add(false, imageHeight - y2);
+        }
+        runs.add(false, (imageWidth - x2) * imageHeight);
+        return runs.toArray();
+    }
+
+    // runs of one ROI column sampled at rows srcY, alternating from a (possibly empty) 0-run
+    private static int columnRuns(BinaryMask roi, int src, int[] srcY, int[] column) {
+        int count = 0;
+        boolean value = false;
+        int length = 0;
+        for (int py : srcY) {
+            boolean set = roi.get(src, py);
+            if (set != value) {
+                column[count++] = length;
+                value = set;
+                length = 0;
+            }
+            length++;
+        }
+        column[count++] = length;
+        return count;
+    }
+
+    /**
+     * @return box-local mask of the box [x1, x2) x [y1, y2) from the run lengths of an image of
+     * height imageHeight, pixels outside of the box ignored
+     */
+    public static InstanceMask decode(int[] counts, int imageHeight, int x1, int y1, int x2, int y2) {
+        int width = Math.max(0, x2 - x1);
+        int height = Math.max(0, y2 - y1);
+        int wordsPerRow = (width + 63) >>> 6;
+        long[] bits = new long[wordsPerRow * height];
+        long position = 0;
+        for (int k = 0; k < counts.length; k++) {
+            long end = position + counts[k];
+            if ((k & 1) == 1) {
+                for (long p = position; p < end; p++) {
+                    int x = (int) (p / imageHeight) - x1;
+                    int y = (int) (p % imageHeight) - y1;
+                    if (x >= 0 && x < width && y >= 0 && y < height) {
+                        bits[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+                    }
+                }
+            }
+            position = end;
+        }
+        return new InstanceMask(new BinaryMask(x1, y1, width, height, bits), width, height);
+    }
+
+    /**
+     * @return COCO compressed counts: each run as 5-bit groups of a signed delta to the run two
+     * before (from the fourth run on), offset into printable characters from '0'
+     */
+    public static String toString(int[] counts) {
+        StringBuilder text = new StringBuilder(counts.length * 2);
+        for (int k = 0; k < counts.length; k++) {
+            long value = counts[k];
+            if (k > 2) {
+                value -= counts[k - 2];
+            }
+            boolean more = true;
+            while (more) {
+                int c = (int) (value & 0x1F);
+                value >>= 5;
+                more = (c & 0x10) != 0 ? value != -1 : value != 0;
+                if (more) {
+                    c |= 0x20;
+                }
+                text.append((char) (c + 48));
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return run lengths of COCO compressed counts
+     */
+    public static int[] fromString(String text) {
+        int[] counts = new int[text.length()];
+        int count = 0;
+        int p = 0;
+        while (p < text.length()) {
+            long value = 0;
+            int shift = 0;
+            boolean more = true;
+            while (more) {
+                int c = text.charAt(p++) - 48;
+                value |= (long) (c & 0x1F) << shift;
+                more = (c & 0x20) != 0;
+                shift += 5;
+                if (!more && (c & 0x10) != 0) {
+                    value |= -1L << shift;
+                }
+            }
+            if (count > 2) {
+                value += counts[count - 2];
+            }
+            counts[count++] = (int) value;
+        }
+        return Arrays.copyOf(counts, count);
+    }
+
+    // alternating runs from a 0-run, merging consecutive runs of the same value
+    private static class Runs {
+        private int[] counts = new int[16];
+        private int size = 1;       // counts[size - 1] is the open run
+        private boolean value;      // of the open run
+
+        void add(boolean value, int length) {
+            if (length == 0) {
+                return;
+            }
+            if (value != this.value) {
+                if (size == counts.length) {
+                    counts = Arrays.copyOf(counts, size * 2);
+                }
+                size++;
+                this.value = value;
+            }
+            counts[size - 1] += length;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(counts, size);
+        }
+    }
+}
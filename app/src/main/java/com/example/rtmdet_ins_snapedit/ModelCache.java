@@ -0,0 +1,183 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Properties;
+
+/**
+ * On-disk cache of ORT-optimized models, one file per (model content, session options) key.
+ * Files are written under a temporary name and renamed once complete, so a crash never leaves a
+ * truncated model behind. The least recently used entries beyond maxEntries are deleted. The hash
+ * of each source model is remembered as well ({@link #getHash}), so it is only computed again when
+ * the model may have changed.
+ */
+public class ModelCache {
+    static final String EXTENSION = ".ort";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String HASHES_FILE = "hashes.properties";
+
+    private final File dir;
+    private final int maxEntries;
+
+    public ModelCache(File dir, int maxEntries) {
+        this.dir = dir;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param modelHash  SHA-256 of the source model, see {@link #sha256}
+     * @param optionsKey description of everything that changes the optimized graph (EPs, optimization
+     *                   level, runtime version)
+     */
+    public static String key(String modelHash, String optionsKey) {
+        try {
+            return modelHash.substring(0, 32) + "-" + hex(sha256Digest().digest(optionsKey.getBytes("UTF-8"))).substring(0, 16);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return SHA-256 of the stream content in hex (the stream is read to its end, not closed)
+     */
+    public static String sha256(InputStream inputStream) throws IOException {
+        MessageDigest digest = sha256Digest();
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * @return the cached model of key if it exists, null otherwise
+     */
+    public File get(String key) {
+        File file = file(key);
+        if (!file.isFile() || file.length() == 0) {
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * @return temporary file to write the model of key into, then pass to {@link #commit}
+     */
+    public File tempFile(String key) {
+        dir.mkdirs();
+        return new File(dir, key + EXTENSION + TMP_SUFFIX);
+    }
+
+    /**
+     * Publish a fully written temporary file, then trim the cache to maxEntries.
+     *
+     * @return the cached model, or null if the temporary file is missing or could not be renamed
+     */
+    public File commit(String key, File tempFile) {
+        File file = file(key);
+        if (!tempFile.isFile() || tempFile.length() == 0 || !tempFile.renameTo(file)) {
+            tempFile.delete();
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        trim();
+        return file;
+    }
+
+    private void trim() {
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return;
+        }
+        ArrayList<File> models = new ArrayList<>();
+        for (File entry : entries) {
+            if (entry.getName().endsWith(EXTENSION)) {
+                models.add(entry);
+            }
+        }
+        Collections.sort(models, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(b.lastModified(), a.lastModified());
+            }
+        });
+        for (int i = maxEntries; i < models.size(); i++) {
+            models.get(i).delete();
+        }
+    }
+
+    public void remove(String key) {
+        file(key).delete();
+    }
+
+    /**
+     * @param name  source model, e.g. its resource id
+     * @param stamp anything that changes whenever the model may have, e.g. the app update time
+     * @return hash of the model stored by {@link #putHash} with the same stamp, null otherwise
+     */
+    public String getHash(String name, String stamp) {
+        String value = loadHashes().getProperty(name);
+        if (value == null || !value.startsWith(stamp + " ")) {
+            return null;
+        }
+        return value.substring(stamp.length() + 1);
+    }
+
+    /**
+     * Remember the hash of a model (see {@link #sha256}) under stamp, replacing any older one.
+     */
+    public void putHash(String name, String stamp, String hash) {
+        Properties hashes = loadHashes();
+        hashes.setProperty(name, stamp + " " + hash);
+        dir.mkdirs();
+        try (OutputStream outputStream = new FileOutputStream(new File(dir, HASHES_FILE))) {
+            hashes.store(outputStream, "hash of each source model, with its stamp");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private Properties loadHashes() {
+        Properties hashes = new Properties();
+        File file = new File(dir, HASHES_FILE);
+        if (file.isFile()) {
+            try (InputStream inputStream = new FileInputStream(file)) {
+                hashes.load(inputStream);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return hashes;
+    }
+
+    private File file(String key) {
+        return new File(dir, key + EXTENSION);
+    }
+
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit(b >> 4 & 15, 16)).append(Character.forDigit(b & 15, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,353 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Model variants available to the app (see {@link ModelSpec}), each loaded on first use only.
+ * Loaded models are handed out as leases; a model without lease is idle and gets closed once it
+ * has been idle for too long ({@link #evictIdle()}), or earlier when loading another model would
+ * exceed the memory budget, least recently used first. Models in use are never closed, so the
+ * budget can be exceeded while their leases are held; it is enforced again as soon as one is returned.
+ * Requests can pick a variant from a latency budget and the image size ({@link #select}), using
+ * the latency measured on the device once there are enough samples. Thread-safe.
+ *
+ * @param <D> loaded model, e.g. {@link ObjectDetector}
+ */
+public class ModelRegistry<D extends AutoCloseable> implements AutoCloseable {
+    static final int MIN_LATENCY_SAMPLES = 3;     // measured latency replaces the expected one from then on
+
+    public static class ModelSpec {
+        public final String name;
+        public final int classesFileID;
+        public final int modelID;
+        public final int inferSize;
+        public final float commonThres;
+        public final float personThres;
+        public final long memoryBytes;              // approximate resident size once loaded, for the budget
+        public final long expectedLatencyNanos;     // until latency is measured on the device
+
+        public ModelSpec(String name, int classesFileID, int modelID, int inferSize, float commonThres, float personThres,
+                         long memoryBytes, long expectedLatencyNanos) {
+            this.name = name;
+            this.classesFileID = classesFileID;
+            this.modelID = modelID;
+            this.inferSize = inferSize;
+            this.commonThres = commonThres;
+            this.personThres = personThres;
+            this.memoryBytes = memoryBytes;
+            this.expectedLatencyNanos = expectedLatencyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    public interface Loader<D> {
+        /**
+         * @return model of spec, completed once it is ready to use (typically on a background thread)
+         */
+        CompletableFuture<D> load(ModelSpec spec);
+    }
+
+    public static class Lease<D extends AutoCloseable> implements AutoCloseable {
+        private final ModelRegistry<D> registry;
+        private final Entry<D> entry;
+        private D model;
+
+        Lease(ModelRegistry<D> registry, Entry<D> entry, D model) {
+            this.registry = registry;
+            this.entry = entry;
+            this.model = model;
+        }
+
+        public D get() {
+            if (model == null) {
+                throw new IllegalStateException("lease already returned");
+            }
+            return model;
+        }
+
+        public ModelSpec getSpec() {
+            return entry.spec;
+        }
+
+        /**
+         * Give the model back (once); it stays loaded until evicted.
+         */
+        @Override
+        public void close() {
+            if (model != null) {
+                registry.release(entry);
+                model = null;
+            }
+        }
+    }
+
+    private static class Entry<D> {
+        final ModelSpec spec;
+        final LatencyHistogram latency = new LatencyHistogram();
+        CompletableFuture<D> model;     // null while not loaded
+        int leases;                     // including the requests waiting for the model to load
+        long lastUsedNanos;
+
+        Entry(ModelSpec spec) {
+            this.spec = spec;
+        }
+
+        boolean isIdle() {
+            return model != null && leases == 0 && model.isDone();
+        }
+    }
+
+    private final Map<ModelSpec, Entry<D>> entries = new LinkedHashMap<>();
+    private final Loader<D> loader;
+    private final long memoryBudget;
+    private final long idleNanos;
+    private boolean closed;
+
+    /**
+     * @param memoryBudget bytes of loaded models (see {@link ModelSpec#memoryBytes}) above which idle ones are closed
+     * @param idleNanos    time without lease after which a model is closed by {@link #evictIdle()}
+     */
+    public ModelRegistry(List<ModelSpec> specs, Loader<D> loader, long memoryBudget, long idleNanos) {
+        for (ModelSpec spec : specs) {
+            entries.put(spec, new Entry<D>(spec));
+        }
+        this.loader = loader;
+        this.memoryBudget = memoryBudget;
+        this.idleNanos = idleNanos;
+    }
+
+    public List<ModelSpec> getSpecs() {
+        return Collections.unmodifiableList(new ArrayList<>(entries.keySet()));
+    }
+
+    /**
+     * Record the latency of one inference with spec, e.g. from {@link DetectorMetrics.Stage#SESSION_RUN}.
+     */
+    public void recordLatency(ModelSpec spec, long nanos) {
+        entry(spec).latency.record(nanos);
+    }
+
+    /**
+     * @return median measured latency of spec, or its expected latency until there are enough samples
+     */
+    public long getLatency(ModelSpec spec) {
+        LatencyHistogram latency = entry(spec).latency;
+        return latency.getCount() >= MIN_LATENCY_SAMPLES ? latency.getPercentile(50) : spec.expectedLatencyNanos;
+    }
+
+    /**
+     * Pick the variant for an image: among the ones within the latency budget, the one with the
+     * most detail on this image (infer size, but no more than the longest side of the image, as
+     * smaller images are not upscaled), then the fastest. If none fits the budget, the fastest.
+     */
+    public ModelSpec select(long latencyBudgetNanos, int imageWidth, int imageHeight) {
+        int longest = Math.max(imageWidth, imageHeight);
+        ModelSpec best = null;
+        ModelSpec fastest = null;
+        for (ModelSpec spec : entries.keySet()) {
+            long latency = getLatency(spec);
+            if (fastest == null || latency < getLatency(fastest)) {
+                fastest = spec;
+            }
+            if (latency > latencyBudgetNanos) {
+                continue;
+            }
+            if (best == null) {
+                best = spec;
+                continue;
+            }
+            int detail = Math.min(spec.inferSize, longest);
+            int bestDetail = Math.min(best.inferSize, longest);
+            if (detail > bestDetail || (detail == bestDetail && latency < getLatency(best))) {
+                best = spec;
+            }
+        }
+        return best != null ? best : fastest;
+    }
+
+    /**
+     * @return lease of the variant picked by {@link #select}, completed once the model is loaded
+     */
+    public CompletableFuture<Lease<D>> acquire(long latencyBudgetNanos, int imageWidth, int imageHeight) {
+        return acquire(select(latencyBudgetNanos, imageWidth, imageHeight));
+    }
+
+    /**
+     * @return lease of spec, completed once the model is loaded (loading it first if needed)
+     */
+    public CompletableFuture<Lease<D>> acquire(ModelSpec spec) {
+        final Entry<D> entry = entry(spec);
+        final CompletableFuture<Lease<D>> lease = new CompletableFuture<>();
+        CompletableFuture<D> model;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("registry is closed");
+            }
+            entry.leases++;
+            entry.lastUsedNanos = System.nanoTime();
+            if (entry.model == null) {
+                evict(memoryBudget - spec.memoryBytes, entry.lastUsedNanos, Long.MAX_VALUE);
+                System.out.println("[LOG] Loading model " + spec + ", " + getLoadedBytes() / (1 << 20) + " MB loaded");
+                try {
+                    entry.model = loader.load(spec);
+                } catch (RuntimeException e) {
+                    entry.leases--;
+                    throw e;
+                }
+            }
+            model = entry.model;
+        }
+        final ModelRegistry<D> registry = this;
+        model.whenComplete(new BiConsumer<D, Throwable>() {
+            @Override
+            public void accept(D loaded, Throwable error) {
+                if (error != null) {
+                    synchronized (registry) {
+                        // the next request tries again
+                        entry.leases--;
+                        if (entry.model != null && entry.model.isCompletedExceptionally()) {
+                            entry.model = null;
+                        }
+                    }
+                    lease.completeExceptionally(error);
+                } else {
+                    lease.complete(new Lease<>(registry, entry, loaded));
+                }
+            }
+        });
+        return lease;
+    }
+
+    /**
+     * Close the models idle for longer than the idle time.
+     *
+     * @return number of models closed
+     */
+    public int evictIdle() {
+        return evictIdle(System.nanoTime());
+    }
+
+    synchronized int evictIdle(long nowNanos) {
+        return evict(Long.MAX_VALUE, nowNanos, idleNanos);
+    }
+
+    /**
+     * Close every idle model, e.g. when the system is low on memory.
+     *
+     * @return number of models closed
+     */
+    public synchronized int trim() {
+        return evict(0, System.nanoTime(), Long.MAX_VALUE);
+    }
+
+    /**
+     * @return approximate bytes of the loaded (or loading) models
+     */
+    public synchronized long getLoadedBytes() {
+        long bytes = 0;
+        for (Entry<D> entry : entries.values()) {
+            if (entry.model != null) {
+                bytes += entry.spec.memoryBytes;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return whether spec is loaded (or loading)
+     */
+    public synchronized boolean isLoaded(ModelSpec spec) {
+        return entry(spec).model != null;
+    }
+
+    // close idle models, least recently used first: the ones idle for more than maxIdleNanos, then
+    // more until at most budget bytes are loaded
+    private int evict(long budget, long nowNanos, long maxIdleNanos) {
+        ArrayList<Entry<D>> idle = new ArrayList<>();
+        for (Entry<D> entry : entries.values()) {
+            if (entry.isIdle()) {
+                idle.add(entry);
+            }
+        }
+        Collections.sort(idle, new Comparator<Entry<D>>() {
+            @Override
+            public int compare(Entry<D> a, Entry<D> b) {
+                return Long.compare(a.lastUsedNanos - b.lastUsedNanos, 0);
+            }
+        });
+        long loaded = getLoadedBytes();
+        int evicted = 0;
+        for (Entry<D> entry : idle) {
+            if (loaded <= budget && nowNanos - entry.lastUsedNanos <= maxIdleNanos) {
+                break;
+            }
+            System.out.println("[LOG] Closing idle model " + entry.spec);
+            close(entry);
+            loaded -= entry.spec.memoryBytes;
+            evicted++;
+        }
+        return evicted;
+    }
+
+    private void close(Entry<D> entry) {
+        D model = entry.model.getNow(null);
+        entry.model = null;
+        if (model != null) {
+            try {
+                model.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private synchronized void release(Entry<D> entry) {
+        entry.leases--;
+        entry.lastUsedNanos = System.nanoTime();
+        if (!entry.isIdle()) {
+            return;
+        }
+        if (closed) {
+            close(entry);
+        } else {
+            // models loaded over budget while this one was in use
+            evict(memoryBudget, entry.lastUsedNanos, Long.MAX_VALUE);
+        }
+    }
+
+    private Entry<D> entry(ModelSpec spec) {
+        Entry<D> entry = entries.get(spec);
+        if (entry == null) {
+            throw new IllegalArgumentException("unknown model " + spec);
+        }
+        return entry;
+    }
+
+    /**
+     * Close every loaded model. The ones still leased (or loading for a lease) are closed once their
+     * last lease is returned, so work in flight can finish with them.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Entry<D> entry : entries.values()) {
+            if (entry.isIdle()) {
+                close(entry);
+            }
+        }
+    }
+}
@@ -5,48 +5,140 @@ import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.os.Build;
 
+import java.io.IOException;
 import java.io.InputStream;
-import java.nio.FloatBuffer;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.EnumSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import ai.onnxruntime.OnnxTensor;
 import ai.onnxruntime.OrtEnvironment;
 import ai.onnxruntime.OrtException;
 import ai.onnxruntime.OrtSession;
-import ai.onnxruntime.providers.NNAPIFlags;
+import ai.onnxruntime.TensorInfo;
 import kotlin.io.ByteStreamsKt;
 
-public class ObjectDetector {
+public class ObjectDetector implements AutoCloseable {
     // constant of current model family
     private static final int PAD_VAL = 114;
-    private static final float BOX_IOU_THRES = 0.7F;
-    private static final float MASK_IOU_THRES = 0.7F;
-    private static final float OVERLAP_THRES = 0.8F;
-    private static final float EPS = 1e-6F;
 
     private static final float[] MEAN = {103.53F, 116.28F, 123.675F};
     private static final float[] STD = {57.375F, 57.12F, 58.395F};
 
-    // constant of post-processing
-    private static final int BOX_THRES = 20;    // ignore too small boxes
-
-
     static class DetectionResult {
         public ArrayList<int[]> boxes;      // (n, 4) - format x1, y1, x2, y2
-        public ArrayList<Bitmap> masks;    // (n,) - bitmap of mask corresponding to box (size of mask = size of box)
+        public ArrayList<InstanceMask> masks;   // (n,) - lazy mask corresponding to box (size of mask = size of box), null if masks are skipped
         public ArrayList<Float> scores;     // (n, ) - confidence score between 0 and 1
         public ArrayList<String> labels;    // (n, ) - class label
+        DetectorMetrics metrics = new DetectorMetrics();    // of the detector that produced the result
 
-        public DetectionResult(ArrayList<int[]> boxes, ArrayList<Bitmap> masks, ArrayList<Float> scores, ArrayList<String> labels) {
+        public DetectionResult(ArrayList<int[]> boxes, ArrayList<InstanceMask> masks, ArrayList<Float> scores, ArrayList<String> labels) {
             this.boxes = boxes;
             this.masks = masks;
             this.scores = scores;
             this.labels = labels;
         }
+
+        public boolean hasMasks() {
+            return masks != null;
+        }
+
+        /**
+         * @return approximate heap size, masks included
+         */
+        public long sizeInBytes() {
+            long bytes = 64;
+            for (int i = 0; i < boxes.size(); i++) {
+                bytes += 96;    // box, score, references
+                if (masks != null) {
+                    bytes += masks.get(i).sizeInBytes();
+                }
+            }
+            return bytes;
+        }
+
+        /**
+         * Result of the region [x, x + width) x [y, y + height) of the image: boxes clipped to the
+         * region and moved to its coordinates, masks cropped the same way (sharing their ROIs),
+         * instances outside of the region dropped. Unlike running the detector on the cropped image,
+         * instances are not re-detected at the new scale.
+         */
+        public DetectionResult crop(int x, int y, int width, int height) {
+            ArrayList<int[]> croppedBoxes = new ArrayList<>();
+            ArrayList<InstanceMask> croppedMasks = masks != null ? new ArrayList<InstanceMask>() : null;
+            ArrayList<Float> croppedScores = new ArrayList<>();
+            ArrayList<String> croppedLabels = new ArrayList<>();
+            for (int i = 0; i < boxes.size(); i++) {
+                int[] box = boxes.get(i);
+                int x1 = Math.max(box[0], x), y1 = Math.max(box[1], y);
+                int x2 = Math.min(box[2], x + width), y2 = Math.min(box[3], y + height);
+                if (x2 <= x1 || y2 <= y1) {
+                    continue;
+                }
+                croppedBoxes.add(new int[]{x1 - x, y1 - y, x2 - x, y2 - y});
+                if (croppedMasks != null) {
+                    croppedMasks.add(masks.get(i).crop(x1 - box[0], y1 - box[1], x2 - x1, y2 - y1));
+                }
+                croppedScores.add(scores.get(i));
+                croppedLabels.add(labels.get(i));
+            }
+            DetectionResult result = new DetectionResult(croppedBoxes, croppedMasks, croppedScores, croppedLabels);
+            result.metrics = metrics;
+            return result;
+        }
+
+        /**
+         * Result mapped to other image coordinates, x' = offsetX + x * scaleX (same for y), e.g. from
+         * a subsampled decode back to the original image (see {@link DecodedImage#toOriginal}).
+         * Masks are resized lazily, sharing their ROIs.
+         */
+        public DetectionResult scale(float scaleX, float scaleY, int offsetX, int offsetY) {
+            int n = boxes.size();
+            ArrayList<int[]> scaledBoxes = new ArrayList<>(n);
+            ArrayList<InstanceMask> scaledMasks = masks != null ? new ArrayList<InstanceMask>(n) : null;
+            for (int i = 0; i < n; i++) {
+                int[] box = boxes.get(i);
+                int x1 = offsetX + Math.round(box[0] * scaleX), y1 = offsetY + Math.round(box[1] * scaleY);
+                int x2 = Math.max(x1 + 1, offsetX + Math.round(box[2] * scaleX));
+                int y2 = Math.max(y1 + 1, offsetY + Math.round(box[3] * scaleY));
+                scaledBoxes.add(new int[]{x1, y1, x2, y2});
+                if (scaledMasks != null) {
+                    scaledMasks.add(masks.get(i).resize(x2 - x1, y2 - y1));
+                }
+            }
+            DetectionResult result = new DetectionResult(scaledBoxes, scaledMasks, new ArrayList<>(scores), new ArrayList<>(labels));
+            result.metrics = metrics;
+            return result;
+        }
+
+        /**
+         * Materialize mask i as a new bitmap of the size of its box, set pixels as rgb(1, 1, 1)
+         * and the others as black.
+         *
+         * @return new bitmap owned by the caller, or null if masks are skipped
+         */
+        public Bitmap getMaskBitmap(int i) {
+            if (masks == null) {
+                return null;
+            }
+            long startTime = metrics.start();
+            long startAllocated = metrics.startAllocated();
+            InstanceMask mask = masks.get(i);
+            int[] pixels = mask.toPixels(Color.rgb(1, 1, 1), Color.rgb(0, 0, 0));
+            Bitmap maskBitmap = Bitmap.createBitmap(mask.width, mask.height, Bitmap.Config.ARGB_8888);
+            maskBitmap.setPixels(pixels, 0, mask.width, 0, 0, mask.width, mask.height);
+            metrics.record(DetectorMetrics.Stage.MASK_RENDER, startTime, startAllocated);
+            return maskBitmap;
+        }
     }
 
 
@@ -54,361 +146,724 @@ public class ObjectDetector {
     private HashMap<Integer, String> classMapping;
     private OrtEnvironment ortEnv;  // ONNX runtime environment
     private OrtSession ortSession;  // ONNX runtime session
+    private boolean ownsSession = true; // false if the session is shared with other detectors (see DetectorPool)
     private final int inferSize;      // input size of the model
-    private final float commonThres;  // confidence threshold for common bounding box
-    private final float personThres;  // confidence threshold for person (special case)
+    private final PostProcessor postProcessor;
+    private volatile boolean masksEnabled = true;
+    private final DetectorMetrics metrics = new DetectorMetrics();
+    private final DetectorMetrics.Recorder recorder = new DetectorMetrics.Recorder();
+
+    // reusable pre-processing state, so steady-state frames do not allocate:
+    // one input being inferred + one being prepared (see FramePipeline)
+    private static final int INPUT_BUFFERS = 2;
+    private final ArrayBlockingQueue<InputTensor> inputPool = new ArrayBlockingQueue<>(INPUT_BUFFERS);
+    private final LetterboxKernel letterboxKernel;
+    private final YuvLetterboxKernel yuvKernel;
+    // compact candidate masks of a run (see extract): one being post-processed + one being extracted
+    private final ArrayBlockingQueue<float[]> maskBuffers = new ArrayBlockingQueue<>(INPUT_BUFFERS);
+
+    // batched inference (see inferBatch)
+    private static final int DEFAULT_MAX_BATCH = 4;
+    private String inputName;
+    private long modelBatchSize = 1;  // batch dimension of the model input: fixed size, or -1 if dynamic
+    private final HashMap<Integer, InputTensor> batchInputs = new HashMap<>();    // batch size -> reusable input
+
+    // stream detection (see createStream)
+    private static final float STREAM_IOU_THRESHOLD = 0.3F;
+    private static final int STREAM_MAX_MISSED = 1;
+    private static final int STREAM_MAX_INTERVAL = 8;
+
+    // results of already seen images (see setResultCache)
+    static final ResultCache.Weigher<DetectionResult> RESULT_WEIGHER = new ResultCache.Weigher<DetectionResult>() {
+        @Override
+        public long bytes(DetectionResult value) {
+            return value.sizeInBytes();
+        }
+    };
+    private final String settingsKey;           // model, classes, infer size and thresholds
+    private volatile String configKey;          // everything but the pixels that the result depends on
+    private volatile ResultCache<DetectionResult> resultCache;
 
     public ObjectDetector(Resources resources, int classesFileID, int modelID, int inferSize, float commonThres, float personThres) {
+        this(resources, classesFileID, modelID, inferSize, commonThres, personThres, SessionProfile.defaults(Build.VERSION.SDK_INT));
+    }
+
+    public ObjectDetector(Resources resources, int classesFileID, int modelID, int inferSize, float commonThres, float personThres,
+                          SessionProfile profile) {
+        this(resources, classesFileID, "res:" + modelID, inferSize, commonThres, personThres);
+        createOrtSession(modelID, profile);
+    }
+
+    /**
+     * Detector over a session built by the caller (see {@link DetectorFactory}), owned from now on.
+     *
+     * @param modelKey identifies the model of the session in result cache keys
+     */
+    ObjectDetector(Resources resources, int classesFileID, String modelKey, OrtEnvironment ortEnv, OrtSession ortSession,
+                   int inferSize, float commonThres, float personThres) throws OrtException {
+        this(resources, classesFileID, modelKey, ortEnv, ortSession, inferSize, commonThres, personThres, true);
+    }
+
+    /**
+     * @param ownsSession false if the session is shared and closed by the caller after this detector
+     */
+    ObjectDetector(Resources resources, int classesFileID, String modelKey, OrtEnvironment ortEnv, OrtSession ortSession,
+                   int inferSize, float commonThres, float personThres, boolean ownsSession) throws OrtException {
+        this(resources, classesFileID, modelKey, inferSize, commonThres, personThres);
+        this.ortEnv = ortEnv;
+        this.ownsSession = ownsSession;
+        initSession(ortSession);
+    }
+
+    private ObjectDetector(Resources resources, int classesFileID, String modelKey, int inferSize, float commonThres, float personThres) {
         this.resources = resources;
         this.inferSize = inferSize;
-        this.commonThres = commonThres;
-        this.personThres = personThres;
+        this.metrics.addListener(recorder);
+        this.postProcessor = new PostProcessor(inferSize, commonThres, personThres, metrics, ForkJoinPool.commonPool());
+        this.settingsKey = modelKey + "/" + classesFileID + "/" + inferSize + "/" + commonThres + "/" + personThres;
+        this.configKey = limitsKey(PostProcessor.DEFAULT_MAX_CANDIDATES, PostProcessor.DEFAULT_MAX_DETECTIONS);
         readClasses(classesFileID);
-        createOrtSession(modelID);
+        letterboxKernel = new LetterboxKernel(inferSize, PAD_VAL, MEAN, STD, ForkJoinPool.commonPool());
+        yuvKernel = new YuvLetterboxKernel(inferSize, PAD_VAL, MEAN, STD, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @return per-stage metrics, to plug more listeners or enable allocation tracking
+     */
+    public DetectorMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return default recorder of the metrics, see {@link DetectorMetrics.Recorder#snapshot()}
+     */
+    public DetectorMetrics.Recorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * @return class id -> label
+     */
+    public Map<Integer, String> getClassMapping() {
+        return Collections.unmodifiableMap(classMapping);
+    }
+
+    /**
+     * @return result with class ids instead of labels, e.g. for {@link ResultWriter}
+     */
+    public PostProcessor.Result toClassIds(DetectionResult result) {
+        HashMap<String, Integer> classIds = new HashMap<>();
+        for (Map.Entry<Integer, String> entry : classMapping.entrySet()) {
+            classIds.put(entry.getValue(), entry.getKey());
+        }
+        int n = result.boxes.size();
+        int[] labels = new int[n];
+        float[] scores = new float[n];
+        for (int i = 0; i < n; i++) {
+            Integer id = classIds.get(result.labels.get(i));
+            labels[i] = id != null ? id : -1;
+            scores[i] = result.scores.get(i);
+        }
+        return new PostProcessor.Result(result.boxes.toArray(new int[0][]),
+                result.hasMasks() ? result.masks.toArray(new InstanceMask[0]) : null, scores, labels);
     }
 
-    private void createOrtSession(int modelID) {
+    /**
+     * @param masksEnabled false to return boxes, scores and labels only (DetectionResult.masks is null)
+     */
+    public void setMasksEnabled(boolean masksEnabled) {
+        this.masksEnabled = masksEnabled;
+    }
+
+    /**
+     * Bound the post-processing work per image, see {@link PostProcessor#setLimits}.
+     */
+    public void setLimits(int maxCandidates, int maxDetections) {
+        postProcessor.setLimits(maxCandidates, maxDetections);
+        configKey = limitsKey(maxCandidates, maxDetections);
+    }
+
+    private String limitsKey(int maxCandidates, int maxDetections) {
+        return settingsKey + "/" + maxCandidates + "/" + maxDetections;
+    }
+
+    /**
+     * Serve repeated requests on identical pixels (same photo detected again, undo / redo while
+     * editing) from the cache instead of running the model. Cached results are shared: callers must
+     * not modify them.
+     *
+     * @param resultCache null to disable caching, may be shared by detectors of different models
+     */
+    public void setResultCache(ResultCache<DetectionResult> resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * @return key of the result of image under the current configuration
+     */
+    String cacheKey(Bitmap image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] row = new int[width];
+        ResultCache.ContentHash hash = new ResultCache.ContentHash();
+        for (int y = 0; y < height; y++) {
+            image.getPixels(row, 0, width, 0, y, width, 1);
+            hash.update(row, 0, width);
+        }
+        return hash.update(width).update(height).update(configKey).update(masksEnabled ? 1 : 0).digest();
+    }
+
+    @Override
+    public void close() {
         try {
-            ortEnv = OrtEnvironment.getEnvironment();
-            OrtSession.SessionOptions sessionOptions = new OrtSession.SessionOptions();
-//             NNAPI: Android 8.1 (API 27) or higher
-            int androidSdkVer = Build.VERSION.SDK_INT;
-            if (androidSdkVer >= 27) {
-
-                EnumSet<NNAPIFlags> flags = EnumSet.noneOf(NNAPIFlags.class);
-                flags.add(NNAPIFlags.USE_FP16);
-//                if (androidSdkVer >= 29) {
-//                    flags.add(NNAPIFlags.CPU_DISABLED);
-//                }
-                sessionOptions.addNnapi(flags);
+            for (InputTensor input : inputPool)
+                input.close();
+            synchronized (this) {
+                for (InputTensor input : batchInputs.values())
+                    input.close();
+                batchInputs.clear();
             }
-            ortSession = ortEnv.createSession(ByteStreamsKt.readBytes(resources.openRawResource(modelID)), sessionOptions);
+            if (ortSession != null && ownsSession)
+                ortSession.close();
+        } catch (OrtException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void createOrtSession(int modelID, SessionProfile profile) {
+        try {
+            ortEnv = OrtEnvironment.getEnvironment();
+            OrtSession.SessionOptions sessionOptions = profile.createOptions();
+            initSession(ortEnv.createSession(ByteStreamsKt.readBytes(resources.openRawResource(modelID)), sessionOptions));
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    private void initSession(OrtSession session) throws OrtException {
+        ortSession = session;
+        inputName = ortSession.getInputNames().iterator().next();
+        modelBatchSize = ((TensorInfo) ortSession.getInputInfo().get(inputName).getInfo()).getShape()[0];
+        for (int i = 0; i < INPUT_BUFFERS; i++) {
+            inputPool.add(new InputTensor(ortEnv, inputName, inferSize));
+        }
+    }
+
+    /**
+     * Run the session runs times on a synthetic (all zero) input, so that graph preparation and
+     * memory allocation happen before the first real frame. Not recorded in the metrics.
+     */
+    public void warmUp(int runs) throws OrtException {
+        InputTensor input;
+        try {
+            input = inputPool.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            for (int i = 0; i < runs; i++) {
+                ortSession.run(input.inputs).close();
+            }
+        } finally {
+            inputPool.add(input);
+        }
+    }
+
     private void readClasses(int classesFileID) {
         InputStream inputStream = resources.openRawResource(classesFileID);
         // read lines
-        HashMap<Integer, String> readClasses = new HashMap<>();
-        int i = 0;
+        ArrayList<String> lines = new ArrayList<>();
         try (java.util.Scanner scanner = new java.util.Scanner(inputStream)) {
             while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                readClasses.put(i, line);
-                i++;
+                lines.add(scanner.nextLine());
             }
         }
+        // optional "name,threshold" lines override the thresholds of their class
+        ArrayList<String> names = new ArrayList<>();
+        postProcessor.setClassThresholds(PostProcessor.parseClasses(lines, names));
+        HashMap<Integer, String> readClasses = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            readClasses.put(i, names.get(i));
+        }
         classMapping = readClasses;
     }
 
-    private static class PreprocessedImage {
-        public FloatBuffer imageData;
-        public int padX;
-        public int padY;
-
-        public PreprocessedImage(FloatBuffer imageData, int padX, int padY) {
-            this.imageData = imageData;
-            this.padX = padX;
-            this.padY = padY;
-        }
+    private void preprocess(Bitmap image, InputTensor input, int index) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = input.pixels(width * height);
+        image.getPixels(pixels, 0, width, 0, 0, width, height);
+        preprocess(pixels, width, height, input, index);
     }
 
-    private PreprocessedImage preprocess(Bitmap image) {
-        // Resize
-        Bitmap resizedBm = ImageUtils.resizeKeepRatio(image, inferSize);
-
-        // Pad
-        ImageUtils.PaddedImage paddedImage = ImageUtils.pad(resizedBm, inferSize, PAD_VAL);
-        Bitmap paddedBm = paddedImage.image;
-        int padX = paddedImage.padX;
-        int padY = paddedImage.padY;
+    private void preprocess(int[] pixels, int width, int height, InputTensor input, int index) {
+        int[] newSize = letterbox(width, height, input, index);
 
-        // Convert to float array
-        FloatBuffer imageData = ImageUtils.normalizeImage(paddedBm, MEAN, STD);
-
-        return new PreprocessedImage(imageData, padX, padY);
+        // Resize + pad + normalize straight into the input tensor
+        letterboxKernel.run(pixels, width, height, newSize[0], newSize[1], input.padX[index], input.padY[index],
+                input.data, input.offset(index));
     }
 
+    private void preprocess(YuvFrame frame, int rotation, InputTensor input, int index) {
+        int[] newSize = letterbox(frame.rotatedWidth(rotation), frame.rotatedHeight(rotation), input, index);
 
-    public DetectionResult infer(Bitmap inputBitmap) throws OrtException {
-        long startTime = 0L;
-        long endTime = 0L;
-        long totalTime = 0L;
+        // Convert + rotate + resize + pad + normalize straight into the input tensor
+        yuvKernel.run(frame, rotation, newSize[0], newSize[1], input.padX[index], input.padY[index],
+                input.data, input.offset(index));
+    }
 
-        int origWidth = inputBitmap.getWidth();
-        int origHeight = inputBitmap.getHeight();
+    // record the letterbox metadata of a width x height frame, return its resized size
+    private int[] letterbox(int width, int height, InputTensor input, int index) {
+        input.origWidth[index] = width;
+        input.origHeight[index] = height;
 
-        ////////////////////////////////////////
-        // Preprocessing
-        startTime = System.currentTimeMillis();
+        // Resize (keep ratio), smaller images are used as they are
+        int[] newSize = LetterboxKernel.fitSize(width, height, inferSize, input.newSize);
+        input.padX[index] = (inferSize - newSize[0]) / 2;
+        input.padY[index] = (inferSize - newSize[1]) / 2;
+        return newSize;
+    }
 
-        PreprocessedImage preprocessedImage = preprocess(inputBitmap);
-        FloatBuffer inputData = preprocessedImage.imageData;
-        int padX = preprocessedImage.padX;
-        int padY = preprocessedImage.padY;
 
-        // Input collections
-        OnnxTensor inputTensor = OnnxTensor.createTensor(ortEnv, inputData, new long[]{1, 3, inferSize, inferSize});
-        String inputName = ortSession.getInputNames().iterator().next();
-        Map<String, OnnxTensor> inputMap = new HashMap<>();
-        inputMap.put(inputName, inputTensor);
+    static class RawOutput extends BatchOutput {
+        String cacheKey;                // null if results are not cached
+        DetectionResult cached;         // result found in the cache, nothing else is set
+    }
 
-        endTime = System.currentTimeMillis();
+    // stage 1 output of a Bitmap: the input tensor, or the result if it is cached
+    private static class Prepared {
+        final String cacheKey;
+        final InputTensor input;
+        final DetectionResult cached;
 
-        totalTime += (endTime - startTime);
-        System.out.println("[LOG] 1. Pre-process time: " + (endTime - startTime) + "ms");
+        Prepared(String cacheKey, InputTensor input, DetectionResult cached) {
+            this.cacheKey = cacheKey;
+            this.input = input;
+            this.cached = cached;
+        }
+    }
 
+    /**
+     * Stage 1 with the result cache: look the image up, and pre-process it on a miss.
+     */
+    private Prepared prepareCached(Bitmap image) throws InterruptedException {
+        ResultCache<DetectionResult> cache = resultCache;
+        if (cache == null) {
+            return new Prepared(null, prepare(image), null);
+        }
+        String key = cacheKey(image);
+        DetectionResult cached = cache.get(key);
+        return cached != null ? new Prepared(key, null, cached) : new Prepared(key, prepare(image), null);
+    }
 
-        ////////////////////////////////////////
-        // Inference
+    private RawOutput runCached(Prepared prepared) throws OrtException {
+        RawOutput raw;
+        if (prepared.cached != null) {
+            raw = new RawOutput();
+            raw.cached = prepared.cached;
+        } else {
+            raw = run(prepared.input);
+        }
+        raw.cacheKey = prepared.cacheKey;
+        return raw;
+    }
 
-        startTime = System.currentTimeMillis();
-        // Run ONNX session
-        OrtSession.Result output = ortSession.run(inputMap);
-        endTime = System.currentTimeMillis();
+    private DetectionResult postprocessCached(RawOutput raw) {
+        if (raw.cached != null) {
+            return raw.cached;
+        }
+        DetectionResult result = postprocess(raw);
+        releaseMasks(raw.masks);
+        ResultCache<DetectionResult> cache = resultCache;
+        if (raw.cacheKey != null && cache != null) {
+            cache.put(raw.cacheKey, result);
+        }
+        return result;
+    }
 
-        totalTime += (endTime - startTime);
-        System.out.println("[LOG] 2. Inference time: " + (endTime - startTime) + "ms");
+    /**
+     * Stage 1: pre-process into a pooled input tensor (waits while all of them are in use).
+     */
+    private InputTensor prepare(final Bitmap image) throws InterruptedException {
+        return prepare(new FrameWriter() {
+            @Override
+            public void write(InputTensor input, int index) {
+                preprocess(image, input, index);
+            }
+        });
+    }
 
-        ////////////////////////////////////////
-        // Postprocessing
+    // writes a frame of any format into a batch element of an input
+    private interface FrameWriter {
+        void write(InputTensor input, int index);
+    }
 
-        startTime = System.currentTimeMillis();
+    private synchronized InputTensor prepare(FrameWriter frame) throws InterruptedException {
+        long startTime = metrics.start();
+        long startAllocated = metrics.startAllocated();
+        InputTensor input = inputPool.take();
+        metrics.record(DetectorMetrics.Stage.INPUT_TENSOR, startTime, startAllocated);
 
-        // Extract results from session
-        long[] labels = ((long[][]) ((OnnxTensor) output.get(1)).getValue())[0];  // in shape (n)
-        float[][] dets = ((float[][][]) ((OnnxTensor) output.get(0)).getValue())[0];  // in shape (n, 5) - [x1, y1, x2, y2, score]
-        int[][] boxes = new int[dets.length][4];     // in shape (n, 4) - [x1, y1, x2, y2]
-        float[] scores = new float[dets.length];    // in shape (n)
-        for (int i = 0; i < dets.length; i++) {
-            boxes[i] = new int[]{(int) dets[i][0], (int) dets[i][1], (int) dets[i][2], (int) dets[i][3]};
-            scores[i] = dets[i][4];
+        startTime = metrics.start();
+        startAllocated = metrics.startAllocated();
+        try {
+            frame.write(input, 0);
+        } catch (RuntimeException e) {
+            inputPool.add(input);
+            throw e;
         }
+        metrics.record(DetectorMetrics.Stage.PREPROCESS, startTime, startAllocated);
+        return input;
+    }
 
-        float[][][] masks = ((float[][][][]) ((OnnxTensor) output.get(2)).getValue())[0];      // in shape (n, h, w)
+    /**
+     * Stage 2: run the session and extract the raw outputs.
+     */
+    private RawOutput run(InputTensor input) throws OrtException {
+        RawOutput raw = new RawOutput();
+        long startTime = metrics.start();
+        long startAllocated = metrics.startAllocated();
+        try (OrtSession.Result output = runSession(input, raw)) {
+            metrics.record(DetectorMetrics.Stage.SESSION_RUN, startTime, startAllocated);
+
+            startTime = metrics.start();
+            startAllocated = metrics.startAllocated();
+            extract(output, new RawOutput[]{raw});
+            metrics.record(DetectorMetrics.Stage.EXTRACT, startTime, startAllocated);
+        }
+        return raw;
+    }
 
-        endTime = System.currentTimeMillis();
+    // the input tensor goes back to the pool as soon as the session is done with it
+    private OrtSession.Result runSession(InputTensor input, RawOutput raw) throws OrtException {
+        try {
+            raw.setMetadata(input, 0);
+            return ortSession.run(input.inputs);
+        } finally {
+            inputPool.add(input);
+        }
+    }
 
-        totalTime += (endTime - startTime);
-        System.out.println("[LOG] 3. Extract result time: " + (endTime - startTime) + "ms");
+    /**
+     * Split the outputs of the first raws.length batch elements into raws. Outputs are read through
+     * flat buffers (no per-row arrays), detections first: only the ones passing the score thresholds
+     * are kept, and only their masks are copied, into a compact pooled array (see
+     * {@link #releaseMasks}), so nothing the size of the masks output outlives the run.
+     * The runtime still copies the whole masks output once to read it (getFloatBuffer, about 160 MB
+     * for 100 x 640 x 640): 1.16 has no accessor to the native output, nor pinned outputs.
+     */
+    private void extract(OrtSession.Result output, RawOutput[] raws) {
+        OnnxTensor detsTensor = (OnnxTensor) output.get(0);     // in shape (b, n, 5) - [x1, y1, x2, y2, score]
+        OnnxTensor labelsTensor = (OnnxTensor) output.get(1);   // in shape (b, n)
+        OnnxTensor masksTensor = (OnnxTensor) output.get(2);    // in shape (b, n, h, w)
+        int n = (int) detsTensor.getInfo().getShape()[1];
+        long[] maskShape = masksTensor.getInfo().getShape();
+        int maskSize = (int) (maskShape[2] * maskShape[3]);
+
+        int kept = BatchOutput.split(raws, detsTensor.getFloatBuffer(), labelsTensor.getLongBuffer(), n, maskSize, postProcessor);
+        if (kept > 0) {
+            float[] masks = maskBuffers.poll();
+            if (masks == null || masks.length < kept * maskSize) {
+                masks = new float[kept * maskSize];
+            }
+            BatchOutput.copyMasks(raws, masksTensor.getFloatBuffer(), maskSize, masks);
+        }
+    }
 
-        startTime = System.currentTimeMillis();
-        DetectionResult result = postprocess(boxes, scores, labels, masks, origWidth, origHeight, padX, padY);
-        endTime = System.currentTimeMillis();
+    // the compact masks of a run (shared by its batch) are reused once post-processed
+    private void releaseMasks(float[] masks) {
+        if (masks != null) {
+            maskBuffers.offer(masks);
+        }
+    }
 
-        totalTime += (endTime - startTime);
-        System.out.println("[LOG] 4. Post-process time: " + (endTime - startTime) + "ms");
 
-        System.out.println("[LOG] Total time: " + totalTime + "ms");
+    /**
+     * Stage 3: post-process the raw outputs.
+     */
+    private DetectionResult postprocess(RawOutput raw) {
+        return postprocess(raw.boxes, raw.scores, raw.labels, raw.masks, raw.masksOffset, raw.origWidth, raw.origHeight, raw.padX, raw.padY);
+    }
 
-        return result;
+    /**
+     * Asynchronous detection: each stage runs on its own thread so consecutive frames overlap.
+     * The caller owns the pipeline and closes it before closing this detector.
+     */
+    public FramePipeline<Bitmap, ?, ?, DetectionResult> createPipeline(int capacity, FramePipeline.QueuePolicy policy) {
+        return new FramePipeline<>(
+                new FramePipeline.Stage<Bitmap, Prepared>() {
+                    @Override
+                    public Prepared apply(Bitmap image) throws Exception {
+                        return prepareCached(image);
+                    }
+                },
+                new FramePipeline.Stage<Prepared, RawOutput>() {
+                    @Override
+                    public RawOutput apply(Prepared prepared) throws Exception {
+                        return runCached(prepared);
+                    }
+                },
+                new FramePipeline.Stage<RawOutput, DetectionResult>() {
+                    @Override
+                    public DetectionResult apply(RawOutput raw) {
+                        return postprocessCached(raw);
+                    }
+                },
+                capacity, policy);
     }
 
-    private DetectionResult postprocess(int[][] boxes, float[] scores, long[] labels, float[][][] masks, int origWidth, int origHeight, int padX, int padY) {
-        int n = boxes.length;
-        boolean[] isSkipped = new boolean[n];
+    /**
+     * Batched detection for offline workloads (e.g. a gallery folder): images are letterboxed into
+     * one (batch, 3, S, S) tensor per session call, and post-processed in parallel across images.
+     * Models with a fixed batch dimension are fed chunks of that size, others chunks of at most
+     * {@value #DEFAULT_MAX_BATCH} images.
+     *
+     * @return one result per image, in input order
+     */
+    public ArrayList<DetectionResult> inferBatch(List<Bitmap> images) throws OrtException {
+        return inferBatch(images, DEFAULT_MAX_BATCH);
+    }
 
-        // 1. Filter our low score boxes
-        for (int i = 0; i < n; i++) {
-            if (scores[i] >= commonThres || (labels[i] == 0 && scores[i] >= personThres))
-                continue;
-            isSkipped[i] = true;
+    /**
+     * @param maxBatch largest chunk of images per session call for dynamic-batch models
+     *                 (memory of the outputs grows linearly with it)
+     */
+    public ArrayList<DetectionResult> inferBatch(List<Bitmap> images, int maxBatch) throws OrtException {
+        int chunkSize = BatchOutput.chunkSize(modelBatchSize, maxBatch);
+        ArrayList<DetectionResult> results = new ArrayList<>(images.size());
+        for (int start = 0; start < images.size(); start += chunkSize) {
+            ArrayList<FrameWriter> chunk = new ArrayList<>();
+            for (final Bitmap image : images.subList(start, Math.min(start + chunkSize, images.size()))) {
+                chunk.add(new FrameWriter() {
+                    @Override
+                    public void write(InputTensor input, int index) {
+                        preprocess(image, input, index);
+                    }
+                });
+            }
+            int batchSize = BatchOutput.batchSize(modelBatchSize, chunkSize, chunk.size());
+            results.addAll(postprocessAll(runBatch(chunk, batchSize)));
         }
+        return results;
+    }
 
-        // 2. Normalize box coordinates (between 0 and infer size - 1)
-        for (int i = 0; i < n; i++) {
-            if (isSkipped[i])
-                continue;
+    /**
+     * Tiled detection for images larger than the infer size (e.g. full-resolution photos): the
+     * image is split into overlapping tiles of the infer size, read from the source chunk by chunk
+     * and run as batches like {@link #inferBatch}, then instances cut by tile borders are stitched,
+     * see {@link TileStitcher}. Small objects keep their full resolution, and memory is bounded by
+     * one chunk of tiles whatever the image size.
+     *
+     * @param overlap pixels shared by neighbor tiles, about the size of the largest expected object
+     *                that should not be cut
+     * @throws UncheckedIOException if a tile can not be read
+     */
+    public DetectionResult inferTiled(final TileSource source, int overlap) throws OrtException {
+        int[][] tiles = TileStitcher.tiles(source.getWidth(), source.getHeight(), inferSize, overlap);
+        int chunkSize = BatchOutput.chunkSize(modelBatchSize, DEFAULT_MAX_BATCH);
+        TileStitcher stitcher = new TileStitcher();
+        for (int start = 0; start < tiles.length; start += chunkSize) {
+            ArrayList<FrameWriter> chunk = new ArrayList<>();
+            for (final int[] tile : Arrays.asList(tiles).subList(start, Math.min(start + chunkSize, tiles.length))) {
+                chunk.add(new FrameWriter() {
+                    @Override
+                    public void write(InputTensor input, int index) {
+                        int[] pixels = input.pixels(tile[2] * tile[3]);
+                        try {
+                            source.read(tile[0], tile[1], tile[2], tile[3], pixels);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        preprocess(pixels, tile[2], tile[3], input, index);
+                    }
+                });
+            }
+            int batchSize = BatchOutput.batchSize(modelBatchSize, chunkSize, chunk.size());
+            RawOutput[] raws = runBatch(chunk, batchSize);
+            for (int b = 0; b < raws.length; b++) {
+                RawOutput raw = raws[b];
+                int[] tile = tiles[start + b];
+                stitcher.add(postProcessor.process(raw.boxes, raw.scores, raw.labels, raw.masks, raw.masksOffset,
+                        raw.origWidth, raw.origHeight, raw.padX, raw.padY, masksEnabled), tile[0], tile[1], raw.padX, raw.padY);
+            }
+            releaseMasks(raws[0].masks);
+        }
+        return toDetectionResult(stitcher.stitch());
+    }
 
-            int x1 = boxes[i][0];
-            int y1 = boxes[i][1];
-            int x2 = boxes[i][2];
-            int y2 = boxes[i][3];
+    // batch tensors are shared by inferBatch calls, so preparing and running a chunk is exclusive
+    private synchronized RawOutput[] runBatch(List<FrameWriter> frames, int batchSize) throws OrtException {
+        long startTime = metrics.start();
+        long startAllocated = metrics.startAllocated();
+        InputTensor input = batchInputs.get(batchSize);
+        if (input == null) {
+            input = new InputTensor(ortEnv, inputName, batchSize, inferSize);
+            batchInputs.put(batchSize, input);
+        }
+        metrics.record(DetectorMetrics.Stage.INPUT_TENSOR, startTime, startAllocated);
 
-            if (x1 >= x2 || y1 >= y2) {
-                isSkipped[i] = true;
-                continue;
-            }
+        for (int b = 0; b < frames.size(); b++) {
+            startTime = metrics.start();
+            startAllocated = metrics.startAllocated();
+            frames.get(b).write(input, b);
+            metrics.record(DetectorMetrics.Stage.PREPROCESS, startTime, startAllocated);
+        }
 
-            x1 = Math.min(Math.max(padX, x1), inferSize - 1 - padX);
-            y1 = Math.min(Math.max(padY, y1), inferSize - 1 - padY);
-            x2 = Math.min(Math.max(padX, x2), inferSize - 1 - padX);
-            y2 = Math.min(Math.max(padY, y2), inferSize - 1 - padY);
+        RawOutput[] raws = new RawOutput[frames.size()];
+        for (int b = 0; b < raws.length; b++) {
+            raws[b] = new RawOutput();
+            raws[b].setMetadata(input, b);
+        }
+        startTime = metrics.start();
+        startAllocated = metrics.startAllocated();
+        try (OrtSession.Result output = ortSession.run(input.inputs)) {
+            metrics.record(DetectorMetrics.Stage.SESSION_RUN, startTime, startAllocated);
+
+            startTime = metrics.start();
+            startAllocated = metrics.startAllocated();
+            extract(output, raws);
+            metrics.record(DetectorMetrics.Stage.EXTRACT, startTime, startAllocated);
+        }
+        return raws;
+    }
 
-            boxes[i][0] = x1; boxes[i][1] = y1; boxes[i][2] = x2; boxes[i][3] = y2;
+    private List<DetectionResult> postprocessAll(RawOutput[] raws) {
+        ArrayList<Callable<DetectionResult>> tasks = new ArrayList<>(raws.length);
+        for (final RawOutput raw : raws) {
+            tasks.add(new Callable<DetectionResult>() {
+                @Override
+                public DetectionResult call() {
+                    return postprocess(raw);
+                }
+            });
         }
 
-        // 3. Reduce redundant boxes: NMS + Merged overlapping boxes
-        HashMap<Integer, ArrayList<Integer>> mergeDict = new HashMap<>();
-        for (int i = 0; i < n; i++) {
-            if (isSkipped[i]) {
-                continue;
+        ArrayList<DetectionResult> results = new ArrayList<>(raws.length);
+        try {
+            for (Future<DetectionResult> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                results.add(future.get());
             }
-            if (!mergeDict.containsKey(i)) {
-                mergeDict.put(i, new ArrayList<Integer>());
+            // the batch shares its masks
+            if (raws.length > 0) {
+                releaseMasks(raws[0].masks);
             }
-            int[] box1 = boxes[i];
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return results;
+    }
 
-            for (int j = i + 1; j < n; j++) {
-                if (isSkipped[j]) {
-                    continue;
-                }
-                if (!mergeDict.containsKey(j)) {
-                    mergeDict.put(j, new ArrayList<Integer>());
-                }
-                int[] box2 = boxes[j];
-
-                float boxIoU = calcBoxIoU(box1, box2);
-
-                // crop 2 masks to the same shape
-                int x1 = Math.min(box1[0], box2[0]);
-                int y1 = Math.min(box1[1], box2[1]);
-                int x2 = Math.max(box1[2], box2[2]);
-                int y2 = Math.max(box1[3], box2[3]);
-                byte[] mask1Crop = cropMask(masks[i], x1, y1, x2, y2);
-                byte[] mask2Crop = cropMask(masks[j], x1, y1, x2, y2);
-                // calculate mask IoU and overlap
-                float maskInter = 0, mask1Area = 0, mask2Area = 0;
-                for (int k = 0; k < mask1Crop.length; k++) {
-                    if ((mask1Crop[k] & mask2Crop[k]) == 1)
-                        maskInter++;
-                    if (mask1Crop[k] == 1)
-                        mask1Area++;
-                    if (mask2Crop[k] == 1)
-                        mask2Area++;
-                }
-                float maskUnion = mask1Area + mask2Area - maskInter + EPS;
-                float mask1Overlap = (float) (maskInter / ((float) mask1Area + EPS));
-                float mask2Overlap = (float) (maskInter / ((float) mask2Area + EPS));
-
-                // check condition
-                if ((boxIoU > BOX_IOU_THRES && (float) maskInter / ((float) maskUnion + 1e-6) > MASK_IOU_THRES) ||
-                        (labels[i] == labels[j] && (Math.max(mask1Overlap, mask2Overlap) > OVERLAP_THRES))) {
-                    if (scores[i] > scores[j]) {
-                        isSkipped[j] = true;
-                        mergeDict.get(i).add(j); mergeDict.get(i).addAll(mergeDict.get(j));
-                        mergeDict.remove(j);
-                    } else {
-                        isSkipped[i] = true;
-                        mergeDict.get(j).add(i); mergeDict.get(j).addAll(mergeDict.get(i));
-                        mergeDict.remove(i);
-                    }
-                }
+    /**
+     * Synchronous detection. Stage timings go to {@link #getMetrics()}.
+     */
+    public DetectionResult infer(Bitmap inputBitmap) throws OrtException {
+        Prepared prepared;
+        try {
+            prepared = prepareCached(inputBitmap);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        return postprocessCached(runCached(prepared));
+    }
 
-                if (isSkipped[i]) {
-                    break;
-                }
+    /**
+     * Synchronous detection on the region [x, x + width) x [y, y + height) of image, in region
+     * coordinates. If the whole image is in the result cache, its result is cropped to the region
+     * (see {@link DetectionResult#crop}) without running the model; otherwise the model runs on the
+     * region alone.
+     */
+    public DetectionResult inferRegion(Bitmap image, int x, int y, int width, int height) throws OrtException {
+        ResultCache<DetectionResult> cache = resultCache;
+        if (cache != null) {
+            DetectionResult full = cache.get(cacheKey(image));
+            if (full != null) {
+                return full.crop(x, y, width, height);
             }
         }
+        return infer(Bitmap.createBitmap(image, x, y, width, height));
+    }
 
-        // 4. Merge masks
-        for (int i = 0; i < n; i++) {
-            if (isSkipped[i] || !mergeDict.containsKey(i)) {
-                continue;
+    /**
+     * Synchronous detection on width x height ARGB pixels (row-major), e.g. a decoded video frame.
+     */
+    public DetectionResult infer(final int[] pixels, final int width, final int height) throws OrtException {
+        return infer(new FrameWriter() {
+            @Override
+            public void write(InputTensor input, int index) {
+                preprocess(pixels, width, height, input, index);
             }
+        });
+    }
 
-            int[] curBox = boxes[i];
-            float[][] curMask = masks[i];
-
-            for (int j = 0; j < mergeDict.get(i).size(); j++) {
-                int idx = mergeDict.get(i).get(j);
-                int[] box2 = boxes[idx];
-                float[][] mask2 = masks[idx];
-
-                // merge box
-                curBox[0] = Math.min(curBox[0], box2[0]);
-                curBox[1] = Math.min(curBox[1], box2[1]);
-                curBox[2] = Math.max(curBox[2], box2[2]);
-                curBox[3] = Math.max(curBox[3], box2[3]);
-                // merge mask
-                for (int k = box2[1]; k <= box2[3]; k++) {
-                    for (int l = box2[0]; l <= box2[2]; l++) {
-                        curMask[k][l] = Math.max(curMask[k][l], mask2[k][l]);
-                    }
-                }
+    /**
+     * Synchronous detection on a YUV camera frame, converted, rotated and letterboxed in one pass.
+     * Boxes and masks are in the coordinates of the rotated frame.
+     *
+     * @param rotation clockwise rotation to apply to the frame (e.g. the image rotation reported by the camera)
+     */
+    public DetectionResult infer(final YuvFrame frame, final int rotation) throws OrtException {
+        return infer(new FrameWriter() {
+            @Override
+            public void write(InputTensor input, int index) {
+                preprocess(frame, rotation, input, index);
             }
+        });
+    }
 
-            boxes[i] = curBox;
-            masks[i] = curMask;
+    private DetectionResult infer(FrameWriter frame) throws OrtException {
+        InputTensor input;
+        try {
+            input = prepare(frame);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
         }
-        
-        // 5. Refine boxes coordinates
+        RawOutput raw = run(input);
+        DetectionResult result = postprocess(raw);
+        releaseMasks(raw.masks);
+        return result;
+    }
+
+    /**
+     * Stream detection over ARGB frames, see {@link StreamDetector}.
+     *
+     * @param budgetNanos average processing time allowed per frame
+     */
+    public StreamDetector<int[]> createStream(final int width, final int height, long budgetNanos) {
+        return new StreamDetector<>(new StreamDetector.Detector<int[]>() {
+            @Override
+            public DetectionResult detect(int[] frame) throws Exception {
+                return infer(frame, width, height);
+            }
+        }, new InstanceTracker(STREAM_IOU_THRESHOLD, STREAM_MAX_MISSED), budgetNanos, 1, STREAM_MAX_INTERVAL);
+    }
+
+    private DetectionResult postprocess(int[][] boxes, float[] scores, long[] labels, float[] masks, int masksOffset, int origWidth, int origHeight, int padX, int padY) {
+        return toDetectionResult(postProcessor.process(boxes, scores, labels, masks, masksOffset, origWidth, origHeight, padX, padY, masksEnabled));
+    }
+
+    private DetectionResult toDetectionResult(PostProcessor.Result processed) {
         ArrayList<Float> finalScores = new ArrayList<>();
         ArrayList<int[]> finalBoxes = new ArrayList<>();
         ArrayList<String> finalLabels = new ArrayList<>();
-        ArrayList<Bitmap> finalMasks = new ArrayList<>();
+        ArrayList<InstanceMask> finalMasks = processed.masks != null ? new ArrayList<InstanceMask>() : null;
 
-        for (int i = 0; i < n; i++) {
-            if (isSkipped[i]) {
-                continue;
-            }
-            
-            // actual box coordinates
-            int x1 = boxes[i][0];
-            int y1 = boxes[i][1];
-            int x2 = boxes[i][2];
-            int y2 = boxes[i][3];
-            int actualX1 = (int) ((x1 - padX) / (float) (inferSize - padX * 2) * origWidth);
-            int actualY1 = (int) ((y1 - padY) / (float) (inferSize - padY * 2) * origHeight);
-            int actualX2 = (int) ((x2 - padX) / (float) (inferSize - padX * 2) * origWidth);
-            int actualY2 = (int) ((y2 - padY) / (float) (inferSize - padY * 2) * origHeight);
-            // check box size
-            if ((actualX2 - actualX1 + 1) + (actualY2 - actualY1 + 1) < BOX_THRES)
-                continue;
-
-            // crop current mask (H x W) to final mask (same size with box)
-            int maskHeight = y2 - y1;
-            int maskWidth = x2 - x1;
-            Bitmap maskBitmap = Bitmap.createBitmap(maskWidth, maskHeight, Bitmap.Config.ARGB_8888);
-            int[] binValues = new int[maskWidth * maskHeight];
-            int idx = 0;
-            for (int j = 0; j < maskHeight; j++) {
-                for (int k = 0; k < maskWidth; k++) {
-                    int val = Math.round(masks[i][y1 + j][x1 + k]);
-                    binValues[idx++] = Color.rgb(val, val, val);
-                }
-            }
-            int maskNewWidth = actualX2 - actualX1;
-            int maskNewHeight = actualY2 - actualY1;
-            maskBitmap.setPixels(binValues, 0, maskWidth, 0, 0, maskWidth, maskHeight);
-            Bitmap actualMaskBitmap = Bitmap.createScaledBitmap(maskBitmap, maskNewWidth, maskNewHeight, false);
-
-            finalBoxes.add(new int[]{actualX1, actualY1, actualX2, actualY2});
-            finalMasks.add(actualMaskBitmap);
-            finalScores.add(scores[i]);
-            finalLabels.add(classMapping.get((int)labels[i]));
-        }
-        
-        return new DetectionResult(finalBoxes, finalMasks, finalScores, finalLabels);
-    }
-
-    private float calcBoxIoU(int[] box1, int[] box2) {
-        int x1 = Math.max(box1[0], box2[0]);
-        int y1 = Math.max(box1[1], box2[1]);
-        int x2 = Math.min(box1[2], box2[2]);
-        int y2 = Math.min(box1[3], box2[3]);
-        float inter = Math.max(0, x2 - x1 + 1) * Math.max(0, y2 - y1 + 1);
-        if (inter == 0) {
-            return 0;
-        }
-        float area1 = (box1[2] - box1[0] + 1) * (box1[3] - box1[1] + 1);
-        float area2 = (box2[2] - box2[0] + 1) * (box2[3] - box2[1] + 1);
-        return inter / (area1 + area2 - inter);
-    }
-
-//    private byte[] cropMask(byte[][] mask, int x1, int y1, int x2, int y2) {
-    private byte[] cropMask(float[][] mask, int x1, int y1, int x2, int y2) {
-        int maskHeight = y2 - y1;
-        int maskWidth = x2 - x1;
-        byte[] maskCrop = new byte[maskHeight * maskWidth];
-        int idx = 0;
-        for (int i = 0; i < maskHeight; i++) {
-            for (int j = 0; j < maskWidth; j++) {
-                maskCrop[idx++] = (byte) Math.round(mask[y1 + i][x1 + j]);
+        for (int i = 0; i < processed.size(); i++) {
+            finalBoxes.add(processed.boxes[i]);
+            if (finalMasks != null) {
+                finalMasks.add(processed.masks[i]);
             }
+            finalScores.add(processed.scores[i]);
+            finalLabels.add(classMapping.get(processed.labels[i]));
         }
-        return maskCrop;
+
+        DetectionResult result = new DetectionResult(finalBoxes, finalMasks, finalScores, finalLabels);
+        result.metrics = metrics;
+        return result;
     }
 }
@@ -0,0 +1,527 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Post-processing of raw RTMDet-Ins outputs over primitive arrays only (no Android classes),
+ * so the whole stage can run, be profiled and be tested on a plain JVM.
+ * Candidates are bounded before any mask work: the top {@link #setLimits maxCandidates} by score
+ * are kept, then merged in descending score order until maxDetections instances are final.
+ * The per-instance work (binarizing candidate masks, merging the masks of each kept instance) is
+ * split across a fork-join pool; every instance writes its own slot, so the output does not
+ * depend on scheduling.
+ */
+public class PostProcessor {
+    // constant of current model family
+    static final float BOX_IOU_THRES = 0.7F;
+    static final float MASK_IOU_THRES = 0.7F;
+    static final float OVERLAP_THRES = 0.8F;
+    static final float EPS = 1e-6F;
+
+    // constant of post-processing
+    static final int BOX_THRES = 20;    // ignore too small boxes
+    static final int MIN_BATCH = 4;     // instances per task below which a batch is not split further
+    static final int DEFAULT_MAX_CANDIDATES = 300;  // raw detections kept for NMS, highest scores first
+    static final int DEFAULT_MAX_DETECTIONS = 100;  // instances returned per image
+
+
+    static class Result {
+        public int[][] boxes;       // (n, 4) - format x1, y1, x2, y2 in original image coordinates
+        public InstanceMask[] masks;    // (n,) - lazy binary mask corresponding to box (size of mask = size of box), null if masks are skipped
+        public float[] scores;      // (n, ) - confidence score between 0 and 1
+        public int[] labels;        // (n, ) - class id
+
+        public Result(int[][] boxes, InstanceMask[] masks, float[] scores, int[] labels) {
+            this.boxes = boxes;
+            this.masks = masks;
+            this.scores = scores;
+            this.labels = labels;
+        }
+
+        public int size() {
+            return scores.length;
+        }
+    }
+
+
+    private final int inferSize;      // input size of the model
+    private final float commonThres;  // confidence threshold for common bounding box
+    private final float personThres;  // confidence threshold for person (special case)
+    private final DetectorMetrics metrics;
+    private final ForkJoinPool pool;  // null to run on the calling thread
+    private float[] classThres;       // per class id, NaN (or out of range) for the defaults above
+    private int maxCandidates = DEFAULT_MAX_CANDIDATES;
+    private int maxDetections = DEFAULT_MAX_DETECTIONS;
+
+    public PostProcessor(int inferSize, float commonThres, float personThres) {
+        this(inferSize, commonThres, personThres, new DetectorMetrics());
+    }
+
+    public PostProcessor(int inferSize, float commonThres, float personThres, DetectorMetrics metrics) {
+        this(inferSize, commonThres, personThres, metrics, null);
+    }
+
+    public PostProcessor(int inferSize, float commonThres, float personThres, DetectorMetrics metrics, ForkJoinPool pool) {
+        this.inferSize = inferSize;
+        this.commonThres = commonThres;
+        this.personThres = personThres;
+        this.metrics = metrics;
+        this.pool = pool;
+    }
+
+    /**
+     * Override the confidence thresholds of some classes, see {@link #parseClasses}.
+     * To be set before processing.
+     *
+     * @param classThres threshold per class id, NaN to keep the defaults of a class; null for none
+     */
+    public void setClassThresholds(float[] classThres) {
+        this.classThres = classThres == null ? null : classThres.clone();
+    }
+
+    /**
+     * Bound the work per image whatever the number of raw detections. To be set before processing.
+     *
+     * @param maxCandidates raw detections passing the thresholds that are kept, highest scores first
+     * @param maxDetections instances returned at most (a few less if some end up too small)
+     */
+    public void setLimits(int maxCandidates, int maxDetections) {
+        this.maxCandidates = Math.max(1, maxCandidates);
+        this.maxDetections = Math.max(1, maxDetections);
+    }
+
+    /**
+     * {@link #process(int[][], float[], long[], float[], int, int, int, int, int, boolean)} over per-mask arrays.
+     *
+     * @param masks (n, inferSize, inferSize) mask probabilities
+     */
+    public Result process(int[][] boxes, float[] scores, long[] labels, float[][][] masks, int origWidth, int origHeight, int padX, int padY) {
+        return process(boxes, scores, labels, flatten(masks), 0, origWidth, origHeight, padX, padY, true);
+    }
+
+    /**
+     * Filter, merge and rescale raw detections.
+     * Note: boxes are modified in place.
+     *
+     * @param boxes  (n, 4) boxes in infer coordinates - [x1, y1, x2, y2]
+     * @param scores (n) confidence scores
+     * @param labels (n) class ids
+     * @param masks  (n, inferSize, inferSize) mask probabilities, flat row-major from masksOffset; only the
+     *               boxes of the candidates passing the score thresholds are read (may be null if none does)
+     * @param withMasks false to return boxes only (masks are still used to reduce redundant boxes)
+     */
+    public Result process(final int[][] boxes, float[] scores, long[] labels, final float[] masks, final int masksOffset, int origWidth, int origHeight, int padX, int padY,
+                          boolean withMasks) {
+        long startTime = metrics.start();
+        long startAllocated = metrics.startAllocated();
+        int n = boxes.length;
+        final boolean[] isSkipped = new boolean[n];
+
+        // 1. Filter our low score boxes
+        for (int i = 0; i < n; i++) {
+            if (isCandidate(scores[i], labels[i]))
+                continue;
+            isSkipped[i] = true;
+        }
+
+        // 2. Normalize box coordinates (between 0 and infer size - 1)
+        for (int i = 0; i < n; i++) {
+            if (isSkipped[i])
+                continue;
+
+            int x1 = boxes[i][0];
+            int y1 = boxes[i][1];
+            int x2 = boxes[i][2];
+            int y2 = boxes[i][3];
+
+            if (x1 >= x2 || y1 >= y2) {
+                isSkipped[i] = true;
+                continue;
+            }
+
+            x1 = Math.min(Math.max(padX, x1), inferSize - 1 - padX);
+            y1 = Math.min(Math.max(padY, y1), inferSize - 1 - padY);
+            x2 = Math.min(Math.max(padX, x2), inferSize - 1 - padX);
+            y2 = Math.min(Math.max(padY, y2), inferSize - 1 - padY);
+
+            boxes[i][0] = x1; boxes[i][1] = y1; boxes[i][2] = x2; boxes[i][3] = y2;
+        }
+
+        // 3. Reduce redundant boxes: NMS + Merged overlapping boxes
+        // keep the top candidates only, visited by descending score
+        final int[] order = rankCandidates(scores, isSkipped, maxCandidates);
+        Arrays.fill(isSkipped, true);
+        for (int i : order) {
+            isSkipped[i] = false;
+        }
+
+        // binarize every remaining mask once, inside its own box
+        final int maskStride = inferSize * inferSize;
+        final BinaryMask[] binMasks = new BinaryMask[n];
+        forEach(order.length, new IndexTask() {
+            @Override
+            public void run(int r) {
+                int i = order[r];
+                binMasks[i] = BinaryMask.fromProbabilities(masks, masksOffset + i * maskStride, inferSize,
+                        boxes[i][0], boxes[i][1], boxes[i][2], boxes[i][3]);
+            }
+        });
+
+        final HashMap<Integer, ArrayList<Integer>> mergeDict = new HashMap<>();
+        for (int i : order) {
+            mergeDict.put(i, new ArrayList<Integer>());
+        }
+
+        // only pairs of intersecting boxes can pass the IoU / overlap conditions; indexed by rank so
+        // that every candidate meets the lower-scored ones after it
+        int[][] rankedBoxes = new int[order.length][];
+        for (int r = 0; r < order.length; r++) {
+            rankedBoxes[r] = boxes[order[r]];
+        }
+        BoxIndex boxIndex = new BoxIndex(rankedBoxes, new boolean[order.length]);
+        int keptCount = 0;
+        for (int r = 0; r < order.length; r++) {
+            int i = order[r];
+            if (isSkipped[i]) {
+                continue;
+            }
+            if (keptCount == maxDetections) {
+                // not redundant with any of the instances kept so far, just too low in score
+                isSkipped[i] = true;
+                mergeDict.remove(i);
+                continue;
+            }
+            int[] box1 = boxes[i];
+
+            for (int s : boxIndex.laterNeighbors(r)) {
+                int j = order[s];
+                if (isSkipped[j]) {
+                    continue;
+                }
+                int[] box2 = boxes[j];
+
+                float boxIoU = calcBoxIoU(box1, box2);
+                float maskInter = binMasks[i].intersection(binMasks[j]);
+                if (isRedundant(boxIoU, maskInter, binMasks[i].area, binMasks[j].area, labels[i] == labels[j])) {
+                    if (scores[i] > scores[j]) {
+                        isSkipped[j] = true;
+                        mergeDict.get(i).add(j); mergeDict.get(i).addAll(mergeDict.get(j));
+                        mergeDict.remove(j);
+                    } else {
+                        isSkipped[i] = true;
+                        mergeDict.get(j).add(i); mergeDict.get(j).addAll(mergeDict.get(i));
+                        mergeDict.remove(i);
+                    }
+                }
+
+                if (isSkipped[i]) {
+                    break;
+                }
+            }
+            // only earlier (higher scored) candidates can absorb i, so it is final now
+            if (!isSkipped[i]) {
+                keptCount++;
+            }
+        }
+
+        // 4. Merge boxes (masks are merged while binarizing the kept ones, see step 5)
+        for (int i = 0; i < n; i++) {
+            if (isSkipped[i] || !mergeDict.containsKey(i)) {
+                continue;
+            }
+
+            int[] curBox = boxes[i];
+            for (int j = 0; j < mergeDict.get(i).size(); j++) {
+                int[] box2 = boxes[mergeDict.get(i).get(j)];
+                curBox[0] = Math.min(curBox[0], box2[0]);
+                curBox[1] = Math.min(curBox[1], box2[1]);
+                curBox[2] = Math.max(curBox[2], box2[2]);
+                curBox[3] = Math.max(curBox[3], box2[3]);
+            }
+        }
+
+        metrics.record(DetectorMetrics.Stage.NMS_MERGE, startTime, startAllocated);
+        startTime = metrics.start();
+        startAllocated = metrics.startAllocated();
+
+        // 5. Refine boxes coordinates
+        final ArrayList<Integer> kept = new ArrayList<>();
+        final ArrayList<int[]> keptBoxes = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (isSkipped[i]) {
+                continue;
+            }
+
+            // actual box coordinates
+            int x1 = boxes[i][0];
+            int y1 = boxes[i][1];
+            int x2 = boxes[i][2];
+            int y2 = boxes[i][3];
+            int actualX1 = (int) ((x1 - padX) / (float) (inferSize - padX * 2) * origWidth);
+            int actualY1 = (int) ((y1 - padY) / (float) (inferSize - padY * 2) * origHeight);
+            int actualX2 = (int) ((x2 - padX) / (float) (inferSize - padX * 2) * origWidth);
+            int actualY2 = (int) ((y2 - padY) / (float) (inferSize - padY * 2) * origHeight);
+            // check box size (an empty side can not hold a mask either)
+            if ((actualX2 - actualX1 + 1) + (actualY2 - actualY1 + 1) < BOX_THRES
+                    || actualX2 <= actualX1 || actualY2 <= actualY1)
+                continue;
+
+            kept.add(i);
+            keptBoxes.add(new int[]{actualX1, actualY1, actualX2, actualY2});
+        }
+
+        int m = kept.size();
+        int[][] finalBoxes = new int[m][];
+        final InstanceMask[] finalMasks = withMasks ? new InstanceMask[m] : null;
+        float[] finalScores = new float[m];
+        int[] finalLabels = new int[m];
+        for (int k = 0; k < m; k++) {
+            int i = kept.get(k);
+            finalBoxes[k] = keptBoxes.get(k);
+            finalScores[k] = scores[i];
+            finalLabels[k] = (int) labels[i];
+        }
+
+        if (withMasks) {
+            forEach(m, new IndexTask() {
+                @Override
+                public void run(int k) {
+                    // binarize the merged mask inside the merged box, scaled to the final box on demand
+                    int i = kept.get(k);
+                    int[] box = boxes[i];
+                    int[] actualBox = keptBoxes.get(k);
+                    ArrayList<Integer> members = mergeDict.get(i);
+                    int[] memberOffsets = new int[members.size()];
+                    int[][] memberBoxes = new int[members.size()][];
+                    for (int j = 0; j < members.size(); j++) {
+                        memberOffsets[j] = masksOffset + members.get(j) * maskStride;
+                        memberBoxes[j] = boxes[members.get(j)];
+                    }
+                    BinaryMask roi = BinaryMask.fromMerged(masks, inferSize, masksOffset + i * maskStride, memberOffsets, memberBoxes,
+                            box[0], box[1], box[2], box[3]);
+                    finalMasks[k] = new InstanceMask(roi, actualBox[2] - actualBox[0], actualBox[3] - actualBox[1]);
+                }
+            });
+        }
+
+        metrics.record(DetectorMetrics.Stage.MASK_RENDER, startTime, startAllocated);
+        metrics.recordDetections(n, m);
+        return new Result(finalBoxes, finalMasks, finalScores, finalLabels);
+    }
+
+    // per-instance step of process(), i being the index of the instance
+    private interface IndexTask {
+        void run(int i);
+    }
+
+    // run task for 0 <= i < n, on the pool if there are enough instances to split
+    private void forEach(int n, IndexTask task) {
+        if (pool == null || n < 2 * MIN_BATCH) {
+            for (int i = 0; i < n; i++) {
+                task.run(i);
+            }
+        } else {
+            pool.invoke(new Batch(task, 0, n));
+        }
+    }
+
+    private static class Batch extends RecursiveAction {
+        private final IndexTask task;
+        private final int start, end;
+
+        Batch(IndexTask task, int start, int end) {
+            this.task = task;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > 2 * MIN_BATCH) {
+                int mid = (start + end) >>> 1;
+                invokeAll(new Batch(task, start, mid), new Batch(task, mid, end));
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                task.run(i);
+            }
+        }
+    }
+
+    /**
+     * Merge condition of two detections: same object by box and mask IoU, or one mask mostly
+     * covered by the other one of the same class.
+     */
+    static boolean isRedundant(float boxIoU, float maskInter, float mask1Area, float mask2Area, boolean sameLabel) {
+        // calculate mask IoU and overlap
+        float maskUnion = mask1Area + mask2Area - maskInter + EPS;
+        float mask1Overlap = (float) (maskInter / ((float) mask1Area + EPS));
+        float mask2Overlap = (float) (maskInter / ((float) mask2Area + EPS));
+
+        // check condition
+        return (boxIoU > BOX_IOU_THRES && (float) maskInter / ((float) maskUnion + 1e-6) > MASK_IOU_THRES) ||
+                (sameLabel && (Math.max(mask1Overlap, mask2Overlap) > OVERLAP_THRES));
+    }
+
+    /**
+     * @return whether a raw detection passes the score thresholds (the others are dropped first)
+     */
+    public boolean isCandidate(float score, long label) {
+        float[] thresholds = classThres;
+        if (thresholds != null && label >= 0 && label < thresholds.length && !Float.isNaN(thresholds[(int) label])) {
+            return score >= thresholds[(int) label];
+        }
+        return score >= commonThres || (label == 0 && score >= personThres);
+    }
+
+    /**
+     * Split the lines of a classes file, "name" or "name,threshold", into the class names (by class
+     * id) and the thresholds for {@link #setClassThresholds} (NaN where a line has none).
+     */
+    public static float[] parseClasses(List<String> lines, List<String> names) {
+        float[] thresholds = new float[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            thresholds[i] = Float.NaN;
+            int comma = line.lastIndexOf(',');
+            if (comma >= 0) {
+                try {
+                    thresholds[i] = Float.parseFloat(line.substring(comma + 1).trim());
+                    line = line.substring(0, comma).trim();
+                } catch (NumberFormatException e) {
+                    // a comma in the name
+                }
+            }
+            names.add(line);
+        }
+        return thresholds;
+    }
+
+    /**
+     * @return indices of the detections not skipped, by descending score (ties by index), the
+     * first k only; selected with a bounded heap so that only k of them are ever sorted
+     */
+    static int[] rankCandidates(float[] scores, boolean[] isSkipped, int k) {
+        // key: descending score in the high half, index in the low half, so that smaller is better
+        long[] heap = new long[Math.min(k, scores.length)];    // max-heap of the best keys so far
+        int size = 0;
+        for (int i = 0; i < scores.length; i++) {
+            if (isSkipped[i]) {
+                continue;
+            }
+            long key = rankKey(scores[i], i);
+            if (size < heap.length) {
+                // sift up
+                int c = size++;
+                while (c > 0 && heap[(c - 1) >>> 1] < key) {
+                    heap[c] = heap[(c - 1) >>> 1];
+                    c = (c - 1) >>> 1;
+                }
+                heap[c] = key;
+            } else if (size > 0 && key < heap[0]) {
+                // replace the worst kept key, sift down
+                int c = 0;
+                while (true) {
+                    int child = 2 * c + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && heap[child + 1] > heap[child]) {
+                        child++;
+                    }
+                    if (heap[child] <= key) {
+                        break;
+                    }
+                    heap[c] = heap[child];
+                    c = child;
+                }
+                heap[c] = key;
+            }
+        }
+        Arrays.sort(heap, 0, size);
+        int[] order = new int[size];
+        for (int r = 0; r < size; r++) {
+            order[r] = (int) heap[r];
+        }
+        return order;
+    }
+
+    private static long rankKey(float score, int index) {
+        int bits = Float.floatToIntBits(score);
+        bits ^= (bits >> 31) & 0x7FFFFFFF;  // ordered as the floats, as signed ints
+        return (long) ~bits << 32 | index;
+    }
+
+    /**
+     * @return (n, h, w) masks as one flat row-major array
+     */
+    static float[] flatten(float[][][] masks) {
+        if (masks.length == 0) {
+            return new float[0];
+        }
+        int height = masks[0].length;
+        int width = masks[0][0].length;
+        float[] flat = new float[masks.length * height * width];
+        for (int i = 0; i < masks.length; i++) {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(masks[i][y], 0, flat, (i * height + y) * width, width);
+            }
+        }
+        return flat;
+    }
+
+    static float calcBoxIoU(int[] box1, int[] box2) {
+        int x1 = Math.max(box1[0], box2[0]);
+        int y1 = Math.max(box1[1], box2[1]);
+        int x2 = Math.min(box1[2], box2[2]);
+        int y2 = Math.min(box1[3], box2[3]);
+        float inter = Math.max(0, x2 - x1 + 1) * Math.max(0, y2 - y1 + 1);
+        if (inter == 0) {
+            return 0;
+        }
+        float area1 = (box1[2] - box1[0] + 1) * (box1[3] - box1[1] + 1);
+        float area2 = (box2[2] - box2[0] + 1) * (box2[3] - box2[1] + 1);
+        return inter / (area1 + area2 - inter);
+    }
+
+    /**
+     * Round the region [x1, x2) x [y1, y2) of the mask at offset (row stride stride) to 0/1 bytes.
+     */
+    static byte[] cropMask(float[] masks, int offset, int stride, int x1, int y1, int x2, int y2) {
+        int maskHeight = y2 - y1;
+        int maskWidth = x2 - x1;
+        byte[] maskCrop = new byte[maskHeight * maskWidth];
+        int idx = 0;
+        for (int i = 0; i < maskHeight; i++) {
+            for (int j = 0; j < maskWidth; j++) {
+                maskCrop[idx++] = (byte) Math.round(masks[offset + (y1 + i) * stride + x1 + j]);
+            }
+        }
+        return maskCrop;
+    }
+
+    /**
+     * Nearest-neighbour scaling, sampling at pixel centers like
+     * {@code Bitmap.createScaledBitmap(src, newWidth, newHeight, false)}.
+     */
+    static byte[] scaleMask(byte[] mask, int width, int height, int newWidth, int newHeight) {
+        byte[] scaled = new byte[newWidth * newHeight];
+        int[] srcX = new int[newWidth];
+        for (int x = 0; x < newWidth; x++) {
+            srcX[x] = Math.min((int) ((x + 0.5F) * width / newWidth), width - 1);
+        }
+        int idx = 0;
+        for (int y = 0; y < newHeight; y++) {
+            int srcRow = Math.min((int) ((y + 0.5F) * height / newHeight), height - 1) * width;
+            for (int x = 0; x < newWidth; x++) {
+                scaled[idx++] = mask[srcRow + srcX[x]];
+            }
+        }
+        return scaled;
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+/**
+ * Picks the fastest {@link SessionProfile} by timing each candidate on a warm-up input, and caches
+ * the choice in a properties file so later launches skip the measurement.
+ */
+public class ProfileTuner {
+
+    /**
+     * One candidate set up for timing, e.g. a session and its input.
+     */
+    public interface Trial extends AutoCloseable {
+        void runOnce() throws Exception;
+
+        @Override
+        void close();
+    }
+
+    public interface TrialFactory {
+        /**
+         * @throws Exception if the profile is not usable here (e.g. provider not available)
+         */
+        Trial open(SessionProfile profile) throws Exception;
+    }
+
+    private final TrialFactory trialFactory;
+    private final int warmUpRuns;
+    private final int timedRuns;
+    private final LinkedHashMap<String, Long> medians = new LinkedHashMap<>();
+
+    public ProfileTuner(TrialFactory trialFactory, int warmUpRuns, int timedRuns) {
+        this.trialFactory = trialFactory;
+        this.warmUpRuns = warmUpRuns;
+        this.timedRuns = Math.max(1, timedRuns);
+    }
+
+    /**
+     * @return the candidate with the lowest median latency, or null if none could run
+     */
+    public SessionProfile tune(List<SessionProfile> candidates) {
+        medians.clear();
+        SessionProfile best = null;
+        long bestNanos = Long.MAX_VALUE;
+        for (SessionProfile profile : candidates) {
+            long nanos = measure(profile);
+            if (nanos < 0) {
+                continue;
+            }
+            medians.put(profile.name, nanos);
+            if (nanos < bestNanos) {
+                bestNanos = nanos;
+                best = profile;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * {@link #tune(List)} once per cacheKey (e.g. model hash + device): the chosen profile name is
+     * stored in cacheFile and reused as long as it is one of the candidates.
+     */
+    public SessionProfile tune(List<SessionProfile> candidates, File cacheFile, String cacheKey) {
+        Properties cache = load(cacheFile);
+        String cachedName = cache.getProperty(cacheKey);
+        for (SessionProfile profile : candidates) {
+            if (profile.name.equals(cachedName)) {
+                return profile;
+            }
+        }
+
+        SessionProfile best = tune(candidates);
+        if (best != null) {
+            cache.setProperty(cacheKey, best.name);
+            store(cache, cacheFile);
+        }
+        return best;
+    }
+
+    /**
+     * @return median latency in nanoseconds of each candidate timed by the last tune, by profile name
+     */
+    public Map<String, Long> getMedians() {
+        return Collections.unmodifiableMap(medians);
+    }
+
+    // median latency of the profile, -1 if it can not run
+    private long measure(SessionProfile profile) {
+        try (Trial trial = trialFactory.open(profile)) {
+            for (int i = 0; i < warmUpRuns; i++) {
+                trial.runOnce();
+            }
+            long[] nanos = new long[timedRuns];
+            for (int i = 0; i < timedRuns; i++) {
+                long startTime = System.nanoTime();
+                trial.runOnce();
+                nanos[i] = System.nanoTime() - startTime;
+            }
+            Arrays.sort(nanos);
+            return nanos[timedRuns / 2];
+        } catch (Exception e) {
+            System.out.println("[LOG] Profile " + profile.name + " skipped: " + e);
+            return -1;
+        }
+    }
+
+    private static Properties load(File file) {
+        Properties properties = new Properties();
+        if (file.isFile()) {
+            try (InputStream inputStream = new FileInputStream(file)) {
+                properties.load(inputStream);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return properties;
+    }
+
+    private static void store(Properties properties, File file) {
+        File parent = file.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            properties.store(outputStream, "fastest session profile per model and device");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Trials of real sessions of the model, run on an all-zero (1, 3, inferSize, inferSize) input.
+     */
+    public static TrialFactory sessionTrials(final OrtEnvironment ortEnv, final byte[] model, final int inferSize) {
+        return new TrialFactory() {
+            @Override
+            public Trial open(SessionProfile profile) throws OrtException {
+                final OrtSession session;
+                try (OrtSession.SessionOptions sessionOptions = profile.createOptions()) {
+                    session = ortEnv.createSession(model, sessionOptions);
+                }
+                FloatBuffer data = ByteBuffer.allocateDirect(3 * inferSize * inferSize * 4)
+                        .order(ByteOrder.nativeOrder())
+                        .asFloatBuffer();
+                final OnnxTensor tensor;
+                try {
+                    tensor = OnnxTensor.createTensor(ortEnv, data, new long[]{1, 3, inferSize, inferSize});
+                } catch (OrtException e) {
+                    session.close();
+                    throw e;
+                }
+                final Map<String, OnnxTensor> inputs = Collections.singletonMap(session.getInputNames().iterator().next(), tensor);
+                return new Trial() {
+                    @Override
+                    public void runOnce() throws OrtException {
+                        session.run(inputs).close();
+                    }
+
+                    @Override
+                    public void close() {
+                        tensor.close();
+                        try {
+                            session.close();
+                        } catch (OrtException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                };
+            }
+        };
+    }
+}
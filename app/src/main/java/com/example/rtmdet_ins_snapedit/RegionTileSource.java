@@ -0,0 +1,71 @@
+package com.example.rtmdet_ins_snapedit;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Tiles decoded on demand from an encoded image (JPEG, PNG, WebP), only one region in memory at a time.
+ * Note: the EXIF orientation is not applied, tiles are in stored pixel order.
+ */
+public class RegionTileSource implements TileSource, AutoCloseable {
+    private final BitmapRegionDecoder decoder;
+    private final BitmapFactory.Options options = new BitmapFactory.Options();
+    private final Rect rect = new Rect();
+    private Bitmap reusable;    // last tile, decoded into again when the next one has the same size
+
+    public RegionTileSource(BitmapRegionDecoder decoder) {
+        this.decoder = decoder;
+        this.options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    }
+
+    public static RegionTileSource open(ContentResolver contentResolver, Uri uri) throws IOException {
+        try (InputStream inputStream = contentResolver.openInputStream(uri)) {
+            if (inputStream == null) {
+                throw new IOException("can not open " + uri);
+            }
+            return new RegionTileSource(BitmapRegionDecoder.newInstance(inputStream, false));
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return decoder.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return decoder.getHeight();
+    }
+
+    @Override
+    public synchronized void read(int x, int y, int width, int height, int[] pixels) throws IOException {
+        rect.set(x, y, x + width, y + height);
+        boolean reuse = reusable != null && reusable.getWidth() == width && reusable.getHeight() == height;
+        options.inBitmap = reuse ? reusable : null;
+        Bitmap tile = decoder.decodeRegion(rect, options);
+        if (tile == null) {
+            throw new IOException("can not decode region " + rect);
+        }
+        tile.getPixels(pixels, 0, width, 0, 0, width, height);
+        if (reusable != null && reusable != tile) {
+            reusable.recycle();
+        }
+        reusable = tile;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (reusable != null) {
+            reusable.recycle();
+            reusable = null;
+        }
+        decoder.recycle();
+    }
+}
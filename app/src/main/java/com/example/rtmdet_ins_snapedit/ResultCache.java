@@ -0,0 +1,153 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Detection results keyed by a hash of the input pixels and of the detector configuration, so that
+ * running the same photo again (repeated taps, undo / redo) costs a lookup instead of an inference.
+ * Least recently used entries are evicted once the estimated size of the values, masks included,
+ * exceeds the budget. Thread-safe.
+ *
+ * @param <V> cached result
+ */
+public class ResultCache<V> {
+
+    public interface Weigher<V> {
+        /**
+         * @return approximate heap size of value
+         */
+        long bytes(V value);
+    }
+
+    /**
+     * Streaming 128-bit content hash (two independent 64-bit multiply-xorshift lanes), fast enough
+     * to run over every pixel of a photo on each request. Not cryptographic.
+     */
+    public static class ContentHash {
+        private long h1 = 0x9E3779B97F4A7C15L;
+        private long h2 = 0xC2B2AE3D27D4EB4FL;
+        private long count;
+
+        public ContentHash update(int[] values, int offset, int length) {
+            long a = h1, b = h2;
+            for (int i = offset; i < offset + length; i++) {
+                int value = values[i];
+                a = (a ^ value) * 0x100000001B3L;
+                a ^= a >>> 29;
+                b = (b + value) * 0xFF51AFD7ED558CCDL;
+                b ^= b >>> 32;
+            }
+            h1 = a;
+            h2 = b;
+            count += length;
+            return this;
+        }
+
+        public ContentHash update(int value) {
+            return update(new int[]{value}, 0, 1);
+        }
+
+        public ContentHash update(String text) {
+            int[] chars = new int[text.length()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = text.charAt(i);
+            }
+            return update(chars, 0, chars.length).update(chars.length);
+        }
+
+        /**
+         * @return hex digest of everything hashed so far
+         */
+        public String digest() {
+            return String.format("%016x%016x", mix(h1 ^ count), mix(h2 + count));
+        }
+
+        private static long mix(long h) {
+            h = (h ^ h >>> 33) * 0xFF51AFD7ED558CCDL;
+            h = (h ^ h >>> 33) * 0xC4CEB9FE1A85EC53L;
+            return h ^ h >>> 33;
+        }
+    }
+
+    private final long maxBytes;
+    private final Weigher<V> weigher;
+    private final LinkedHashMap<String, V> entries = new LinkedHashMap<>(16, 0.75F, true);  // access order: eldest is least recently used
+    private final HashMap<String, Long> sizes = new HashMap<>();
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    public ResultCache(long maxBytes, Weigher<V> weigher) {
+        this.maxBytes = maxBytes;
+        this.weigher = weigher;
+    }
+
+    /**
+     * @return cached value, or null
+     */
+    public synchronized V get(String key) {
+        V value = entries.get(key);
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    /**
+     * Cache value, evicting the least recently used entries to stay within the budget.
+     * A value larger than the whole budget is not cached.
+     */
+    public synchronized void put(String key, V value) {
+        remove(key);
+        long size = weigher.bytes(value);
+        if (size > maxBytes) {
+            return;
+        }
+        entries.put(key, value);
+        sizes.put(key, size);
+        bytes += size;
+
+        Iterator<Map.Entry<String, V>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            String evicted = eldest.next().getKey();
+            eldest.remove();
+            bytes -= sizes.remove(evicted);
+        }
+    }
+
+    public synchronized void remove(String key) {
+        if (entries.remove(key) != null) {
+            bytes -= sizes.remove(key);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        sizes.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return estimated size of the cached values
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,309 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads back the records of {@link ResultWriter}, one image at a time. Masks are decoded into
+ * box-local bit-packed masks at original resolution.
+ */
+public class ResultReader implements Closeable {
+
+    public static class Record {
+        public final String imageId;
+        public final int imageWidth;
+        public final int imageHeight;
+        public final ObjectDetector.DetectionResult result;
+
+        Record(String imageId, int imageWidth, int imageHeight, ObjectDetector.DetectionResult result) {
+            this.imageId = imageId;
+            this.imageWidth = imageWidth;
+            this.imageHeight = imageHeight;
+            this.result = result;
+        }
+    }
+
+    private final ResultWriter.Format format;
+    private final Map<Integer, String> classMapping;
+    private DataInputStream binary;
+    private BufferedReader json;
+
+    /**
+     * @param classMapping class id -> label, as {@link ObjectDetector#getClassMapping()}
+     */
+    public ResultReader(InputStream in, ResultWriter.Format format, Map<Integer, String> classMapping) throws IOException {
+        this.format = format;
+        this.classMapping = classMapping;
+        if (format == ResultWriter.Format.BINARY) {
+            binary = new DataInputStream(new BufferedInputStream(in));
+            if (binary.readInt() != ResultWriter.MAGIC) {
+                throw new IOException("Not a result stream");
+            }
+            int version = binary.readUnsignedByte();
+            if (version != ResultWriter.VERSION) {
+                throw new IOException("Unsupported result stream version " + version);
+            }
+        } else {
+            json = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * @return next record, or null at the end of the stream
+     */
+    public Record read() throws IOException {
+        return format == ResultWriter.Format.BINARY ? readBinary() : readJson();
+    }
+
+    private Record readBinary() throws IOException {
+        int tag = binary.read();
+        if (tag == -1) {
+            return null;
+        }
+        if (tag != ResultWriter.RECORD) {
+            throw new IOException("Corrupted result stream");
+        }
+        String imageId = binary.readUTF();
+        int imageWidth = readVarint();
+        int imageHeight = readVarint();
+        int n = readVarint();
+        boolean hasMasks = binary.readBoolean();
+        ObjectDetector.DetectionResult result = newResult(n, hasMasks);
+        for (int i = 0; i < n; i++) {
+            int[] box = new int[4];
+            for (int k = 0; k < 4; k++) {
+                int zigzag = readVarint();
+                box[k] = zigzag >>> 1 ^ -(zigzag & 1);
+            }
+            float score = binary.readFloat();
+            int classId = readVarint() - 1;
+            InstanceMask mask = null;
+            if (hasMasks) {
+                int[] counts = new int[readVarint()];
+                for (int k = 0; k < counts.length; k++) {
+                    counts[k] = readVarint();
+                }
+                mask = MaskRle.decode(counts, imageHeight, box[0], box[1], box[2], box[3]);
+            }
+            add(result, box, mask, score, classId);
+        }
+        return new Record(imageId, imageWidth, imageHeight, result);
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = binary.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Record readJson() throws IOException {
+        String line = json.readLine();
+        while (line != null && line.trim().isEmpty()) {
+            line = json.readLine();
+        }
+        if (line == null) {
+            return null;
+        }
+        Map<String, Object> record = (Map<String, Object>) new JsonParser(line).parse();
+        String imageId = (String) record.get("image_id");
+        int imageWidth = ((Number) record.get("width")).intValue();
+        int imageHeight = ((Number) record.get("height")).intValue();
+        List<Object> instances = (List<Object>) record.get("instances");
+        boolean hasMasks = instances.isEmpty() || ((Map<String, Object>) instances.get(0)).containsKey("segmentation");
+        ObjectDetector.DetectionResult result = newResult(instances.size(), hasMasks);
+        for (Object item : instances) {
+            Map<String, Object> instance = (Map<String, Object>) item;
+            List<Object> bbox = (List<Object>) instance.get("bbox");
+            int x = ((Number) bbox.get(0)).intValue(), y = ((Number) bbox.get(1)).intValue();
+            int[] box = {x, y, x + ((Number) bbox.get(2)).intValue(), y + ((Number) bbox.get(3)).intValue()};
+            InstanceMask mask = null;
+            if (hasMasks) {
+                Map<String, Object> segmentation = (Map<String, Object>) instance.get("segmentation");
+                int[] counts = MaskRle.fromString((String) segmentation.get("counts"));
+                mask = MaskRle.decode(counts, imageHeight, box[0], box[1], box[2], box[3]);
+            }
+            add(result, box, mask, ((Number) instance.get("score")).floatValue(),
+                    ((Number) instance.get("category_id")).intValue());
+        }
+        return new Record(imageId, imageWidth, imageHeight, result);
+    }
+
+    private static ObjectDetector.DetectionResult newResult(int n, boolean hasMasks) {
+        return new ObjectDetector.DetectionResult(new ArrayList<int[]>(n), hasMasks ? new ArrayList<InstanceMask>(n) : null,
+                new ArrayList<Float>(n), new ArrayList<String>(n));
+    }
+
+    private void add(ObjectDetector.DetectionResult result, int[] box, InstanceMask mask, float score, int classId) {
+        result.boxes.add(box);
+        if (result.masks != null) {
+            result.masks.add(mask);
+        }
+        result.scores.add(score);
+        result.labels.add(classMapping.get(classId));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (binary != null) {
+            binary.close();
+        } else {
+            json.close();
+        }
+    }
+
+    // just enough JSON for the records of ResultWriter: objects, arrays, numbers, strings, literals
+    private static class JsonParser {
+        private final String text;
+        private int pos;
+
+        JsonParser(String text) {
+            this.text = text;
+        }
+
+        Object parse() throws IOException {
+            Object value = value();
+            skipSpaces();
+            if (pos != text.length()) {
+                throw error();
+            }
+            return value;
+        }
+
+        private Object value() throws IOException {
+            skipSpaces();
+            if (pos >= text.length()) {
+                throw error();
+            }
+            char c = text.charAt(pos);
+            if (c == '{') {
+                HashMap<String, Object> object = new HashMap<>();
+                pos++;
+                skipSpaces();
+                if (peek('}')) {
+                    return object;
+                }
+                do {
+                    skipSpaces();
+                    String key = string();
+                    skipSpaces();
+                    expect(':');
+                    object.put(key, value());
+                    skipSpaces();
+                } while (peek(','));
+                expect('}');
+                return object;
+            }
+            if (c == '[') {
+                ArrayList<Object> array = new ArrayList<>();
+                pos++;
+                skipSpaces();
+                if (peek(']')) {
+                    return array;
+                }
+                do {
+                    array.add(value());
+                    skipSpaces();
+                } while (peek(','));
+                expect(']');
+                return array;
+            }
+            if (c == '"') {
+                return string();
+            }
+            if (text.startsWith("true", pos)) {
+                pos += 4;
+                return Boolean.TRUE;
+            }
+            if (text.startsWith("false", pos)) {
+                pos += 5;
+                return Boolean.FALSE;
+            }
+            if (text.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            }
+            int start = pos;
+            while (pos < text.length() && "+-.eE0123456789".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            try {
+                return Double.parseDouble(text.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw error();
+            }
+        }
+
+        private String string() throws IOException {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c == '\\' && pos < text.length()) {
+                    char escaped = text.charAt(pos++);
+                    switch (escaped) {
+                        case 'n': value.append('\n'); break;
+                        case 't': value.append('\t'); break;
+                        case 'r': value.append('\r'); break;
+                        case 'b': value.append('\b'); break;
+                        case 'f': value.append('\f'); break;
+                        case 'u':
+                            if (pos + 4 > text.length()) {
+                                throw error();
+                            }
+                            value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                            pos += 4;
+                            break;
+                        default: value.append(escaped);
+                    }
+                } else {
+                    value.append(c);
+                }
+            }
+            throw error();
+        }
+
+        private boolean peek(char c) {
+            if (pos < text.length() && text.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) throws IOException {
+            if (!peek(c)) {
+                throw error();
+            }
+        }
+
+        private void skipSpaces() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IOException error() {
+            return new IOException("Malformed JSON at " + pos);
+        }
+    }
+}
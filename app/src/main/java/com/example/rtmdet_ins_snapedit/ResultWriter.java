@@ -0,0 +1,157 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming serializer of detection results, one record per image, for uploads and batch jobs:
+ * image id, boxes, scores, class ids and COCO RLE masks at original resolution (see {@link MaskRle}),
+ * encoded from the lazy masks without rendering them. No Android classes, so batch jobs on a
+ * desktop JVM write the same records. Read back with {@link ResultReader}.
+ * <ul>
+ * <li>{@link Format#BINARY}: header "RTMR" + version, then per record the image id (modified
+ * UTF-8), unsigned LEB128 varints (boxes zigzag-encoded) and raw float scores; masks as varint
+ * run lengths.</li>
+ * <li>{@link Format#JSON_LINES}: one JSON object per line, instances in the COCO results layout
+ * (bbox as [x, y, width, height], segmentation as compressed RLE).</li>
+ * </ul>
+ */
+public class ResultWriter implements Closeable {
+
+    public enum Format {
+        BINARY,
+        JSON_LINES
+    }
+
+    static final int MAGIC = 0x52544D52;    // "RTMR"
+    static final int VERSION = 1;
+    static final int RECORD = 1;            // tag in front of every binary record
+
+    private final Format format;
+    private DataOutputStream binary;
+    private Writer json;
+
+    public ResultWriter(OutputStream out, Format format) throws IOException {
+        this.format = format;
+        if (format == Format.BINARY) {
+            binary = new DataOutputStream(new BufferedOutputStream(out));
+            binary.writeInt(MAGIC);
+            binary.writeByte(VERSION);
+        } else {
+            json = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Append the result of an imageWidth x imageHeight image, labels being class ids
+     * (see {@link ObjectDetector#toClassIds}).
+     *
+     * @param imageId e.g. the file name, empty if not needed
+     */
+    public void write(String imageId, PostProcessor.Result result, int imageWidth, int imageHeight) throws IOException {
+        if (format == Format.BINARY) {
+            writeBinary(imageId, result, imageWidth, imageHeight);
+        } else {
+            writeJson(imageId, result, imageWidth, imageHeight);
+        }
+    }
+
+    private void writeBinary(String imageId, PostProcessor.Result result, int imageWidth, int imageHeight) throws IOException {
+        int n = result.size();
+        binary.writeByte(RECORD);
+        binary.writeUTF(imageId);
+        writeVarint(imageWidth);
+        writeVarint(imageHeight);
+        writeVarint(n);
+        binary.writeBoolean(result.masks != null);
+        for (int i = 0; i < n; i++) {
+            int[] box = result.boxes[i];
+            for (int k = 0; k < 4; k++) {
+                writeVarint(box[k] << 1 ^ box[k] >> 31);
+            }
+            binary.writeFloat(result.scores[i]);
+            writeVarint(result.labels[i] + 1);
+            if (result.masks != null) {
+                int[] counts = MaskRle.encode(result.masks[i], box[0], box[1], imageWidth, imageHeight);
+                writeVarint(counts.length);
+                for (int count : counts) {
+                    writeVarint(count);
+                }
+            }
+        }
+    }
+
+    private void writeVarint(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            binary.writeByte(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        binary.writeByte(value);
+    }
+
+    private void writeJson(String imageId, PostProcessor.Result result, int imageWidth, int imageHeight) throws IOException {
+        StringBuilder line = new StringBuilder();
+        line.append("{\"image_id\":");
+        appendString(line, imageId);
+        line.append(",\"width\":").append(imageWidth).append(",\"height\":").append(imageHeight).append(",\"instances\":[");
+        for (int i = 0; i < result.size(); i++) {
+            int[] box = result.boxes[i];
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append("{\"bbox\":[").append(box[0]).append(',').append(box[1]).append(',')
+                    .append(box[2] - box[0]).append(',').append(box[3] - box[1]).append(']');
+            line.append(",\"score\":").append(result.scores[i]);
+            line.append(",\"category_id\":").append(result.labels[i]);
+            if (result.masks != null) {
+                int[] counts = MaskRle.encode(result.masks[i], box[0], box[1], imageWidth, imageHeight);
+                line.append(",\"segmentation\":{\"size\":[").append(imageHeight).append(',').append(imageWidth)
+                        .append("],\"counts\":");
+                appendString(line, MaskRle.toString(counts));
+                line.append('}');
+            }
+            line.append('}');
+        }
+        line.append("]}\n");
+        json.write(line.toString());
+    }
+
+    private static void appendString(StringBuilder line, String text) {
+        line.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    public void flush() throws IOException {
+        if (binary != null) {
+            binary.flush();
+        } else {
+            json.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (binary != null) {
+            binary.close();
+        } else {
+            json.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.providers.NNAPIFlags;
+
+/**
+ * Session configuration of a detector: execution-provider chain, thread counts, graph optimization
+ * level and memory arena settings. No Android classes, so the CPU profiles also run on a desktop JVM.
+ */
+public class SessionProfile {
+
+    public enum Provider {
+        NNAPI,          // Android NNAPI, fp32
+        NNAPI_FP16,     // Android NNAPI, fp16 relaxed computation
+        XNNPACK,        // XNNPACK kernels on CPU
+        CPU             // default CPU kernels (always the final fallback)
+    }
+
+    public final String name;
+    public final List<Provider> providers;  // in priority order
+    public final int intraOpThreads;        // 0 for the runtime default
+    public final int interOpThreads;        // 0 for the runtime default
+    public final OrtSession.SessionOptions.OptLevel optLevel;
+    public final boolean cpuArena;
+    public final boolean memoryPattern;
+
+    public SessionProfile(String name, List<Provider> providers, int intraOpThreads, int interOpThreads,
+                          OrtSession.SessionOptions.OptLevel optLevel, boolean cpuArena, boolean memoryPattern) {
+        this.name = name;
+        this.providers = Collections.unmodifiableList(new ArrayList<>(providers));
+        this.intraOpThreads = intraOpThreads;
+        this.interOpThreads = interOpThreads;
+        this.optLevel = optLevel;
+        this.cpuArena = cpuArena;
+        this.memoryPattern = memoryPattern;
+    }
+
+    /**
+     * Previous fixed behavior: NNAPI with fp16 from Android 8.1 (API 27), runtime defaults otherwise.
+     *
+     * @param sdkInt Android SDK version, 0 off Android
+     */
+    public static SessionProfile defaults(int sdkInt) {
+        List<Provider> providers = sdkInt >= 27
+                ? Arrays.asList(Provider.NNAPI_FP16, Provider.CPU)
+                : Collections.singletonList(Provider.CPU);
+        return new SessionProfile("default", providers, 0, 0, OrtSession.SessionOptions.OptLevel.ALL_OPT, true, true);
+    }
+
+    /**
+     * Candidates for {@link ProfileTuner}: CPU and XNNPACK at a few thread counts, plus NNAPI if available.
+     *
+     * @param cores number of CPU cores to use at most
+     */
+    public static List<SessionProfile> candidates(int cores, boolean nnapiAvailable) {
+        OrtSession.SessionOptions.OptLevel all = OrtSession.SessionOptions.OptLevel.ALL_OPT;
+        ArrayList<SessionProfile> candidates = new ArrayList<>();
+        if (nnapiAvailable) {
+            candidates.add(new SessionProfile("nnapi-fp16", Arrays.asList(Provider.NNAPI_FP16, Provider.CPU), 0, 0, all, true, true));
+            candidates.add(new SessionProfile("nnapi", Arrays.asList(Provider.NNAPI, Provider.CPU), 0, 0, all, true, true));
+        }
+        ArrayList<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(Math.max(1, cores));
+        for (int threads : threadCounts) {
+            candidates.add(new SessionProfile("cpu-" + threads, Collections.singletonList(Provider.CPU), threads, 1, all, true, true));
+            candidates.add(new SessionProfile("xnnpack-" + threads, Arrays.asList(Provider.XNNPACK, Provider.CPU), threads, 1, all, true, true));
+        }
+        return candidates;
+    }
+
+    /**
+     * @return same profile with another intra-op thread count, e.g. a share of the cores per pooled session
+     */
+    public SessionProfile withIntraOpThreads(int threads) {
+        return new SessionProfile(name, providers, threads, interOpThreads, optLevel, cpuArena, memoryPattern);
+    }
+
+    public OrtSession.SessionOptions createOptions() throws OrtException {
+        OrtSession.SessionOptions sessionOptions = new OrtSession.SessionOptions();
+        sessionOptions.setOptimizationLevel(optLevel);
+        sessionOptions.setCPUArenaAllocator(cpuArena);
+        sessionOptions.setMemoryPatternOptimization(memoryPattern);
+        if (interOpThreads > 0) {
+            sessionOptions.setInterOpNumThreads(interOpThreads);
+        }
+
+        int sessionThreads = intraOpThreads;
+        for (Provider provider : providers) {
+            switch (provider) {
+                case NNAPI:
+                    sessionOptions.addNnapi(EnumSet.noneOf(NNAPIFlags.class));
+                    break;
+                case NNAPI_FP16:
+                    sessionOptions.addNnapi(EnumSet.of(NNAPIFlags.USE_FP16));
+                    break;
+                case XNNPACK:
+                    // XNNPACK runs its own thread pool: the session pool stays at one thread, not spinning
+                    Map<String, String> xnnpackOptions = new HashMap<>();
+                    if (intraOpThreads > 0) {
+                        xnnpackOptions.put("intra_op_num_threads", String.valueOf(intraOpThreads));
+                    }
+                    sessionOptions.addXnnpack(xnnpackOptions);
+                    sessionOptions.addConfigEntry("session.intra_op.allow_spinning", "0");
+                    sessionThreads = 1;
+                    break;
+                case CPU:
+                    break;
+            }
+        }
+        if (sessionThreads > 0) {
+            sessionOptions.setIntraOpNumThreads(sessionThreads);
+        }
+        return sessionOptions;
+    }
+
+    /**
+     * @return stable description of everything the profile configures, for caches
+     */
+    public String key() {
+        return providers + ";intra=" + intraOpThreads + ";inter=" + interOpThreads + ";opt=" + optLevel
+                + ";arena=" + cpuArena + ";pattern=" + memoryPattern;
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + key() + "]";
+    }
+}
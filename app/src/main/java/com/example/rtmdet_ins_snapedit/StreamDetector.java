@@ -0,0 +1,149 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.util.ArrayList;
+
+/**
+ * Detection over a stream of frames (camera preview, decoded video): full inference on keyframes
+ * only, and {@link InstanceTracker} predictions in between. The keyframe interval adapts so that
+ * the average cost per frame stays within a latency budget.
+ * Not thread-safe: frames are processed one at a time, in order.
+ *
+ * @param <F> frame, e.g. ARGB {@code int[]} pixels or a YUV image
+ */
+public class StreamDetector<F> {
+
+    public interface Detector<F> {
+        ObjectDetector.DetectionResult detect(F frame) throws Exception;
+    }
+
+    public static class Result {
+        public final long frameIndex;
+        public final boolean keyframe;
+        public final ObjectDetector.DetectionResult detections;    // boxes at this frame, masks of the last keyframe
+        public final int[] trackIds;                                // (n) - stable id of each detection
+
+        Result(long frameIndex, boolean keyframe, ObjectDetector.DetectionResult detections, int[] trackIds) {
+            this.frameIndex = frameIndex;
+            this.keyframe = keyframe;
+            this.detections = detections;
+            this.trackIds = trackIds;
+        }
+    }
+
+    private static final float LATENCY_SMOOTHING = 0.2F;    // weight of the newest latency sample
+
+    private final Detector<F> detector;
+    private final InstanceTracker tracker;
+    private final long budgetNanos;
+    private final int minInterval;
+    private final int maxInterval;
+
+    private int interval;
+    private long frameIndex;
+    private long nextKeyframe;
+    private float keyframeNanos;        // smoothed latency of a keyframe
+    private float trackNanos;           // smoothed latency of a tracked frame
+    private DetectorMetrics metrics = new DetectorMetrics();   // of the detector, from its last result
+
+    /**
+     * @param budgetNanos average processing time allowed per frame
+     * @param minInterval smallest keyframe interval (1 to infer every frame when the budget allows)
+     * @param maxInterval largest keyframe interval
+     */
+    public StreamDetector(Detector<F> detector, InstanceTracker tracker, long budgetNanos, int minInterval, int maxInterval) {
+        this.detector = detector;
+        this.tracker = tracker;
+        this.budgetNanos = budgetNanos;
+        this.minInterval = Math.max(1, minInterval);
+        this.maxInterval = Math.max(this.minInterval, maxInterval);
+        this.interval = this.minInterval;
+    }
+
+    /**
+     * @param width  frame width, bounds the predicted boxes
+     * @param height frame height
+     */
+    public Result process(F frame, int width, int height) throws Exception {
+        long startTime = System.nanoTime();
+        boolean keyframe = frameIndex >= nextKeyframe;
+        ArrayList<InstanceTracker.Track> tracks;
+        if (keyframe) {
+            ObjectDetector.DetectionResult detections = detector.detect(frame);
+            metrics = detections.metrics;
+            tracks = tracker.update(detections, width, height);
+            keyframeNanos = smooth(keyframeNanos, System.nanoTime() - startTime);
+            interval = keyframeInterval((long) keyframeNanos, (long) trackNanos, budgetNanos, minInterval, maxInterval);
+            nextKeyframe = frameIndex + interval;
+        } else {
+            tracks = tracker.predict();
+            trackNanos = smooth(trackNanos, System.nanoTime() - startTime);
+        }
+        return new Result(frameIndex++, keyframe, toDetections(tracks), trackIds(tracks));
+    }
+
+    /**
+     * Run full inference on the next frame.
+     */
+    public void requestKeyframe() {
+        nextKeyframe = frameIndex;
+    }
+
+    public int getKeyframeInterval() {
+        return interval;
+    }
+
+    /**
+     * Forget the tracks, e.g. after a scene cut; the next frame is a keyframe.
+     */
+    public void reset() {
+        tracker.reset();
+        nextKeyframe = frameIndex;
+    }
+
+    /**
+     * Smallest interval K such that one keyframe and K - 1 tracked frames fit in K budgets:
+     * (keyframe + (K - 1) * track) / K <= budget.
+     */
+    static int keyframeInterval(long keyframeNanos, long trackNanos, long budgetNanos, int minInterval, int maxInterval) {
+        if (keyframeNanos <= budgetNanos) {
+            return minInterval;
+        }
+        if (trackNanos >= budgetNanos) {
+            return maxInterval;
+        }
+        long interval = (keyframeNanos - trackNanos + budgetNanos - trackNanos - 1) / (budgetNanos - trackNanos);
+        return (int) Math.max(minInterval, Math.min(maxInterval, interval));
+    }
+
+    private static float smooth(float average, long sample) {
+        return average == 0F ? sample : average + LATENCY_SMOOTHING * (sample - average);
+    }
+
+    private ObjectDetector.DetectionResult toDetections(ArrayList<InstanceTracker.Track> tracks) {
+        ArrayList<int[]> boxes = new ArrayList<>(tracks.size());
+        ArrayList<Float> scores = new ArrayList<>(tracks.size());
+        ArrayList<String> labels = new ArrayList<>(tracks.size());
+        ArrayList<InstanceMask> masks = new ArrayList<>(tracks.size());
+        for (InstanceTracker.Track track : tracks) {
+            boxes.add(track.box);
+            scores.add(track.score);
+            labels.add(track.label);
+            if (masks != null && track.mask != null) {
+                masks.add(track.mask);
+            } else {
+                masks = null;
+            }
+        }
+        ObjectDetector.DetectionResult result = new ObjectDetector.DetectionResult(boxes, masks, scores, labels);
+        result.metrics = metrics;
+        return result;
+    }
+
+    private static int[] trackIds(ArrayList<InstanceTracker.Track> tracks) {
+        int[] ids = new int[tracks.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = tracks.get(i).id;
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.io.IOException;
+
+/**
+ * Image read region by region, so that a large photo is never decoded whole at full resolution
+ * (see {@link RegionTileSource}).
+ */
+public interface TileSource {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Read the ARGB pixels of [x, x + width) x [y, y + height) into pixels, row-major.
+     */
+    void read(int x, int y, int width, int height, int[] pixels) throws IOException;
+
+    /**
+     * Tiles of an image already in memory.
+     */
+    class Pixels implements TileSource {
+        private final int[] pixels;
+        private final int width;
+        private final int height;
+
+        public Pixels(int[] pixels, int width, int height) {
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public void read(int x, int y, int width, int height, int[] pixels) {
+            for (int row = 0; row < height; row++) {
+                System.arraycopy(this.pixels, (y + row) * this.width + x, pixels, row * width, width);
+            }
+        }
+    }
+}
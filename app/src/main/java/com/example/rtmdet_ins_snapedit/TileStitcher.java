@@ -0,0 +1,169 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.util.ArrayList;
+
+/**
+ * Tiled inference on large images: the overlapping tile grid, and the stitching of per-tile
+ * detections into image-wide instances. Tiles are at most the infer size, so they are letterboxed
+ * without scaling and their masks are already at image resolution. Detections of different tiles
+ * are merged by the rules of {@link PostProcessor} (an instance cut by a tile border is mostly
+ * covered by the one seen whole in the neighbor tile); a merged instance gets the union of the
+ * boxes and masks, and the score and label of its best member.
+ */
+public class TileStitcher {
+    private final ArrayList<int[]> boxes = new ArrayList<>();          // image coordinates
+    private final ArrayList<BinaryMask> masks = new ArrayList<>();     // image coordinates, null entries if masks are skipped
+    private final ArrayList<Float> scores = new ArrayList<>();
+    private final ArrayList<Integer> labels = new ArrayList<>();
+    private final ArrayList<Integer> tileIds = new ArrayList<>();
+    private int tileCount;
+
+    /**
+     * Tiles of at most tileSize x tileSize covering the image, neighbors sharing at least overlap
+     * pixels (the last row and column are aligned on the image border).
+     *
+     * @return (t, 4) - [x, y, width, height]
+     */
+    public static int[][] tiles(int width, int height, int tileSize, int overlap) {
+        int[] xs = starts(width, tileSize, overlap);
+        int[] ys = starts(height, tileSize, overlap);
+        int[][] tiles = new int[xs.length * ys.length][];
+        int t = 0;
+        for (int y : ys) {
+            for (int x : xs) {
+                tiles[t++] = new int[]{x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y)};
+            }
+        }
+        return tiles;
+    }
+
+    private static int[] starts(int length, int tileSize, int overlap) {
+        if (length <= tileSize) {
+            return new int[]{0};
+        }
+        int stride = Math.max(1, tileSize - overlap);
+        int count = (length - tileSize + stride - 1) / stride + 1;
+        int[] starts = new int[count];
+        for (int i = 0; i < count; i++) {
+            starts[i] = Math.min(i * stride, length - tileSize);
+        }
+        return starts;
+    }
+
+    /**
+     * Add the detections of the tile at (tileX, tileY), letterboxed at (padX, padY) without scaling.
+     */
+    public void add(PostProcessor.Result result, int tileX, int tileY, int padX, int padY) {
+        for (int k = 0; k < result.size(); k++) {
+            int[] box = result.boxes[k];
+            boxes.add(new int[]{box[0] + tileX, box[1] + tileY, box[2] + tileX, box[3] + tileY});
+            masks.add(result.masks != null ? result.masks[k].roi.translate(tileX - padX, tileY - padY) : null);
+            scores.add(result.scores[k]);
+            labels.add(result.labels[k]);
+            tileIds.add(tileCount);
+        }
+        tileCount++;
+    }
+
+    /**
+     * @return image-wide detections, masks null if any tile skipped them
+     */
+    public PostProcessor.Result stitch() {
+        int n = boxes.size();
+        int[][] boxArray = boxes.toArray(new int[0][]);
+        boolean withMasks = !masks.contains(null);
+
+        // group redundant detections of different tiles (detections of one tile are already merged)
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+        }
+        BoxIndex boxIndex = new BoxIndex(boxArray, new boolean[n]);
+        for (int i = 0; i < n; i++) {
+            for (int j : boxIndex.laterNeighbors(i)) {
+                if (tileIds.get(i).equals(tileIds.get(j))) {
+                    continue;
+                }
+                float boxIoU = PostProcessor.calcBoxIoU(boxArray[i], boxArray[j]);
+                boolean redundant = withMasks
+                        ? PostProcessor.isRedundant(boxIoU, masks.get(i).intersection(masks.get(j)),
+                                masks.get(i).area, masks.get(j).area, labels.get(i).equals(labels.get(j)))
+                        : PostProcessor.isRedundant(boxIoU, boxIntersection(boxArray[i], boxArray[j]),
+                                boxArea(boxArray[i]), boxArea(boxArray[j]), labels.get(i).equals(labels.get(j)));
+                if (redundant) {
+                    parent[find(parent, i)] = find(parent, j);
+                }
+            }
+        }
+
+        // members of every group, groups in the order of their first member
+        int[] groupOf = new int[n];     // root -> group index + 1, 0 until the group exists
+        ArrayList<ArrayList<Integer>> groups = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int root = find(parent, i);
+            if (groupOf[root] == 0) {
+                groups.add(new ArrayList<Integer>());
+                groupOf[root] = groups.size();
+            }
+            groups.get(groupOf[root] - 1).add(i);
+        }
+
+        int m = groups.size();
+        int[][] finalBoxes = new int[m][];
+        InstanceMask[] finalMasks = withMasks ? new InstanceMask[m] : null;
+        float[] finalScores = new float[m];
+        int[] finalLabels = new int[m];
+        for (int k = 0; k < m; k++) {
+            ArrayList<Integer> members = groups.get(k);
+            int best = members.get(0);
+            int[] box = boxArray[best].clone();
+            for (int i : members) {
+                int[] member = boxArray[i];
+                box[0] = Math.min(box[0], member[0]);
+                box[1] = Math.min(box[1], member[1]);
+                box[2] = Math.max(box[2], member[2]);
+                box[3] = Math.max(box[3], member[3]);
+                if (scores.get(i) > scores.get(best)) {
+                    best = i;
+                }
+            }
+
+            if (withMasks) {
+                BinaryMask roi;
+                if (members.size() == 1) {
+                    roi = masks.get(members.get(0));
+                } else {
+                    BinaryMask[] memberMasks = new BinaryMask[members.size()];
+                    for (int j = 0; j < memberMasks.length; j++) {
+                        memberMasks[j] = masks.get(members.get(j));
+                    }
+                    roi = BinaryMask.union(memberMasks, box[0], box[1], box[2], box[3]);
+                }
+                finalMasks[k] = new InstanceMask(roi, box[2] - box[0], box[3] - box[1]);
+            }
+            finalBoxes[k] = box;
+            finalScores[k] = scores.get(best);
+            finalLabels[k] = labels.get(best);
+        }
+        return new PostProcessor.Result(finalBoxes, finalMasks, finalScores, finalLabels);
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    // inclusive coordinates, as PostProcessor.calcBoxIoU
+    private static float boxIntersection(int[] box1, int[] box2) {
+        int w = Math.min(box1[2], box2[2]) - Math.max(box1[0], box2[0]) + 1;
+        int h = Math.min(box1[3], box2[3]) - Math.max(box1[1], box2[1]) + 1;
+        return Math.max(0, w) * (float) Math.max(0, h);
+    }
+
+    private static float boxArea(int[] box) {
+        return (box[2] - box[0] + 1) * (float) (box[3] - box[1] + 1);
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Planes of a YUV 4:2:0 frame as laid out by an {@code android.media.Image} of format
+ * YUV_420_888: full-resolution Y, half-resolution U and V, each with its own row and pixel strides
+ * (so planar I420 as well as interleaved NV12 / NV21 views are described without copying).
+ * No Android classes, see {@link ImageUtils#toYuvFrame} for the conversion from a camera image.
+ */
+public class YuvFrame {
+    public final int width;
+    public final int height;
+    public final ByteBuffer y;
+    public final ByteBuffer u;
+    public final ByteBuffer v;
+    public final int yRowStride;
+    public final int yPixelStride;
+    public final int uvRowStride;   // shared by U and V, as in YUV_420_888
+    public final int uvPixelStride;
+
+    public YuvFrame(int width, int height, ByteBuffer y, ByteBuffer u, ByteBuffer v,
+                    int yRowStride, int yPixelStride, int uvRowStride, int uvPixelStride) {
+        this.width = width;
+        this.height = height;
+        this.y = y;
+        this.u = u;
+        this.v = v;
+        this.yRowStride = yRowStride;
+        this.yPixelStride = yPixelStride;
+        this.uvRowStride = uvRowStride;
+        this.uvPixelStride = uvPixelStride;
+    }
+
+    /**
+     * @return ARGB pixel at sensor coordinates (x, y)
+     */
+    public int argb(int x, int y) {
+        int luma = this.y.get(y * yRowStride + x * yPixelStride) & 255;
+        int chroma = (y >> 1) * uvRowStride + (x >> 1) * uvPixelStride;
+        return ImageKernels.yuvToArgb(luma, u.get(chroma) & 255, v.get(chroma) & 255);
+    }
+
+    /**
+     * @param rotation clockwise rotation applied to the frame, 0, 90, 180 or 270 degrees
+     * @return width of the rotated frame
+     */
+    public int rotatedWidth(int rotation) {
+        return rotation % 180 == 0 ? width : height;
+    }
+
+    public int rotatedHeight(int rotation) {
+        return rotation % 180 == 0 ? height : width;
+    }
+}
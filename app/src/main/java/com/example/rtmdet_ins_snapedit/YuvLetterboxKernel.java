@@ -0,0 +1,226 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * {@link LetterboxKernel} over a YUV 4:2:0 camera frame: BT.601 color conversion, rotation,
+ * bilinear resize, pad and normalization fused into one pass from the planes to the (3, size, size)
+ * tensor, without the intermediate ARGB frame and rotated bitmap.
+ * Y, U and V are blended separately over the four bilinear taps (chroma taken at each tap, as the
+ * upsampled frame holds it) and converted once per output pixel instead of once per source pixel.
+ * As the conversion is affine, the output matches {@link ImageKernels#yuvToArgb(YuvFrame, int)}
+ * followed by {@link LetterboxKernel} up to 8-bit rounding, except where a tap is clipped to [0, 255].
+ * One kernel per caller: {@link #run} keeps per-call column tables and reuses its row bands, with
+ * their scratch rows, so it does not allocate per frame; it is not reentrant.
+ */
+public class YuvLetterboxKernel {
+    private static final int MIN_BAND_ROWS = 32;    // rows per task, at least
+
+    private final int size;
+    private final float[] scale = new float[3];
+    private final float[] bias = new float[3];
+    private final float[] padNorm = new float[3];
+    private final ForkJoinPool pool;    // null to run on the calling thread
+
+    // per-column sampling positions of the current call, as sensor coordinates contributed by the column
+    private final int[] colSX0, colSY0, colSX1, colSY1;
+    private final float[] colWeight;
+
+    // arguments of the current call, read by the bands
+    private YuvFrame frame;
+    private int rotation, newWidth, newHeight, padX, padY;
+    private FloatBuffer out;
+    private int offset;
+
+    // row bands of MIN_BAND_ROWS rows (a single one without pool), reused by every call
+    private final Band[] bands;
+    private final RecursiveAction allBands = new RecursiveAction() {
+        @Override
+        protected void compute() {
+            invokeAll(bands);
+        }
+    };
+
+    public YuvLetterboxKernel(int size, int padValue, float[] mean, float[] std, ForkJoinPool pool) {
+        this.size = size;
+        this.pool = pool;
+        for (int c = 0; c < 3; c++) {
+            scale[c] = 1F / std[c];
+            bias[c] = -mean[c] / std[c];
+            padNorm[c] = padValue * scale[c] + bias[c];
+        }
+        colSX0 = new int[size];
+        colSY0 = new int[size];
+        colSX1 = new int[size];
+        colSY1 = new int[size];
+        colWeight = new float[size];
+        int bandCount = pool != null ? Math.max(1, size / MIN_BAND_ROWS) : 1;
+        bands = new Band[bandCount];
+        for (int i = 0; i < bandCount; i++) {
+            bands[i] = new Band(i * size / bandCount, (i + 1) * size / bandCount);
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Rotate the frame clockwise by rotation degrees (0, 90, 180 or 270), resize it to newWidth x
+     * newHeight (bilinear, pixel-center aligned), place it at (padX, padY) and normalize everything
+     * into out[offset, offset + 3 * size * size).
+     */
+    public void run(YuvFrame frame, int rotation, int newWidth, int newHeight, int padX, int padY,
+                    FloatBuffer out, int offset) {
+        int srcWidth = frame.rotatedWidth(rotation);
+        float sx = (float) srcWidth / newWidth;
+        for (int x = 0; x < newWidth; x++) {
+            float fx = Math.max(0F, (x + 0.5F) * sx - 0.5F);
+            int x0 = Math.min((int) fx, srcWidth - 1);
+            int x1 = Math.min(x0 + 1, srcWidth - 1);
+            // sensor coordinates are affine in the rotated ones: split into column and row parts
+            colSX0[x] = ImageKernels.sensorX(frame, rotation, x0, 0);
+            colSY0[x] = ImageKernels.sensorY(frame, rotation, x0, 0);
+            colSX1[x] = ImageKernels.sensorX(frame, rotation, x1, 0);
+            colSY1[x] = ImageKernels.sensorY(frame, rotation, x1, 0);
+            colWeight[x] = fx - x0;
+        }
+
+        this.frame = frame;
+        this.rotation = rotation;
+        this.newWidth = newWidth;
+        this.newHeight = newHeight;
+        this.padX = padX;
+        this.padY = padY;
+        this.out = out;
+        this.offset = offset;
+        try {
+            if (pool == null) {
+                bands[0].fill();
+            } else {
+                for (Band band : bands) {
+                    band.reinitialize();
+                }
+                allBands.reinitialize();
+                pool.invoke(allBands);
+            }
+        } finally {
+            this.frame = null;
+            this.out = null;
+        }
+    }
+
+    // a fixed band of rows with its own scratch rows and views of the output
+    private class Band extends RecursiveAction {
+        private final int rowStart, rowEnd;
+        private final float[] rowR = new float[size], rowG = new float[size], rowB = new float[size];
+        // views of the last two outputs, e.g. the two pooled inputs of ObjectDetector
+        private final FloatBuffer[] viewOf = new FloatBuffer[2];
+        private final FloatBuffer[] views = new FloatBuffer[2];
+        private int lastView;
+
+        Band(int rowStart, int rowEnd) {
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+        }
+
+        @Override
+        protected void compute() {
+            fill();
+        }
+
+        void fill() {
+            int stride = size * size;
+            int srcHeight = frame.rotatedHeight(rotation);
+            float sy = (float) srcHeight / newHeight;
+            // sensor coordinates of the column parts at rotated row 0, to remove from the row parts
+            int originX = ImageKernels.sensorX(frame, rotation, 0, 0);
+            int originY = ImageKernels.sensorY(frame, rotation, 0, 0);
+            ByteBuffer yPlane = frame.y, uPlane = frame.u, vPlane = frame.v;
+            int yRowStride = frame.yRowStride, yPixelStride = frame.yPixelStride;
+            int uvRowStride = frame.uvRowStride, uvPixelStride = frame.uvPixelStride;
+            FloatBuffer dst = view(out);
+            for (int i = rowStart; i < rowEnd; i++) {
+                int y = i - padY;
+                if (y < 0 || y >= newHeight) {
+                    fillPad(0, size);
+                } else {
+                    fillPad(0, padX);
+                    fillPad(padX + newWidth, size);
+
+                    float fy = Math.max(0F, (y + 0.5F) * sy - 0.5F);
+                    int y0 = Math.min((int) fy, srcHeight - 1);
+                    int y1 = Math.min(y0 + 1, srcHeight - 1);
+                    int rowSX0 = ImageKernels.sensorX(frame, rotation, 0, y0) - originX;
+                    int rowSY0 = ImageKernels.sensorY(frame, rotation, 0, y0) - originY;
+                    int rowSX1 = ImageKernels.sensorX(frame, rotation, 0, y1) - originX;
+                    int rowSY1 = ImageKernels.sensorY(frame, rotation, 0, y1) - originY;
+                    float wy = fy - y0;
+                    for (int x = 0; x < newWidth; x++) {
+                        int sx00 = colSX0[x] + rowSX0, sy00 = colSY0[x] + rowSY0;
+                        int sx01 = colSX1[x] + rowSX0, sy01 = colSY1[x] + rowSY0;
+                        int sx10 = colSX0[x] + rowSX1, sy10 = colSY0[x] + rowSY1;
+                        int sx11 = colSX1[x] + rowSX1, sy11 = colSY1[x] + rowSY1;
+                        float wx = colWeight[x];
+                        float w00 = (1F - wx) * (1F - wy), w01 = wx * (1F - wy);
+                        float w10 = (1F - wx) * wy, w11 = wx * wy;
+
+                        float luma = (yPlane.get(sy00 * yRowStride + sx00 * yPixelStride) & 255) * w00
+                                + (yPlane.get(sy01 * yRowStride + sx01 * yPixelStride) & 255) * w01
+                                + (yPlane.get(sy10 * yRowStride + sx10 * yPixelStride) & 255) * w10
+                                + (yPlane.get(sy11 * yRowStride + sx11 * yPixelStride) & 255) * w11;
+                        int c00 = (sy00 >> 1) * uvRowStride + (sx00 >> 1) * uvPixelStride;
+                        int c01 = (sy01 >> 1) * uvRowStride + (sx01 >> 1) * uvPixelStride;
+                        int c10 = (sy10 >> 1) * uvRowStride + (sx10 >> 1) * uvPixelStride;
+                        int c11 = (sy11 >> 1) * uvRowStride + (sx11 >> 1) * uvPixelStride;
+                        float u = (uPlane.get(c00) & 255) * w00 + (uPlane.get(c01) & 255) * w01
+                                + (uPlane.get(c10) & 255) * w10 + (uPlane.get(c11) & 255) * w11 - 128F;
+                        float v = (vPlane.get(c00) & 255) * w00 + (vPlane.get(c01) & 255) * w01
+                                + (vPlane.get(c10) & 255) * w10 + (vPlane.get(c11) & 255) * w11 - 128F;
+
+                        // full-range BT.601, as ImageKernels.yuvToArgb
+                        float r = Math.min(255F, Math.max(0F, luma + 1.402F * v));
+                        float g = Math.min(255F, Math.max(0F, luma - 0.344136F * u - 0.714136F * v));
+                        float b = Math.min(255F, Math.max(0F, luma + 1.772F * u));
+                        rowR[padX + x] = r * scale[0] + bias[0];
+                        rowG[padX + x] = g * scale[1] + bias[1];
+                        rowB[padX + x] = b * scale[2] + bias[2];
+                    }
+                }
+
+                int idx = offset + i * size;
+                dst.position(idx);
+                dst.put(rowR);
+                dst.position(idx + stride);
+                dst.put(rowG);
+                dst.position(idx + stride * 2);
+                dst.put(rowB);
+            }
+        }
+
+        // own view of out, as bands write into it at the same time
+        private FloatBuffer view(FloatBuffer out) {
+            for (int k = 0; k < 2; k++) {
+                if (viewOf[k] == out) {
+                    lastView = k;
+                    return views[k];
+                }
+            }
+            lastView ^= 1;
+            viewOf[lastView] = out;
+            views[lastView] = out.duplicate();
+            return views[lastView];
+        }
+
+        private void fillPad(int from, int to) {
+            for (int x = from; x < to; x++) {
+                rowR[x] = padNorm[0];
+                rowG[x] = padNorm[1];
+                rowB[x] = padNorm[2];
+            }
+        }
+    }
+}
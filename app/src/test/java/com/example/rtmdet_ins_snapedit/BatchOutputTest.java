@@ -0,0 +1,143 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+
+import ai.onnxruntime.OrtEnvironment;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class BatchOutputTest {
+    private static final int N = 2;
+    private static final int MASK_SIZE = 3;
+
+    // (4, N, 5) dets and (4, N) labels of a fixed batch of 4: element b, detection i has box
+    // [10b + i, ...] and the given score, label 1
+    private static FloatBuffer dets(float[] scores) {
+        FloatBuffer dets = FloatBuffer.allocate(scores.length * 5);
+        for (int d = 0; d < scores.length; d++) {
+            int b = d / N, i = d % N;
+            dets.put(new float[]{10 * b + i, 10 * b + i + 1, 10 * b + i + 2, 10 * b + i + 3, scores[d]});
+        }
+        dets.rewind();
+        return dets;
+    }
+
+    private static LongBuffer labels(int count) {
+        LongBuffer labels = LongBuffer.allocate(count);
+        for (int d = 0; d < count; d++) {
+            labels.put(1);
+        }
+        labels.rewind();
+        return labels;
+    }
+
+    private static BatchOutput[] outputs(int count) {
+        BatchOutput[] outputs = new BatchOutput[count];
+        for (int b = 0; b < count; b++) {
+            outputs[b] = new BatchOutput();
+        }
+        return outputs;
+    }
+
+    @Test
+    public void chunksFixedAndDynamicBatches() {
+        // fixed batch: chunks of the model batch, the partial last one padded to it
+        assertEquals(4, BatchOutput.chunkSize(4, 8));
+        assertEquals(4, BatchOutput.batchSize(4, 4, 4));
+        assertEquals(4, BatchOutput.batchSize(4, 4, 3));
+        // dynamic batch: chunks of at most maxBatch, the partial last one as it is
+        assertEquals(3, BatchOutput.chunkSize(-1, 3));
+        assertEquals(1, BatchOutput.chunkSize(-1, 0));
+        assertEquals(2, BatchOutput.batchSize(-1, 3, 2));
+    }
+
+    @Test
+    public void keepsCandidatesOfEachElement() {
+        PostProcessor postProcessor = new PostProcessor(640, 0.5F, 0.5F);
+        // 3 frames in a fixed batch of 4: frame 0 keeps its 2nd detection, frame 1 both, frame 2 none
+        float[] scores = {0.1F, 0.9F, 0.8F, 0.7F, 0.2F, 0.3F, 0.95F, 0.95F};
+        BatchOutput[] outputs = outputs(3);
+
+        assertEquals(3, BatchOutput.split(outputs, dets(scores), labels(8), N, MASK_SIZE, postProcessor));
+        int[][] kept = {{1}, {2, 3}, {}};
+        for (int b = 0; b < 3; b++) {
+            BatchOutput output = outputs[b];
+            assertEquals(kept[b].length, output.boxes.length);
+            assertNull(output.masks);
+            for (int k = 0; k < kept[b].length; k++) {
+                int d = kept[b][k];
+                int v = 10 * b + d % N;
+                assertArrayEquals(new int[]{v, v + 1, v + 2, v + 3}, output.boxes[k]);
+                assertEquals(scores[d], output.scores[k], 0);
+                assertEquals(1, output.labels[k]);
+            }
+        }
+        assertEquals(0, outputs[0].masksOffset);
+        assertEquals(MASK_SIZE, outputs[1].masksOffset);
+        assertEquals(3 * MASK_SIZE, outputs[2].masksOffset);
+    }
+
+    @Test
+    public void copiesCandidateMasksOnly() {
+        PostProcessor postProcessor = new PostProcessor(640, 0.5F, 0.5F);
+        float[] scores = {0.1F, 0.9F, 0.8F, 0.7F, 0.2F, 0.3F, 0.95F, 0.95F};
+        BatchOutput[] outputs = outputs(3);
+        BatchOutput.split(outputs, dets(scores), labels(8), N, MASK_SIZE, postProcessor);
+
+        // mask of detection d holds 10 * d + j
+        FloatBuffer source = FloatBuffer.allocate(8 * MASK_SIZE);
+        for (int d = 0; d < 8; d++) {
+            for (int j = 0; j < MASK_SIZE; j++) {
+                source.put(10 * d + j);
+            }
+        }
+        float[] masks = new float[5 * MASK_SIZE];     // a reused, larger array
+        BatchOutput.copyMasks(outputs, source, MASK_SIZE, masks);
+
+        for (BatchOutput output : outputs) {
+            assertSame(masks, output.masks);
+        }
+        int[] copied = {1, 2, 3};
+        for (int k = 0; k < copied.length; k++) {
+            for (int j = 0; j < MASK_SIZE; j++) {
+                assertEquals(10 * copied[k] + j, masks[k * MASK_SIZE + j], 0);
+            }
+        }
+        assertEquals(20, outputs[1].masks[outputs[1].masksOffset], 0);
+    }
+
+    @Test
+    public void ignoresUnusedFixedBatchSlots() {
+        PostProcessor postProcessor = new PostProcessor(640, 0.5F, 0.5F);
+        // only the unused slot 3 has detections above the thresholds: no mask to copy
+        float[] scores = {0.1F, 0.2F, 0.3F, 0.4F, 0.1F, 0.2F, 0.95F, 0.95F};
+        assertEquals(0, BatchOutput.split(outputs(3), dets(scores), labels(8), N, MASK_SIZE, postProcessor));
+    }
+
+    @Test
+    public void carriesMetadataOfEachElement() throws Exception {
+        assumeTrue(TestModels.runtimeAvailable());
+        try (InputTensor input = new InputTensor(OrtEnvironment.getEnvironment(), "x", 3, 8)) {
+            for (int b = 0; b < 3; b++) {
+                input.origWidth[b] = 100 + b;
+                input.origHeight[b] = 200 + b;
+                input.padX[b] = b;
+                input.padY[b] = 2 * b;
+            }
+            BatchOutput[] outputs = outputs(3);
+            for (int b = 0; b < 3; b++) {
+                outputs[b].setMetadata(input, b);
+            }
+            for (int b = 0; b < 3; b++) {
+                assertEquals(100 + b, outputs[b].origWidth);
+                assertEquals(200 + b, outputs[b].origHeight);
+                assertEquals(b, outputs[b].padX);
+                assertEquals(2 * b, outputs[b].padY);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BinaryMaskTest {
+    private static final int SIZE = 200;
+
+    private static float[][] randomMask(Random random) {
+        float[][] mask = new float[SIZE][SIZE];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                mask[y][x] = random.nextFloat();
+            }
+        }
+        return mask;
+    }
+
+    private static float[] flat(float[][] mask) {
+        return PostProcessor.flatten(new float[][][]{mask});
+    }
+
+    @Test
+    public void binarizesInsideBoxOnly() {
+        float[][] mask = new float[SIZE][SIZE];
+        mask[5][5] = 0.5F;
+        mask[5][6] = 0.49F;
+        mask[4][5] = 1F;    // outside the box
+        BinaryMask binMask = BinaryMask.fromProbabilities(flat(mask), 0, SIZE, 5, 5, 100, 10);
+
+        assertEquals(1, binMask.area);
+        assertTrue(binMask.get(5, 5));
+        assertFalse(binMask.get(6, 5));
+        assertFalse(binMask.get(5, 4));
+    }
+
+    @Test
+    public void intersectionMatchesPixelCount() {
+        Random random = new Random(7);
+        for (int t = 0; t < 50; t++) {
+            float[][] mask1 = randomMask(random);
+            float[][] mask2 = randomMask(random);
+            int ax1 = random.nextInt(SIZE / 2), ay1 = random.nextInt(SIZE / 2);
+            int ax2 = ax1 + 1 + random.nextInt(SIZE / 2), ay2 = ay1 + 1 + random.nextInt(SIZE / 2);
+            int bx1 = random.nextInt(SIZE / 2), by1 = random.nextInt(SIZE / 2);
+            int bx2 = bx1 + 1 + random.nextInt(SIZE / 2), by2 = by1 + 1 + random.nextInt(SIZE / 2);
+            BinaryMask a = BinaryMask.fromProbabilities(flat(mask1), 0, SIZE, ax1, ay1, ax2, ay2);
+            BinaryMask b = BinaryMask.fromProbabilities(flat(mask2), 0, SIZE, bx1, by1, bx2, by2);
+
+            int expected = 0;
+            for (int y = 0; y < SIZE; y++) {
+                for (int x = 0; x < SIZE; x++) {
+                    boolean inA = x >= ax1 && x < ax2 && y >= ay1 && y < ay2 && Math.round(mask1[y][x]) == 1;
+                    boolean inB = x >= bx1 && x < bx2 && y >= by1 && y < by2 && Math.round(mask2[y][x]) == 1;
+                    if (inA && inB)
+                        expected++;
+                }
+            }
+            assertEquals(expected, a.intersection(b));
+            assertEquals(expected, b.intersection(a));
+        }
+    }
+}
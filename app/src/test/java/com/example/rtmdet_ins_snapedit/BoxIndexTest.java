@@ -0,0 +1,40 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BoxIndexTest {
+
+    @Test
+    public void neighborsMatchAllPairs() {
+        Random random = new Random(3);
+        int n = 200;
+        int[][] boxes = new int[n][];
+        boolean[] isSkipped = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            int x = random.nextInt(600), y = random.nextInt(600);
+            boxes[i] = new int[]{x, y, x + random.nextInt(80), y + random.nextInt(80)};
+            isSkipped[i] = random.nextInt(10) == 0;
+        }
+
+        BoxIndex index = new BoxIndex(boxes, isSkipped);
+
+        for (int i = 0; i < n; i++) {
+            ArrayList<Integer> expected = new ArrayList<>();
+            for (int j = i + 1; j < n && !isSkipped[i]; j++) {
+                int[] a = boxes[i], b = boxes[j];
+                if (!isSkipped[j] && Math.max(a[0], b[0]) < Math.min(a[2], b[2]) && Math.max(a[1], b[1]) < Math.min(a[3], b[3]))
+                    expected.add(j);
+            }
+            int[] actual = index.laterNeighbors(i);
+            assertEquals(expected.size(), actual.length);
+            for (int k = 0; k < actual.length; k++) {
+                assertEquals((int) expected.get(k), actual[k]);
+            }
+        }
+    }
+}
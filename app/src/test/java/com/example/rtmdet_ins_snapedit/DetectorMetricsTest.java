@@ -0,0 +1,89 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+public class DetectorMetricsTest {
+
+    @Test
+    public void histogramPercentilesWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long v = 1; v <= 10000; v++) {
+            histogram.record(v * 1000);
+        }
+
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000000, histogram.getMax());
+        assertEquals(5000500, histogram.getMean());
+        assertEquals(5000000, histogram.getPercentile(50), 5000000 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(9500000, histogram.getPercentile(95), 9500000 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(9900000, histogram.getPercentile(99), 9900000 / LatencyHistogram.SUB_BUCKETS);
+        assertTrue(histogram.getPercentile(99) >= 9900000);
+    }
+
+    @Test
+    public void histogramBucketsCoverEveryValue() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE};
+        for (long v : values) {
+            int bucket = LatencyHistogram.bucket(v);
+            assertTrue(v <= LatencyHistogram.upperBound(bucket));
+            assertTrue(bucket == 0 || v > LatencyHistogram.upperBound(bucket - 1));
+        }
+    }
+
+    @Test
+    public void recorderAggregatesStagesAndDetections() {
+        DetectorMetrics metrics = new DetectorMetrics();
+        DetectorMetrics.Recorder recorder = new DetectorMetrics.Recorder();
+        metrics.addListener(recorder);
+        PostProcessor postProcessor = new PostProcessor(64, 0.5F, 0.5F, metrics);
+
+        int[][] boxes = {{0, 0, 30, 30}, {1, 0, 31, 30}, {40, 40, 60, 60}};
+        float[] scores = {0.9F, 0.8F, 0.1F};
+        long[] labels = {1, 1, 1};
+        float[][][] masks = new float[3][64][64];
+        for (int y = 0; y < 30; y++) {
+            for (int x = 0; x < 31; x++) {
+                masks[0][y][x] = 0.9F;
+                masks[1][y][x] = 0.9F;
+            }
+        }
+        postProcessor.process(boxes, scores, labels, masks, 64, 64, 0, 0);
+
+        DetectorMetrics.Snapshot snapshot = recorder.snapshot();
+        assertEquals(1, snapshot.frames);
+        assertEquals(3, snapshot.rawDetections);
+        assertEquals(1, snapshot.keptDetections);
+        assertEquals(1, snapshot.stages.get(DetectorMetrics.Stage.NMS_MERGE).count);
+        assertEquals(1, snapshot.stages.get(DetectorMetrics.Stage.MASK_RENDER).count);
+        assertEquals(0, snapshot.stages.get(DetectorMetrics.Stage.SESSION_RUN).count);
+        assertEquals(-1, snapshot.stages.get(DetectorMetrics.Stage.NMS_MERGE).allocatedBytes);
+        String json = snapshot.toJson();
+        assertTrue(json.startsWith("{\"stages\":{\"PREPROCESS\":{\"count\":0,"));
+        assertTrue(json.endsWith("\"detections\":{\"frames\":1,\"raw\":3,\"kept\":1}}"));
+
+        metrics.removeListener(recorder);
+        postProcessor.process(boxes, scores, labels, masks, 64, 64, 0, 0);
+        assertEquals(1, recorder.snapshot().frames);
+    }
+
+    @Test
+    public void tracksAllocationsWhereAvailable() {
+        DetectorMetrics metrics = new DetectorMetrics();
+        DetectorMetrics.Recorder recorder = new DetectorMetrics.Recorder();
+        metrics.addListener(recorder);
+        DetectorMetrics.AllocationCounter counter = DetectorMetrics.threadAllocationCounter();
+        assumeNotNull(counter);
+        metrics.setAllocationCounter(counter);
+
+        long startTime = metrics.start();
+        long startAllocated = metrics.startAllocated();
+        byte[] block = new byte[1 << 20];
+        metrics.record(DetectorMetrics.Stage.PREPROCESS, startTime, startAllocated);
+
+        assertEquals(1 << 20, block.length);
+        assertTrue(recorder.snapshot().stages.get(DetectorMetrics.Stage.PREPROCESS).allocatedBytes >= 1 << 20);
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DetectorPoolTest {
+
+    // stands in for ObjectDetector: counts how many requests run on it at once
+    private static class FakeDetector implements AutoCloseable {
+        final AtomicInteger active = new AtomicInteger();
+        volatile boolean overlapped;
+        volatile boolean closed;
+
+        int detect(int input) throws InterruptedException {
+            if (active.incrementAndGet() > 1) {
+                overlapped = true;
+            }
+            Thread.sleep(2);
+            active.decrementAndGet();
+            return input * 10;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static List<FakeDetector> members(int count) {
+        ArrayList<FakeDetector> members = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            members.add(new FakeDetector());
+        }
+        return members;
+    }
+
+    @Test
+    public void mapsInOrderWithoutSharingMembers() throws Exception {
+        List<FakeDetector> members = members(3);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        ArrayList<Integer> inputs = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            inputs.add(i);
+        }
+
+        try (DetectorPool<FakeDetector> pool = new DetectorPool<>(members, null)) {
+            List<Integer> results = pool.map(new DetectorPool.Task<FakeDetector, Integer, Integer>() {
+                @Override
+                public Integer apply(FakeDetector detector, Integer input) throws Exception {
+                    int current = inFlight.incrementAndGet();
+                    synchronized (maxInFlight) {
+                        maxInFlight.set(Math.max(maxInFlight.get(), current));
+                    }
+                    try {
+                        return detector.detect(input);
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                }
+            }, inputs);
+
+            for (int i = 0; i < inputs.size(); i++) {
+                assertEquals(i * 10, (int) results.get(i));
+            }
+        }
+        assertTrue(maxInFlight.get() <= 3);
+        for (FakeDetector member : members) {
+            assertFalse(member.overlapped);
+        }
+    }
+
+    @Test
+    public void leasesBlockUntilReturned() throws Exception {
+        try (DetectorPool<FakeDetector> pool = new DetectorPool<>(members(1), null)) {
+            DetectorPool.Lease<FakeDetector> lease = pool.acquire();
+            assertNull(pool.tryAcquire(10, TimeUnit.MILLISECONDS));
+            lease.close();
+            lease.close();  // returned once only
+
+            DetectorPool.Lease<FakeDetector> again = pool.tryAcquire(10, TimeUnit.MILLISECONDS);
+            assertNotNull(again);
+            assertNull(pool.tryAcquire(10, TimeUnit.MILLISECONDS));
+            again.close();
+        }
+    }
+
+    @Test
+    public void closesMembersAndSharedResource() {
+        final List<FakeDetector> members = members(2);
+        final FakeDetector shared = new FakeDetector();
+        DetectorPool<FakeDetector> pool = new DetectorPool<>(members, new AutoCloseable() {
+            @Override
+            public void close() {
+                for (FakeDetector member : members) {
+                    assertTrue(member.closed);
+                }
+                shared.close();
+            }
+        });
+        pool.close();
+        assertTrue(shared.closed);
+        for (FakeDetector member : members) {
+            assertTrue(member.closed);
+        }
+        try {
+            pool.acquire();
+            fail();
+        } catch (IllegalStateException expected) {
+        } catch (InterruptedException e) {
+            fail();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class FramePipelineTest {
+
+    private static FramePipeline.Stage<Integer, Integer> identity() {
+        return new FramePipeline.Stage<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer input) {
+                return input;
+            }
+        };
+    }
+
+    // stands in for OrtSession.run: blocks until released
+    private static class FakeSession implements FramePipeline.Stage<Integer, Integer> {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+
+        @Override
+        public Integer apply(Integer input) throws Exception {
+            started.countDown();
+            release.await();
+            return input * 10;
+        }
+    }
+
+    @Test
+    public void runsStagesInOrder() throws Exception {
+        FramePipeline<Integer, Integer, Integer, String> pipeline = new FramePipeline<>(
+                identity(),
+                new FramePipeline.Stage<Integer, Integer>() {
+                    @Override
+                    public Integer apply(Integer input) {
+                        return input * 10;
+                    }
+                },
+                new FramePipeline.Stage<Integer, String>() {
+                    @Override
+                    public String apply(Integer input) {
+                        return "r" + input;
+                    }
+                },
+                8, FramePipeline.QueuePolicy.BLOCK);
+
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(pipeline.submit(i));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals("r" + i * 10, futures.get(i).get(5, TimeUnit.SECONDS));
+        }
+        pipeline.close();
+    }
+
+    @Test
+    public void preprocessesNextFrameWhileInferring() throws Exception {
+        FakeSession session = new FakeSession();
+        final CountDownLatch secondPrepared = new CountDownLatch(2);
+        FramePipeline<Integer, Integer, Integer, Integer> pipeline = new FramePipeline<>(
+                new FramePipeline.Stage<Integer, Integer>() {
+                    @Override
+                    public Integer apply(Integer input) {
+                        secondPrepared.countDown();
+                        return input;
+                    }
+                },
+                session, FramePipelineTest.identity(), 4, FramePipeline.QueuePolicy.BLOCK);
+
+        CompletableFuture<Integer> first = pipeline.submit(1);
+        CompletableFuture<Integer> second = pipeline.submit(2);
+        assertTrue(session.started.await(5, TimeUnit.SECONDS));
+        // frame 2 gets pre-processed while frame 1 is still inside the session
+        assertTrue(secondPrepared.await(5, TimeUnit.SECONDS));
+        assertFalse(first.isDone());
+
+        session.release.countDown();
+        assertEquals(10, (int) first.get(5, TimeUnit.SECONDS));
+        assertEquals(20, (int) second.get(5, TimeUnit.SECONDS));
+        pipeline.close();
+    }
+
+    @Test
+    public void dropOldestCancelsWaitingFrames() throws Exception {
+        FakeSession session = new FakeSession();
+        FramePipeline<Integer, Integer, Integer, Integer> pipeline = new FramePipeline<>(
+                FramePipelineTest.identity(), session, FramePipelineTest.identity(), 1, FramePipeline.QueuePolicy.DROP_OLDEST);
+
+        CompletableFuture<Integer> running = pipeline.submit(1);
+        assertTrue(session.started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Integer> prepared = pipeline.submit(2);
+        // wait until frame 2 left the queue for the prepared slot
+        while (pipeline.pendingCount() > 0) {
+            Thread.sleep(1);
+        }
+        CompletableFuture<Integer> dropped = pipeline.submit(3);
+        CompletableFuture<Integer> latest = pipeline.submit(4);
+
+        session.release.countDown();
+        assertEquals(10, (int) running.get(5, TimeUnit.SECONDS));
+        assertEquals(20, (int) prepared.get(5, TimeUnit.SECONDS));
+        assertEquals(40, (int) latest.get(5, TimeUnit.SECONDS));
+        try {
+            dropped.get(5, TimeUnit.SECONDS);
+            fail("frame 3 should have been dropped");
+        } catch (CancellationException | ExecutionException e) {
+            assertTrue(dropped.isCompletedExceptionally());
+        }
+        pipeline.close();
+    }
+
+    @Test
+    public void rejectPolicyFailsNewFrames() throws Exception {
+        FakeSession session = new FakeSession();
+        FramePipeline<Integer, Integer, Integer, Integer> pipeline = new FramePipeline<>(
+                FramePipelineTest.identity(), session, FramePipelineTest.identity(), 1, FramePipeline.QueuePolicy.REJECT);
+
+        pipeline.submit(1);
+        assertTrue(session.started.await(5, TimeUnit.SECONDS));
+        pipeline.submit(2);
+        while (pipeline.pendingCount() > 0) {
+            Thread.sleep(1);
+        }
+        pipeline.submit(3);
+        CompletableFuture<Integer> rejected = pipeline.submit(4);
+        try {
+            rejected.get(5, TimeUnit.SECONDS);
+            fail("frame 4 should have been rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        session.release.countDown();
+        pipeline.close();
+    }
+
+    @Test
+    public void stageErrorsCompleteExceptionally() throws Exception {
+        final AtomicBoolean fail = new AtomicBoolean(true);
+        FramePipeline<Integer, Integer, Integer, Integer> pipeline = new FramePipeline<>(
+                FramePipelineTest.identity(),
+                new FramePipeline.Stage<Integer, Integer>() {
+                    @Override
+                    public Integer apply(Integer input) {
+                        if (fail.getAndSet(false))
+                            throw new IllegalStateException("session failed");
+                        return input;
+                    }
+                },
+                FramePipelineTest.identity(), 2, FramePipeline.QueuePolicy.BLOCK);
+
+        try {
+            pipeline.submit(1).get(5, TimeUnit.SECONDS);
+            fail("first frame should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(2, (int) pipeline.submit(2).get(5, TimeUnit.SECONDS));
+        pipeline.close();
+    }
+
+    @Test
+    public void closeCompletesAfterFramesInFlight() throws Exception {
+        FakeSession session = new FakeSession();
+        FramePipeline<Integer, Integer, Integer, Integer> pipeline = new FramePipeline<>(
+                FramePipelineTest.identity(), session, FramePipelineTest.identity(), 1, FramePipeline.QueuePolicy.DROP_OLDEST);
+
+        CompletableFuture<Integer> running = pipeline.submit(1);
+        assertTrue(session.started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> closed = pipeline.closeAsync();
+        Thread.sleep(20);
+        assertFalse(closed.isDone());     // frame 1 is still inside the session
+
+        session.release.countDown();
+        closed.get(5, TimeUnit.SECONDS);
+        assertTrue(running.isDone());
+        assertEquals(10, (int) running.get());
+        assertSame(closed, pipeline.closeAsync());
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ImageKernelsTest {
+    private static final int PAD_VAL = 114;
+    private static final float[] MEAN = {103.53F, 116.28F, 123.675F};
+    private static final float[] STD = {57.375F, 57.12F, 58.395F};
+
+    private static int[] randomPixels(Random random, int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+
+    private static FloatBuffer directBuffer(int size) {
+        return ByteBuffer.allocateDirect(3 * size * size * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    @Test
+    public void letterboxMatchesPadThenNormalize() {
+        int size = 48, width = 48, height = 30;
+        int[] pixels = randomPixels(new Random(1), width, height);
+        FloatBuffer expected = ImageKernels.normalize(ImageKernels.pad(pixels, width, height, size, PAD_VAL), size, size, MEAN, STD);
+
+        FloatBuffer actual = directBuffer(size);
+        ImageKernels.letterbox(pixels, width, height, size, 0, (size - height) / 2, PAD_VAL, MEAN, STD, actual);
+
+        for (int i = 0; i < 3 * size * size; i++) {
+            assertEquals(expected.get(i), actual.get(i), 0F);
+        }
+    }
+
+    @Test
+    public void sampleSizeKeepsLongestSideAboveTarget() {
+        assertEquals(1, ImageKernels.sampleSize(1000, 800, 1200));
+        assertEquals(1, ImageKernels.sampleSize(2399, 1000, 1200));
+        assertEquals(2, ImageKernels.sampleSize(2400, 1000, 1200));
+        assertEquals(4, ImageKernels.sampleSize(6000, 8000, 1200));     // 48MP: 1500x2000 before resizing
+        assertEquals(1 << 30, ImageKernels.sampleSize(Integer.MAX_VALUE, 1, 1));
+    }
+}
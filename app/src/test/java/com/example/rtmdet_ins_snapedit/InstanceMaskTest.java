@@ -0,0 +1,82 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class InstanceMaskTest {
+    private static final int SIZE = 96;
+
+    private static float[][] randomMask(Random random) {
+        float[][] mask = new float[SIZE][SIZE];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                mask[y][x] = random.nextFloat();
+            }
+        }
+        return mask;
+    }
+
+    private static float[] flat(float[][] mask) {
+        return PostProcessor.flatten(new float[][][]{mask});
+    }
+
+    @Test
+    public void matchesFloatMergeThenCropAndScale() {
+        Random random = new Random(7);
+        float[][] owner = randomMask(random);
+        float[][][] members = {randomMask(random), randomMask(random)};
+        int[][] memberBoxes = {{10, 12, 40, 50}, {30, 5, 70, 33}};
+        int x1 = 8, y1 = 5, x2 = 70, y2 = 60;
+
+        // reference: in-place float merge over inclusive member boxes, then crop + scale
+        float[][] merged = new float[SIZE][];
+        for (int y = 0; y < SIZE; y++) {
+            merged[y] = owner[y].clone();
+        }
+        for (int k = 0; k < members.length; k++) {
+            int[] box = memberBoxes[k];
+            for (int y = box[1]; y <= box[3]; y++) {
+                for (int x = box[0]; x <= box[2]; x++) {
+                    merged[y][x] = Math.max(merged[y][x], members[k][y][x]);
+                }
+            }
+        }
+        byte[] expected = PostProcessor.scaleMask(PostProcessor.cropMask(flat(merged), 0, SIZE, x1, y1, x2, y2),
+                x2 - x1, y2 - y1, 150, 97);
+
+        float[] probs = PostProcessor.flatten(new float[][][]{owner, members[0], members[1]});
+        int[] memberOffsets = {SIZE * SIZE, 2 * SIZE * SIZE};
+        InstanceMask mask = new InstanceMask(BinaryMask.fromMerged(probs, SIZE, 0, memberOffsets, memberBoxes, x1, y1, x2, y2), 150, 97);
+        byte[] actual = mask.toBytes();
+
+        assertArrayEquals(expected, actual);
+        for (int y = 0; y < mask.height; y++) {
+            for (int x = 0; x < mask.width; x++) {
+                assertEquals(actual[y * mask.width + x] == 1, mask.get(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void toPixelsMapsSetPixels() {
+        float[][] probs = new float[SIZE][SIZE];
+        probs[3][4] = 0.9F;
+        InstanceMask mask = new InstanceMask(BinaryMask.fromProbabilities(flat(probs), 0, SIZE, 4, 2, 6, 4), 2, 2);
+
+        assertArrayEquals(new int[]{0, 0, 7, 0}, mask.toPixels(7, 0));
+    }
+
+    @Test
+    public void resizeKeepsCropWindow() {
+        Random random = new Random(11);
+        InstanceMask mask = new InstanceMask(BinaryMask.fromProbabilities(flat(randomMask(random)), 0, SIZE, 10, 20, 70, 60), 120, 80);
+
+        assertArrayEquals(new InstanceMask(mask.roi, 300, 200).toBytes(), mask.resize(300, 200).toBytes());
+        // cropping then resizing by 2 = resizing by 2 then cropping the doubled window
+        assertArrayEquals(mask.resize(240, 160).crop(20, 40, 100, 60).toBytes(),
+                mask.crop(10, 20, 50, 30).resize(100, 60).toBytes());
+    }
+}
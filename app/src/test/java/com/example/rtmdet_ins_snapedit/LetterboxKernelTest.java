@@ -0,0 +1,129 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class LetterboxKernelTest {
+    private static final int PAD_VAL = 114;
+    private static final float[] MEAN = {103.53F, 116.28F, 123.675F};
+    private static final float[] STD = {57.375F, 57.12F, 58.395F};
+
+    private static int[] randomPixels(Random random, int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+
+    private static FloatBuffer directBuffer(int size) {
+        return ByteBuffer.allocateDirect(3 * size * size * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    // reference: 8-bit bilinear resize, as a resized bitmap would hold it
+    private static int[] resizeBilinear(int[] src, int width, int height, int newWidth, int newHeight) {
+        int[] dst = new int[newWidth * newHeight];
+        for (int y = 0; y < newHeight; y++) {
+            double fy = Math.max(0, (y + 0.5) * height / newHeight - 0.5);
+            int y0 = Math.min((int) fy, height - 1), y1 = Math.min(y0 + 1, height - 1);
+            double wy = fy - y0;
+            for (int x = 0; x < newWidth; x++) {
+                double fx = Math.max(0, (x + 0.5) * width / newWidth - 0.5);
+                int x0 = Math.min((int) fx, width - 1), x1 = Math.min(x0 + 1, width - 1);
+                double wx = fx - x0;
+                int pixel = 0xFF000000;
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    double v = (src[y0 * width + x0] >> shift & 255) * (1 - wx) * (1 - wy)
+                            + (src[y0 * width + x1] >> shift & 255) * wx * (1 - wy)
+                            + (src[y1 * width + x0] >> shift & 255) * (1 - wx) * wy
+                            + (src[y1 * width + x1] >> shift & 255) * wx * wy;
+                    pixel |= (int) Math.round(v) << shift;
+                }
+                dst[y * newWidth + x] = pixel;
+            }
+        }
+        return dst;
+    }
+
+    @Test
+    public void withoutResizeMatchesLetterbox() {
+        int size = 64, width = 50, height = 37;
+        int[] pixels = randomPixels(new Random(2), width, height);
+        int padX = (size - width) / 2, padY = (size - height) / 2;
+        FloatBuffer expected = directBuffer(size);
+        ImageKernels.letterbox(pixels, width, height, size, padX, padY, PAD_VAL, MEAN, STD, expected);
+
+        FloatBuffer actual = directBuffer(size);
+        new LetterboxKernel(size, PAD_VAL, MEAN, STD, null).run(pixels, width, height, width, height, padX, padY, actual, 0);
+
+        for (int i = 0; i < 3 * size * size; i++) {
+            assertEquals(expected.get(i), actual.get(i), 1e-5F);
+        }
+    }
+
+    @Test
+    public void downscaleMatchesBilinearThenNormalize() {
+        int size = 96, width = 301, height = 187;
+        int newWidth = size, newHeight = (int) ((float) size * height / width);
+        int padY = (size - newHeight) / 2;
+        int[] pixels = randomPixels(new Random(3), width, height);
+        FloatBuffer expected = directBuffer(size);
+        ImageKernels.letterbox(resizeBilinear(pixels, width, height, newWidth, newHeight), newWidth, newHeight,
+                size, 0, padY, PAD_VAL, MEAN, STD, expected);
+
+        FloatBuffer actual = directBuffer(size);
+        new LetterboxKernel(size, PAD_VAL, MEAN, STD, null).run(pixels, width, height, newWidth, newHeight, 0, padY, actual, 0);
+
+        // within half an 8-bit step of the rounded reference
+        for (int i = 0; i < 3 * size * size; i++) {
+            assertEquals(expected.get(i), actual.get(i), 0.51F / 57F);
+        }
+    }
+
+    @Test
+    public void parallelBandsMatchSerial() {
+        int size = 320, width = 640, height = 480;
+        int newHeight = size * height / width, padY = (size - newHeight) / 2;
+        int[] pixels = randomPixels(new Random(4), width, height);
+        FloatBuffer serial = directBuffer(size);
+        new LetterboxKernel(size, PAD_VAL, MEAN, STD, null).run(pixels, width, height, size, newHeight, 0, padY, serial, 0);
+
+        FloatBuffer parallel = directBuffer(size);
+        new LetterboxKernel(size, PAD_VAL, MEAN, STD, new ForkJoinPool(4)).run(pixels, width, height, size, newHeight, 0, padY, parallel, 0);
+
+        for (int i = 0; i < 3 * size * size; i++) {
+            assertEquals(serial.get(i), parallel.get(i), 0F);
+        }
+    }
+
+    @Test
+    public void reusedKernelMatchesFreshOne() {
+        int size = 128;
+        LetterboxKernel reused = new LetterboxKernel(size, PAD_VAL, MEAN, STD, new ForkJoinPool(4));
+        FloatBuffer[] outputs = {directBuffer(size), directBuffer(size), directBuffer(size)};
+        int[][] frames = {{300, 200}, {90, 120}, {640, 480}, {200, 300}, {50, 50}};
+        Random random = new Random(5);
+        for (int f = 0; f < frames.length; f++) {
+            int width = frames[f][0], height = frames[f][1];
+            int[] pixels = randomPixels(random, width, height);
+            int[] newSize = LetterboxKernel.fitSize(width, height, size);
+            int padX = (size - newSize[0]) / 2, padY = (size - newSize[1]) / 2;
+            FloatBuffer expected = directBuffer(size);
+            new LetterboxKernel(size, PAD_VAL, MEAN, STD, null).run(pixels, width, height, newSize[0], newSize[1], padX, padY, expected, 0);
+
+            // cycling through more outputs than the kernel keeps views of
+            FloatBuffer actual = outputs[f % outputs.length];
+            reused.run(pixels, width, height, newSize[0], newSize[1], padX, padY, actual, 0);
+            for (int i = 0; i < 3 * size * size; i++) {
+                assertEquals(expected.get(i), actual.get(i), 0F);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class MaskCompositorTest {
+
+    // random mask predicted at half the box resolution
+    private static InstanceMask randomMask(Random random, int width, int height) {
+        int roiW = (width + 1) / 2, roiH = (height + 1) / 2;
+        float[] probs = new float[roiW * roiH];
+        for (int i = 0; i < probs.length; i++) {
+            probs[i] = random.nextFloat();
+        }
+        return new InstanceMask(BinaryMask.fromProbabilities(probs, 0, roiW, 0, 0, roiW, roiH), width, height);
+    }
+
+    // source-over of color at opacity, one instance at a time
+    private static int[] reference(int[] image, int width, List<int[]> boxes, List<InstanceMask> masks, int color, float opacity) {
+        int[] pixels = image.clone();
+        for (int i = 0; i < masks.size(); i++) {
+            int[] box = boxes.get(i);
+            byte[] mask = masks.get(i).toBytes();
+            int maskWidth = masks.get(i).width;
+            for (int k = 0; k < mask.length; k++) {
+                if (mask[k] == 0) {
+                    continue;
+                }
+                int idx = (box[1] + k / maskWidth) * width + box[0] + k % maskWidth;
+                int dst = pixels[idx];
+                int result = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    float src = shift == 24 ? 255F : color >> shift & 255;
+                    result |= Math.round(src * opacity + (dst >>> shift & 255) * (1F - opacity)) << shift;
+                }
+                pixels[idx] = result;
+            }
+        }
+        return pixels;
+    }
+
+    @Test
+    public void matchesSequentialSourceOver() {
+        Random random = new Random(7);
+        int width = 300, height = 200;
+        int[] image = new int[width * height];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = random.nextInt();
+        }
+        // overlapping instances: later ones are drawn over earlier ones
+        List<int[]> boxes = new ArrayList<>(Arrays.asList(new int[]{10, 10, 150, 190}, new int[]{100, 50, 290, 120}, new int[]{0, 0, 300, 200}));
+        List<InstanceMask> masks = new ArrayList<>();
+        for (int[] box : boxes) {
+            masks.add(randomMask(random, box[2] - box[0], box[3] - box[1]));
+        }
+        int color = 0xFF8020;
+        int[] expected = reference(image, width, boxes, masks, color, 0.6F);
+
+        int[] serial = image.clone();
+        new MaskCompositor(color, 0.6F, null).composite(serial, width, height, boxes, masks);
+        int[] parallel = image.clone();
+        new MaskCompositor(color, 0.6F, ForkJoinPool.commonPool()).composite(parallel, width, height, boxes, masks);
+
+        assertArrayEquals(serial, parallel);
+        for (int i = 0; i < expected.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                assertEquals(expected[i] >>> shift & 255, serial[i] >>> shift & 255, 1);
+            }
+        }
+        assertArrayEquals(new int[]{10, 10, 150, 190}, boxes.get(0));
+    }
+
+    @Test
+    public void clipsBoxesToImage() {
+        int[] pixels = new int[10 * 10];
+        Arrays.fill(pixels, 0xFF000000);
+        InstanceMask full = new InstanceMask(BinaryMask.fromProbabilities(new float[]{1F}, 0, 1, 0, 0, 1, 1), 8, 8);
+        List<int[]> boxes = new ArrayList<>(Arrays.asList(new int[]{6, -2, 14, 6}));
+        new MaskCompositor(0xFFFFFF, 1F, null).composite(pixels, 10, 10, boxes, new ArrayList<>(Arrays.asList(full)));
+        for (int y = 0; y < 10; y++) {
+            for (int x = 0; x < 10; x++) {
+                assertEquals(x >= 6 && y < 6 ? 0xFFFFFFFF : 0xFF000000, pixels[y * 10 + x]);
+            }
+        }
+    }
+}
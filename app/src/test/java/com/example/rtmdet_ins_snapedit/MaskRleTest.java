@@ -0,0 +1,128 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MaskRleTest {
+
+    // random mask predicted at half the box resolution
+    private static InstanceMask randomMask(Random random, int width, int height) {
+        int roiW = (width + 1) / 2, roiH = (height + 1) / 2;
+        float[] probs = new float[roiW * roiH];
+        for (int i = 0; i < probs.length; i++) {
+            probs[i] = random.nextFloat();
+        }
+        return new InstanceMask(BinaryMask.fromProbabilities(probs, 0, roiW, 0, 0, roiW, roiH), width, height);
+    }
+
+    private static void assertSameMask(InstanceMask expected, InstanceMask actual) {
+        assertEquals(expected.width, actual.width);
+        assertEquals(expected.height, actual.height);
+        assertArrayEquals(expected.toBytes(), actual.toBytes());
+    }
+
+    @Test
+    public void encodesColumnMajorOverImage() {
+        // 3 x 2 box at (1, 1) in a 4 x 4 image, set pixels (1, 1), (2, 1), (2, 2)
+        long[] bits = {0b011, 0b010};
+        InstanceMask mask = new InstanceMask(new BinaryMask(0, 0, 3, 2, bits), 3, 2);
+        int[] counts = MaskRle.encode(mask, 1, 1, 4, 4);
+        // column 0: 4 zeros; column 1: 1 zero, (1, 1), 2 zeros; column 2: 1 zero, (2, 1), (2, 2), 1 zero; column 3: 4 zeros
+        assertArrayEquals(new int[]{5, 1, 3, 2, 5}, counts);
+        assertSameMask(mask, MaskRle.decode(counts, 4, 1, 1, 4, 3));
+
+        assertArrayEquals(new int[]{16}, MaskRle.encode(mask, 10, 10, 4, 4));
+    }
+
+    @Test
+    public void compressedCountsMatchCoco() {
+        // deltas to the run two before from the fourth run on: 5, 3, 10, -1
+        assertEquals("53:O", MaskRle.toString(new int[]{5, 3, 10, 2}));
+        int[] counts = {0, 1000000, 7, 123456, 1, 1, 64, 65};
+        assertArrayEquals(counts, MaskRle.fromString(MaskRle.toString(counts)));
+    }
+
+    @Test
+    public void roundTripsScaledAndClippedMasks() {
+        Random random = new Random(3);
+        InstanceMask mask = randomMask(random, 37, 23);
+        int[] counts = MaskRle.encode(mask, 5, 9, 60, 40);
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        assertEquals(60 * 40, total);
+        assertSameMask(mask, MaskRle.decode(MaskRle.fromString(MaskRle.toString(counts)), 40, 5, 9, 42, 32));
+
+        // box sticking out of the image: the visible part only
+        int[] clipped = MaskRle.encode(mask, 40, 30, 60, 40);
+        InstanceMask decoded = MaskRle.decode(clipped, 40, 40, 30, 77, 53);
+        for (int y = 0; y < 23; y++) {
+            for (int x = 0; x < 37; x++) {
+                assertEquals(x < 20 && y < 10 && mask.get(x, y), decoded.get(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void writerAndReaderRoundTrip() throws Exception {
+        Random random = new Random(5);
+        HashMap<Integer, String> classes = new HashMap<>();
+        classes.put(0, "person");
+        classes.put(1, "cat");
+        ArrayList<PostProcessor.Result> results = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            int n = r * 2;
+            int[][] boxes = new int[n][];
+            InstanceMask[] masks = new InstanceMask[n];
+            float[] scores = new float[n];
+            int[] labels = new int[n];
+            for (int i = 0; i < n; i++) {
+                int x = random.nextInt(50), y = random.nextInt(30);
+                int w = 1 + random.nextInt(40), h = 1 + random.nextInt(30);
+                boxes[i] = new int[]{x, y, x + w, y + h};
+                masks[i] = randomMask(random, w, h);
+                scores[i] = random.nextFloat();
+                labels[i] = i % 2;
+            }
+            results.add(new PostProcessor.Result(boxes, r == 1 ? null : masks, scores, labels));
+        }
+
+        for (ResultWriter.Format format : ResultWriter.Format.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (ResultWriter writer = new ResultWriter(out, format)) {
+                for (int r = 0; r < results.size(); r++) {
+                    writer.write("img \"" + r + "\\.jpg", results.get(r), 100, 80);
+                }
+            }
+            try (ResultReader reader = new ResultReader(new ByteArrayInputStream(out.toByteArray()), format, classes)) {
+                for (int r = 0; r < results.size(); r++) {
+                    PostProcessor.Result expected = results.get(r);
+                    ResultReader.Record record = reader.read();
+                    assertEquals("img \"" + r + "\\.jpg", record.imageId);
+                    assertEquals(100, record.imageWidth);
+                    assertEquals(80, record.imageHeight);
+                    ObjectDetector.DetectionResult actual = record.result;
+                    assertEquals(expected.size(), actual.boxes.size());
+                    assertEquals(expected.masks != null || expected.size() == 0, actual.hasMasks() || actual.boxes.isEmpty());
+                    for (int i = 0; i < expected.size(); i++) {
+                        assertArrayEquals(expected.boxes[i], actual.boxes.get(i));
+                        assertEquals(expected.scores[i], actual.scores.get(i), 0F);
+                        assertEquals(classes.get(expected.labels[i]), actual.labels.get(i));
+                        if (expected.masks != null) {
+                            assertSameMask(expected.masks[i], actual.masks.get(i));
+                        }
+                    }
+                }
+                assertNull(reader.read());
+            }
+        }
+    }
+}
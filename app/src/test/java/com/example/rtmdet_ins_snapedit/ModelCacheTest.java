@@ -0,0 +1,83 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ModelCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void write(File file, String content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes("UTF-8"));
+        }
+    }
+
+    @Test
+    public void keysDependOnModelAndOptions() throws IOException {
+        String hash = ModelCache.sha256(new ByteArrayInputStream("abc".getBytes("UTF-8")));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", hash);
+
+        String other = ModelCache.sha256(new ByteArrayInputStream("abd".getBytes("UTF-8")));
+        assertEquals(ModelCache.key(hash, "cpu"), ModelCache.key(hash, "cpu"));
+        assertNotEquals(ModelCache.key(hash, "cpu"), ModelCache.key(hash, "nnapi:fp16"));
+        assertNotEquals(ModelCache.key(hash, "cpu"), ModelCache.key(other, "cpu"));
+    }
+
+    @Test
+    public void publishesCompleteFilesOnlyAndTrimsOldest() throws IOException {
+        ModelCache cache = new ModelCache(folder.getRoot(), 2);
+        assertNull(cache.get("a"));
+
+        File temp = cache.tempFile("a");
+        write(temp, "model a");
+        assertNull(cache.get("a"));
+        File a = cache.commit("a", temp);
+        assertEquals(a, cache.get("a"));
+        assertFalse(temp.exists());
+
+        // nothing written: nothing published
+        assertNull(cache.commit("b", cache.tempFile("b")));
+        assertNull(cache.get("b"));
+
+        a.setLastModified(1000);
+        temp = cache.tempFile("b");
+        write(temp, "model b");
+        cache.commit("b", temp).setLastModified(2000);
+        temp = cache.tempFile("c");
+        write(temp, "model c");
+        cache.commit("c", temp);
+
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void remembersHashesUntilTheStampChanges() {
+        ModelCache cache = new ModelCache(folder.getRoot(), 2);
+        assertNull(cache.getHash("model", "100"));
+
+        cache.putHash("model", "100", "abc");
+        cache.putHash("other", "100", "def");
+        // read back from the file by another instance, e.g. on the next launch
+        ModelCache next = new ModelCache(folder.getRoot(), 2);
+        assertEquals("abc", next.getHash("model", "100"));
+        assertEquals("def", next.getHash("other", "100"));
+        assertNull(next.getHash("model", "10"));
+
+        // app updated: hashed again and replaced
+        assertNull(next.getHash("model", "200"));
+        next.putHash("model", "200", "abd");
+        assertEquals("abd", cache.getHash("model", "200"));
+        assertNull(cache.getHash("model", "100"));
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class ModelRegistryTest {
+    private static final long MB = 1L << 20;
+    private static final long MS = 1000L * 1000;
+
+    private static final ModelRegistry.ModelSpec SMALL = new ModelRegistry.ModelSpec("s_640", 1, 2, 640, 0.3F, 0.2F, 60 * MB, 200 * MS);
+    private static final ModelRegistry.ModelSpec LARGE = new ModelRegistry.ModelSpec("tiny_800", 1, 3, 800, 0.3F, 0.2F, 80 * MB, 300 * MS);
+
+    private static class FakeModel implements AutoCloseable {
+        final ModelRegistry.ModelSpec spec;
+        boolean closed;
+
+        FakeModel(ModelRegistry.ModelSpec spec) {
+            this.spec = spec;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static class FakeLoader implements ModelRegistry.Loader<FakeModel> {
+        final List<FakeModel> loaded = new ArrayList<>();
+
+        @Override
+        public CompletableFuture<FakeModel> load(ModelRegistry.ModelSpec spec) {
+            FakeModel model = new FakeModel(spec);
+            loaded.add(model);
+            return CompletableFuture.completedFuture(model);
+        }
+    }
+
+    @Test
+    public void selectsMostDetailWithinLatencyBudget() {
+        ModelRegistry<FakeModel> registry = new ModelRegistry<>(Arrays.asList(SMALL, LARGE), new FakeLoader(), 200 * MB, 1000 * MS);
+
+        assertSame(LARGE, registry.select(400 * MS, 1200, 900));
+        assertSame(SMALL, registry.select(250 * MS, 1200, 900));
+        assertSame(SMALL, registry.select(100 * MS, 1200, 900));     // nothing fits: the fastest
+        assertSame(SMALL, registry.select(400 * MS, 600, 400));      // no detail to gain from 800
+
+        // measured on the device: the large one turns out too slow
+        for (int i = 0; i < ModelRegistry.MIN_LATENCY_SAMPLES; i++) {
+            registry.recordLatency(LARGE, 500 * MS);
+        }
+        assertSame(SMALL, registry.select(400 * MS, 1200, 900));
+    }
+
+    @Test
+    public void loadsLazilyAndEvictsIdleUnderBudget() throws Exception {
+        FakeLoader loader = new FakeLoader();
+        ModelRegistry<FakeModel> registry = new ModelRegistry<>(Arrays.asList(SMALL, LARGE), loader, 100 * MB, 1000 * MS);
+        assertEquals(0, registry.getLoadedBytes());
+
+        ModelRegistry.Lease<FakeModel> small = registry.acquire(SMALL).get();
+        ModelRegistry.Lease<FakeModel> again = registry.acquire(SMALL).get();
+        assertSame(small.get(), again.get());
+        assertEquals(1, loader.loaded.size());
+
+        // both models over budget, but the small one is in use
+        ModelRegistry.Lease<FakeModel> large = registry.acquire(LARGE).get();
+        assertFalse(small.get().closed);
+        assertEquals(140 * MB, registry.getLoadedBytes());
+        small.close();
+        assertFalse(loader.loaded.get(0).closed);
+        again.close();
+        // back under budget as soon as the small one is returned
+        assertTrue(loader.loaded.get(0).closed);
+        large.close();
+
+        assertEquals(1, registry.trim());
+        assertTrue(loader.loaded.get(1).closed);
+        assertEquals(0, registry.getLoadedBytes());
+
+        // loading the large one makes room by closing the idle small one
+        registry.acquire(SMALL).get().close();
+        ModelRegistry.Lease<FakeModel> largeAgain = registry.acquire(LARGE).get();
+        assertTrue(loader.loaded.get(2).closed);
+        assertFalse(registry.isLoaded(SMALL));
+        assertEquals(80 * MB, registry.getLoadedBytes());
+
+        largeAgain.close();
+        assertEquals(0, registry.evictIdle(System.nanoTime()));
+        assertEquals(1, registry.evictIdle(System.nanoTime() + 2000 * MS));
+        assertTrue(loader.loaded.get(3).closed);
+        registry.close();
+    }
+
+    @Test
+    public void closeWaitsForLeases() throws Exception {
+        FakeLoader loader = new FakeLoader();
+        ModelRegistry<FakeModel> registry = new ModelRegistry<>(Arrays.asList(SMALL, LARGE), loader, 200 * MB, 1000 * MS);
+        registry.acquire(SMALL).get().close();
+        ModelRegistry.Lease<FakeModel> large = registry.acquire(LARGE).get();
+
+        registry.close();
+        assertTrue(loader.loaded.get(0).closed);
+        assertFalse(large.get().closed);     // still in use
+
+        large.close();
+        assertTrue(loader.loaded.get(1).closed);
+        assertEquals(0, registry.getLoadedBytes());
+    }
+
+    @Test
+    public void evictsOverBudgetOnceReturned() throws Exception {
+        FakeLoader loader = new FakeLoader();
+        ModelRegistry<FakeModel> registry = new ModelRegistry<>(Arrays.asList(SMALL, LARGE), loader, 100 * MB, 1000 * MS);
+        ModelRegistry.Lease<FakeModel> small = registry.acquire(SMALL).get();
+        // switching models while the small one is still in use
+        ModelRegistry.Lease<FakeModel> large = registry.acquire(LARGE).get();
+        assertEquals(140 * MB, registry.getLoadedBytes());
+
+        small.close();
+        assertTrue(loader.loaded.get(0).closed);
+        assertFalse(registry.isLoaded(SMALL));
+        assertFalse(large.get().closed);
+        assertEquals(80 * MB, registry.getLoadedBytes());
+        large.close();
+        assertTrue(registry.isLoaded(LARGE));     // within budget
+        registry.close();
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class PostProcessorTest {
+    private static final int INFER_SIZE = 64;
+
+    private static float[][] rectMask(int x1, int y1, int x2, int y2) {
+        float[][] mask = new float[INFER_SIZE][INFER_SIZE];
+        for (int y = y1; y < y2; y++) {
+            for (int x = x1; x < x2; x++) {
+                mask[y][x] = 0.9F;
+            }
+        }
+        return mask;
+    }
+
+    @Test
+    public void filtersLowScoresWithPersonSpecialCase() {
+        PostProcessor postProcessor = new PostProcessor(INFER_SIZE, 0.5F, 0.2F);
+        int[][] boxes = {{2, 2, 20, 20}, {30, 30, 50, 50}, {40, 2, 60, 20}};
+        float[] scores = {0.3F, 0.3F, 0.6F};
+        long[] labels = {0, 1, 1};
+        float[][][] masks = {rectMask(2, 2, 20, 20), rectMask(30, 30, 50, 50), rectMask(40, 2, 60, 20)};
+
+        PostProcessor.Result result = postProcessor.process(boxes, scores, labels, masks, INFER_SIZE, INFER_SIZE, 0, 0);
+
+        assertEquals(2, result.size());
+        assertEquals(0, result.labels[0]);
+        assertEquals(1, result.labels[1]);
+        assertEquals(0.6F, result.scores[1], 0F);
+    }
+
+    @Test
+    public void mergesDuplicatesIntoHigherScore() {
+        PostProcessor postProcessor = new PostProcessor(INFER_SIZE, 0.3F, 0.3F);
+        int[][] boxes = {{10, 10, 40, 40}, {11, 10, 41, 40}};
+        float[] scores = {0.5F, 0.8F};
+        long[] labels = {2, 2};
+        float[][][] masks = {rectMask(10, 10, 40, 40), rectMask(11, 10, 41, 40)};
+
+        PostProcessor.Result result = postProcessor.process(boxes, scores, labels, masks, INFER_SIZE, INFER_SIZE, 0, 0);
+
+        assertEquals(1, result.size());
+        assertEquals(0.8F, result.scores[0], 0F);
+        assertArrayEquals(new int[]{10, 10, 41, 40}, result.boxes[0]);
+        byte[] mask = result.masks[0].toBytes();
+        assertEquals(31 * 30, mask.length);
+        for (byte v : mask) {
+            assertEquals(1, v);
+        }
+    }
+
+    @Test
+    public void keepsDisjointInstances() {
+        PostProcessor postProcessor = new PostProcessor(INFER_SIZE, 0.3F, 0.3F);
+        int[][] boxes = {{0, 0, 20, 20}, {30, 30, 60, 60}};
+        float[] scores = {0.9F, 0.8F};
+        long[] labels = {1, 1};
+        float[][][] masks = {rectMask(0, 0, 20, 20), rectMask(30, 30, 60, 60)};
+
+        PostProcessor.Result result = postProcessor.process(boxes, scores, labels, masks, INFER_SIZE, INFER_SIZE, 0, 0);
+
+        assertEquals(2, result.size());
+    }
+
+    @Test
+    public void rescalesToOriginalImageAndDropsSmallBoxes() {
+        // 128x64 image letterboxed into 64x64: scale 0.5, padY = 16
+        PostProcessor postProcessor = new PostProcessor(INFER_SIZE, 0.3F, 0.3F);
+        int[][] boxes = {{0, 10, 32, 40}, {50, 30, 53, 33}};
+        float[] scores = {0.9F, 0.9F};
+        long[] labels = {1, 1};
+        float[][][] masks = {rectMask(0, 16, 32, 40), rectMask(50, 30, 53, 33)};
+
+        PostProcessor.Result result = postProcessor.process(boxes, scores, labels, masks, 128, 64, 0, 16);
+
+        assertEquals(1, result.size());
+        assertArrayEquals(new int[]{0, 0, 64, 48}, result.boxes[0]);
+        assertEquals(64 * 48, result.masks[0].toBytes().length);
+    }
+
+    @Test
+    public void skipsMasksOnRequest() {
+        PostProcessor postProcessor = new PostProcessor(INFER_SIZE, 0.3F, 0.3F);
+        int[][] boxes = {{0, 0, 20, 20}, {30, 30, 60, 60}};
+        float[] scores = {0.9F, 0.8F};
+        long[] labels = {1, 1};
+        float[][][] masks = {rectMask(0, 0, 20, 20), rectMask(30, 30, 60, 60)};
+
+        PostProcessor.Result result = postProcessor.process(boxes, scores, labels, PostProcessor.flatten(masks), 0, INFER_SIZE, INFER_SIZE, 0, 0, false);
+
+        assertEquals(2, result.size());
+        assertNull(result.masks);
+    }
+
+    @Test
+    public void ranksTopCandidatesByScore() {
+        float[] scores = {0.2F, 0.9F, 0.5F, 0.9F, 0.7F, 0.1F};
+        boolean[] isSkipped = {false, false, false, false, true, false};
+
+        assertArrayEquals(new int[]{1, 3, 2}, PostProcessor.rankCandidates(scores, isSkipped, 3));
+        assertArrayEquals(new int[]{1, 3, 2, 0, 5}, PostProcessor.rankCandidates(scores, isSkipped, 10));
+    }
+
+    @Test
+    public void perClassThresholdsFromClassesFile() {
+        List<String> names = new ArrayList<>();
+        float[] thresholds = PostProcessor.parseClasses(Arrays.asList("person", "car,0.6", "a, b", "dog, 0.1"), names);
+        assertEquals(Arrays.asList("person", "car", "a, b", "dog"), names);
+
+        PostProcessor postProcessor = new PostProcessor(INFER_SIZE, 0.5F, 0.2F);
+        postProcessor.setClassThresholds(thresholds);
+        assertTrue(postProcessor.isCandidate(0.3F, 0));     // person default
+        assertFalse(postProcessor.isCandidate(0.55F, 1));
+        assertTrue(postProcessor.isCandidate(0.55F, 2));    // common default
+        assertTrue(postProcessor.isCandidate(0.15F, 3));
+        assertFalse(postProcessor.isCandidate(0.45F, 7));   // not in the file
+    }
+
+    @Test
+    public void stopsAtMaxDetectionsByScore() {
+        PostProcessor postProcessor = new PostProcessor(INFER_SIZE, 0.3F, 0.3F);
+        postProcessor.setLimits(10, 2);
+        int[][] boxes = {{0, 0, 20, 20}, {30, 30, 60, 60}, {0, 40, 20, 60}, {1, 0, 21, 20}};
+        float[] scores = {0.5F, 0.8F, 0.6F, 0.9F};
+        long[] labels = {1, 1, 1, 1};
+        float[][][] masks = {rectMask(0, 0, 20, 20), rectMask(30, 30, 60, 60), rectMask(0, 40, 20, 60), rectMask(1, 0, 21, 20)};
+
+        PostProcessor.Result result = postProcessor.process(boxes, scores, labels, masks, INFER_SIZE, INFER_SIZE, 0, 0);
+
+        // the duplicate of 3 is merged into it, 2 is past the limit; model order is kept
+        assertEquals(2, result.size());
+        assertEquals(0.8F, result.scores[0], 0F);
+        assertEquals(0.9F, result.scores[1], 0F);
+        assertArrayEquals(new int[]{0, 0, 21, 20}, result.boxes[1]);
+    }
+
+    @Test
+    public void parallelFinalizationMatchesSerial() {
+        Random random = new Random(3);
+        int n = 60;
+        int[][] boxes = new int[n][];
+        float[] scores = new float[n];
+        long[] labels = new long[n];
+        float[][][] masks = new float[n][][];
+        for (int i = 0; i < n; i++) {
+            int x1 = random.nextInt(INFER_SIZE - 12), y1 = random.nextInt(INFER_SIZE - 12);
+            int x2 = x1 + 4 + random.nextInt(INFER_SIZE - x1 - 4), y2 = y1 + 4 + random.nextInt(INFER_SIZE - y1 - 4);
+            boxes[i] = new int[]{x1, y1, x2, y2};
+            scores[i] = random.nextFloat();
+            labels[i] = random.nextInt(3);
+            masks[i] = rectMask(x1 + 1, y1 + 1, x2 - 1, y2 - 1);
+        }
+        float[] flat = PostProcessor.flatten(masks);
+
+        PostProcessor.Result serial = new PostProcessor(INFER_SIZE, 0.2F, 0.2F)
+                .process(copy(boxes), scores, labels, flat, 0, 96, 80, 0, 5, true);
+        PostProcessor.Result parallel = new PostProcessor(INFER_SIZE, 0.2F, 0.2F, new DetectorMetrics(), new ForkJoinPool(4))
+                .process(copy(boxes), scores, labels, flat, 0, 96, 80, 0, 5, true);
+
+        assertTrue(serial.size() > 2 * PostProcessor.MIN_BATCH);
+        assertEquals(serial.size(), parallel.size());
+        for (int k = 0; k < serial.size(); k++) {
+            assertArrayEquals(serial.boxes[k], parallel.boxes[k]);
+            assertEquals(serial.scores[k], parallel.scores[k], 0F);
+            assertEquals(serial.labels[k], parallel.labels[k]);
+            assertArrayEquals(serial.masks[k].toBytes(), parallel.masks[k].toBytes());
+        }
+    }
+
+    private static int[][] copy(int[][] boxes) {
+        int[][] copy = new int[boxes.length][];
+        for (int i = 0; i < boxes.length; i++) {
+            copy[i] = boxes[i].clone();
+        }
+        return copy;
+    }
+
+    @Test
+    public void scaleMaskSamplesPixelCenters() {
+        byte[] mask = {0, 1,
+                       1, 0};
+        byte[] scaled = PostProcessor.scaleMask(mask, 2, 2, 4, 4);
+        assertArrayEquals(new byte[]{0, 0, 1, 1,
+                                     0, 0, 1, 1,
+                                     1, 1, 0, 0,
+                                     1, 1, 0, 0}, scaled);
+    }
+
+    @Test
+    public void boxIoU() {
+        assertEquals(1F, PostProcessor.calcBoxIoU(new int[]{0, 0, 9, 9}, new int[]{0, 0, 9, 9}), 1e-6F);
+        assertEquals(0F, PostProcessor.calcBoxIoU(new int[]{0, 0, 9, 9}, new int[]{10, 10, 19, 19}), 0F);
+        assertEquals(50F / 150F, PostProcessor.calcBoxIoU(new int[]{0, 0, 9, 9}, new int[]{5, 0, 14, 9}), 1e-6F);
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtSession;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class ProfileTunerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static SessionProfile cpu(String name, int threads) {
+        return new SessionProfile(name, Collections.singletonList(SessionProfile.Provider.CPU), threads, 1,
+                OrtSession.SessionOptions.OptLevel.ALL_OPT, true, true);
+    }
+
+    // trials sleeping 1 ms per thread, so fewer threads is faster; "broken" can not be opened
+    private static class FakeTrials implements ProfileTuner.TrialFactory {
+        final List<String> opened = new ArrayList<>();
+
+        @Override
+        public ProfileTuner.Trial open(final SessionProfile profile) throws Exception {
+            if (profile.name.equals("broken")) {
+                throw new IllegalStateException("provider not available");
+            }
+            opened.add(profile.name);
+            return new ProfileTuner.Trial() {
+                @Override
+                public void runOnce() throws InterruptedException {
+                    Thread.sleep(profile.intraOpThreads);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    @Test
+    public void picksFastestUsableProfileAndCachesIt() {
+        List<SessionProfile> candidates = Arrays.asList(cpu("slow", 8), cpu("broken", 1), cpu("fast", 2), cpu("medium", 4));
+        File cacheFile = new File(folder.getRoot(), "profiles.properties");
+
+        FakeTrials trials = new FakeTrials();
+        ProfileTuner tuner = new ProfileTuner(trials, 1, 3);
+        assertEquals("fast", tuner.tune(candidates, cacheFile, "model@device").name);
+        assertEquals(Arrays.asList("slow", "fast", "medium"), trials.opened);
+        assertEquals(3, tuner.getMedians().size());
+        assertFalse(tuner.getMedians().containsKey("broken"));
+
+        // cached: nothing is timed again
+        FakeTrials again = new FakeTrials();
+        assertEquals("fast", new ProfileTuner(again, 1, 3).tune(candidates, cacheFile, "model@device").name);
+        assertTrue(again.opened.isEmpty());
+
+        // another key is tuned on its own
+        assertEquals("fast", new ProfileTuner(again, 0, 1).tune(candidates, cacheFile, "model@other").name);
+        assertEquals(3, again.opened.size());
+    }
+
+    @Test
+    public void candidatesCoverThreadCounts() {
+        List<SessionProfile> candidates = SessionProfile.candidates(6, false);
+        List<String> names = new ArrayList<>();
+        for (SessionProfile profile : candidates) {
+            names.add(profile.name);
+        }
+        assertEquals(Arrays.asList("cpu-1", "xnnpack-1", "cpu-2", "xnnpack-2", "cpu-4", "xnnpack-4", "cpu-6", "xnnpack-6"), names);
+        assertEquals("nnapi-fp16", SessionProfile.candidates(1, true).get(0).name);
+        assertNotEquals(cpu("a", 1).key(), cpu("a", 2).key());
+    }
+
+    @Test
+    public void tunesRealCpuSessions() {
+        assumeTrue(TestModels.runtimeAvailable());
+        ProfileTuner tuner = new ProfileTuner(ProfileTuner.sessionTrials(OrtEnvironment.getEnvironment(), TestModels.relu(32), 32), 1, 3);
+
+        SessionProfile best = tuner.tune(Arrays.asList(cpu("cpu-1", 1), cpu("cpu-2", 2)));
+
+        assertNotNull(best);
+        assertEquals(2, tuner.getMedians().size());
+    }
+}
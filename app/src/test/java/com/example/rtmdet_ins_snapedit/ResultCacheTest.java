@@ -0,0 +1,99 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+
+    private static final ResultCache.Weigher<byte[]> LENGTH = new ResultCache.Weigher<byte[]>() {
+        @Override
+        public long bytes(byte[] value) {
+            return value.length;
+        }
+    };
+
+    @Test
+    public void evictsLeastRecentlyUsedOverBudget() {
+        ResultCache<byte[]> cache = new ResultCache<>(100, LENGTH);
+        cache.put("a", new byte[40]);
+        cache.put("b", new byte[40]);
+        assertNotNull(cache.get("a"));      // b is now the least recently used
+        cache.put("c", new byte[40]);
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(2, cache.size());
+        assertEquals(80, cache.getBytes());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // replacing an entry accounts for the new size only
+        cache.put("a", new byte[10]);
+        assertEquals(50, cache.getBytes());
+    }
+
+    @Test
+    public void skipsValueLargerThanBudget() {
+        ResultCache<byte[]> cache = new ResultCache<>(100, LENGTH);
+        cache.put("a", new byte[60]);
+        cache.put("b", new byte[101]);
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertEquals(60, cache.getBytes());
+    }
+
+    @Test
+    public void contentHashDependsOnEveryPixel() {
+        int[] pixels = new int[1000];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = i * 0x010203;
+        }
+        String digest = new ResultCache.ContentHash().update(pixels, 0, pixels.length).update("config").digest();
+        assertEquals(digest, new ResultCache.ContentHash().update(pixels, 0, 500).update(pixels, 500, 500).update("config").digest());
+        assertNotEquals(digest, new ResultCache.ContentHash().update(pixels, 0, pixels.length).update("config2").digest());
+
+        pixels[777] ^= 1;
+        assertNotEquals(digest, new ResultCache.ContentHash().update(pixels, 0, pixels.length).update("config").digest());
+        assertEquals(32, digest.length());
+    }
+
+    @Test
+    public void cropMatchesFullResultWindow() {
+        // 20 x 10 box at (30, 40) whose mask, predicted at half resolution, is a diagonal
+        int roiW = 10, roiH = 5;
+        float[] probs = new float[roiW * roiH];
+        for (int y = 0; y < roiH; y++) {
+            for (int x = 0; x <= y * 2; x++) {
+                probs[y * roiW + x] = 1F;
+            }
+        }
+        InstanceMask mask = new InstanceMask(BinaryMask.fromProbabilities(probs, 0, roiW, 0, 0, roiW, roiH), 20, 10);
+        ArrayList<int[]> boxes = new ArrayList<>(Arrays.asList(new int[]{30, 40, 50, 50}, new int[]{0, 0, 5, 5}));
+        ArrayList<InstanceMask> masks = new ArrayList<>(Arrays.asList(mask, mask));
+        ArrayList<Float> scores = new ArrayList<>(Arrays.asList(0.9F, 0.8F));
+        ArrayList<String> labels = new ArrayList<>(Arrays.asList("cat", "dog"));
+        ObjectDetector.DetectionResult full = new ObjectDetector.DetectionResult(boxes, masks, scores, labels);
+
+        // region [35, 100) x [42, 47): the first box is clipped, the second one is outside
+        ObjectDetector.DetectionResult region = full.crop(35, 42, 65, 5);
+        assertEquals(1, region.boxes.size());
+        assertArrayEquals(new int[]{0, 0, 15, 5}, region.boxes.get(0));
+        assertEquals("cat", region.labels.get(0));
+        InstanceMask cropped = region.masks.get(0);
+        assertEquals(15, cropped.width);
+        assertEquals(5, cropped.height);
+        for (int y = 0; y < 5; y++) {
+            for (int x = 0; x < 15; x++) {
+                assertEquals(mask.get(x + 5, y + 2), cropped.get(x, y));
+            }
+        }
+        byte[] bytes = cropped.toBytes();
+        assertEquals(mask.get(5 + 14, 2 + 4) ? 1 : 0, bytes[4 * 15 + 14]);
+        assertTrue(full.sizeInBytes() > 2 * mask.sizeInBytes());
+    }
+}
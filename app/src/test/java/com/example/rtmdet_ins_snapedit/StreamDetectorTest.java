@@ -0,0 +1,92 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class StreamDetectorTest {
+
+    // a frame is the x offset of a single 20 x 20 "person" moving right
+    private static ObjectDetector.DetectionResult detection(int x) {
+        float[] probs = new float[100 * 100];
+        Arrays.fill(probs, 1F);
+        InstanceMask mask = new InstanceMask(BinaryMask.fromProbabilities(probs, 0, 100, x, 10, x + 20, 30), 20, 20);
+        return new ObjectDetector.DetectionResult(
+                new ArrayList<>(Collections.singletonList(new int[]{x, 10, x + 20, 30})),
+                new ArrayList<>(Collections.singletonList(mask)),
+                new ArrayList<>(Collections.singletonList(0.9F)),
+                new ArrayList<>(Collections.singletonList("person")));
+    }
+
+    private static class FakeDetector implements StreamDetector.Detector<Integer> {
+        int calls;
+
+        @Override
+        public ObjectDetector.DetectionResult detect(Integer frame) {
+            calls++;
+            return detection(frame);
+        }
+    }
+
+    @Test
+    public void keyframeIntervalFitsBudget() {
+        assertEquals(1, StreamDetector.keyframeInterval(10, 1, 20, 1, 8));
+        // (40 + (K - 1) * 2) / K <= 10  ->  K >= 38 / 8
+        assertEquals(5, StreamDetector.keyframeInterval(40, 2, 10, 1, 8));
+        assertEquals(8, StreamDetector.keyframeInterval(400, 2, 10, 1, 8));
+        assertEquals(8, StreamDetector.keyframeInterval(40, 10, 10, 1, 8));
+    }
+
+    @Test
+    public void tracksBetweenKeyframes() throws Exception {
+        FakeDetector detector = new FakeDetector();
+        // zero budget: every keyframe is over it, so the interval is the maximum
+        StreamDetector<Integer> stream = new StreamDetector<>(detector, new InstanceTracker(0.3F, 1), 0, 1, 4);
+
+        int[] ids = new int[12];
+        for (int frame = 0; frame < 12; frame++) {
+            StreamDetector.Result result = stream.process(frame * 2, 100, 100);
+            assertEquals(frame % 4 == 0, result.keyframe);
+            assertEquals(1, result.detections.boxes.size());
+            ids[frame] = result.trackIds[0];
+            if (frame >= 4) {
+                // velocity known after the second keyframe: predictions follow the motion
+                assertEquals(frame * 2, result.detections.boxes.get(0)[0]);
+            }
+            assertEquals(20, result.detections.masks.get(0).width);
+        }
+        assertEquals(3, detector.calls);
+        for (int id : ids) {
+            assertEquals(ids[0], id);
+        }
+    }
+
+    @Test
+    public void newTrackForUnmatchedDetection() {
+        InstanceTracker tracker = new InstanceTracker(0.3F, 0);
+        int first = tracker.update(detection(0), 100, 100).get(0).id;
+        assertEquals(first, tracker.update(detection(2), 100, 100).get(0).id);
+        // far away: not the same instance, and the old track is dropped
+        ArrayList<InstanceTracker.Track> tracks = tracker.update(detection(70), 100, 100);
+        assertNotEquals(first, tracks.get(0).id);
+        assertEquals(1, tracker.getTracks().size());
+    }
+
+    @Test
+    public void predictionsStayInsideFrame() {
+        InstanceTracker tracker = new InstanceTracker(0.3F, 1);
+        tracker.update(detection(60), 100, 100);
+        tracker.predict();
+        tracker.update(detection(66), 100, 100);
+        int[] box = null;
+        for (int i = 0; i < 10; i++) {
+            box = tracker.predict().get(0).box;
+        }
+        assertEquals(80, box[0]);
+        assertEquals(100, box[2]);
+    }
+}
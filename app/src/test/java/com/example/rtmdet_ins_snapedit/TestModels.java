@@ -0,0 +1,84 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+
+import ai.onnxruntime.OrtEnvironment;
+
+/**
+ * Tiny ONNX models encoded by hand (protobuf wire format), to run real sessions in JVM tests.
+ */
+final class TestModels {
+
+    private TestModels() {
+    }
+
+    /**
+     * @return whether the runtime can be loaded here (desktop onnxruntime, not the Android artifact)
+     */
+    static boolean runtimeAvailable() {
+        try {
+            OrtEnvironment.getEnvironment();
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return model computing y = Relu(x), x and y float of shape (batch, 3, size, size) with a dynamic batch
+     */
+    static byte[] relu(int size) {
+        byte[] node = concat(string(1, "x"), string(2, "y"), string(4, "Relu"));
+        byte[] graph = concat(message(1, node), string(2, "relu"),
+                message(11, valueInfo("x", size)), message(12, valueInfo("y", size)));
+        byte[] opset = concat(string(1, ""), varint(2, 13));
+        return concat(varint(1, 7), message(7, graph), message(8, opset));
+    }
+
+    private static byte[] valueInfo(String name, int size) {
+        byte[] shape = concat(message(1, string(2, "batch")),
+                message(1, varint(1, 3)), message(1, varint(1, size)), message(1, varint(1, size)));
+        byte[] tensorType = concat(varint(1, 1), message(2, shape));    // elem_type 1 = float
+        return concat(string(1, name), message(2, message(1, tensorType)));
+    }
+
+    private static byte[] varint(int field, long value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, (long) field << 3);
+        writeVarint(out, value);
+        return out.toByteArray();
+    }
+
+    private static byte[] message(int field, byte[] content) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, (long) field << 3 | 2);
+        writeVarint(out, content.length);
+        out.write(content, 0, content.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] string(int field, String value) {
+        try {
+            return message(field, value.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TileStitcherTest {
+
+    // one detection per tile: a filled rectangle [x1, x2) x [y1, y2) in tile coordinates
+    private static PostProcessor.Result tileResult(int tileSize, float score, int label, int x1, int y1, int x2, int y2) {
+        float[] probs = new float[tileSize * tileSize];
+        for (int y = y1; y < y2; y++) {
+            Arrays.fill(probs, y * tileSize + x1, y * tileSize + x2, 1F);
+        }
+        BinaryMask roi = BinaryMask.fromProbabilities(probs, 0, tileSize, x1, y1, x2, y2);
+        return new PostProcessor.Result(new int[][]{{x1, y1, x2, y2}}, new InstanceMask[]{new InstanceMask(roi, x2 - x1, y2 - y1)},
+                new float[]{score}, new int[]{label});
+    }
+
+    @Test
+    public void tilesCoverImageWithOverlap() {
+        int width = 1000, height = 300, size = 256, overlap = 64;
+        int[][] tiles = TileStitcher.tiles(width, height, size, overlap);
+        int[] coverage = new int[width * height];
+        for (int[] tile : tiles) {
+            assertTrue(tile[2] <= size && tile[3] <= size);
+            for (int y = tile[1]; y < tile[1] + tile[3]; y++) {
+                for (int x = tile[0]; x < tile[0] + tile[2]; x++) {
+                    coverage[y * width + x]++;
+                }
+            }
+        }
+        for (int count : coverage) {
+            assertTrue(count > 0);
+        }
+        // columns at 0, 192, 384, 576, 744 and rows at 0, 44
+        assertEquals(10, tiles.length);
+        assertEquals(744, tiles[4][0]);
+        assertEquals(44, tiles[5][1]);
+
+        assertEquals(1, TileStitcher.tiles(200, 100, size, overlap).length);
+        assertArrayEquals(new int[]{0, 0, 200, 100}, TileStitcher.tiles(200, 100, size, overlap)[0]);
+    }
+
+    @Test
+    public void stitchesInstanceCutByTileBorder() {
+        // object at image x in [150, 230), tiles at x = 0 and x = 128 of size 200: the first tile sees it cut at 200
+        TileStitcher stitcher = new TileStitcher();
+        stitcher.add(tileResult(200, 0.6F, 0, 150, 20, 200, 60), 0, 0, 0, 0);
+        stitcher.add(tileResult(200, 0.9F, 0, 22, 20, 102, 60), 128, 0, 0, 0);
+        // another object in the second tile only
+        stitcher.add(tileResult(200, 0.8F, 2, 0, 150, 40, 190), 200, 0, 0, 0);
+
+        PostProcessor.Result result = stitcher.stitch();
+        assertEquals(2, result.size());
+        assertArrayEquals(new int[]{150, 20, 230, 60}, result.boxes[0]);
+        assertEquals(0.9F, result.scores[0], 0F);
+        InstanceMask mask = result.masks[0];
+        assertEquals(80, mask.width);
+        assertEquals(80 * 40, mask.roi.area);
+        assertTrue(mask.get(0, 0) && mask.get(79, 39));
+        assertArrayEquals(new int[]{200, 150, 240, 190}, result.boxes[1]);
+        assertEquals(2, result.labels[1]);
+    }
+
+    @Test
+    public void keepsSeparateObjectsAndSameTileDetections() {
+        TileStitcher stitcher = new TileStitcher();
+        // two touching objects of one tile were already kept apart by the post-processor
+        PostProcessor.Result first = tileResult(200, 0.9F, 0, 10, 10, 60, 60);
+        PostProcessor.Result second = tileResult(200, 0.8F, 0, 40, 10, 90, 60);
+        stitcher.add(new PostProcessor.Result(new int[][]{first.boxes[0], second.boxes[0]},
+                new InstanceMask[]{first.masks[0], second.masks[0]}, new float[]{0.9F, 0.8F}, new int[]{0, 0}), 0, 0, 0, 0);
+        // a different object far away in the neighbor tile
+        stitcher.add(tileResult(200, 0.7F, 0, 100, 100, 150, 150), 150, 0, 0, 0);
+        assertEquals(3, stitcher.stitch().size());
+    }
+
+    @Test
+    public void unionOfMasks() {
+        float[] probs = new float[100 * 100];
+        Arrays.fill(probs, 1F);
+        BinaryMask a = BinaryMask.fromProbabilities(probs, 0, 100, 0, 0, 70, 3);
+        BinaryMask b = BinaryMask.fromProbabilities(probs, 0, 100, 65, 2, 99, 5);
+        BinaryMask union = BinaryMask.union(new BinaryMask[]{a, b}, 0, 0, 99, 5);
+        assertEquals(70 * 3 + 34 * 3 - 5, union.area);
+        assertTrue(union.get(98, 4));
+        assertFalse(union.get(64, 4));
+        assertFalse(union.get(70, 1));
+        assertEquals(union.area, union.intersection(union));
+    }
+}
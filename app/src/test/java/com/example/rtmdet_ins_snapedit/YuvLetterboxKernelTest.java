@@ -0,0 +1,116 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class YuvLetterboxKernelTest {
+    private static final int PAD_VAL = 114;
+    private static final float[] MEAN = {103.53F, 116.28F, 123.675F};
+    private static final float[] STD = {57.375F, 57.12F, 58.395F};
+
+    // planar frame with padded rows, as a camera HAL may deliver it
+    private static YuvFrame i420(Random random, int width, int height) {
+        int rowStride = width + 8, uvRowStride = width / 2 + 4;
+        return new YuvFrame(width, height, randomBytes(random, rowStride * height, 60, 190),
+                randomBytes(random, uvRowStride * height / 2, 100, 156), randomBytes(random, uvRowStride * height / 2, 100, 156),
+                rowStride, 1, uvRowStride, 1);
+    }
+
+    // interleaved VU plane: U and V are views of the same buffer, one byte apart
+    private static YuvFrame nv21(Random random, int width, int height) {
+        ByteBuffer vu = randomBytes(random, width * height / 2, 100, 156);
+        ByteBuffer v = vu.duplicate();
+        vu.position(1);
+        ByteBuffer u = vu.slice();
+        return new YuvFrame(width, height, randomBytes(random, width * height, 60, 190), u, v, width, 1, width, 2);
+    }
+
+    // values in [min, max): with luma in [60, 190) and chroma in [100, 156), no RGB value gets clipped
+    private static ByteBuffer randomBytes(Random random, int count, int min, int max) {
+        byte[] bytes = new byte[count];
+        for (int i = 0; i < count; i++) {
+            bytes[i] = (byte) (min + random.nextInt(max - min));
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static FloatBuffer directBuffer(int size) {
+        return ByteBuffer.allocateDirect(3 * size * size * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    private static void assertMatchesArgbPath(YuvFrame frame, int size, ForkJoinPool pool) {
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            int width = frame.rotatedWidth(rotation), height = frame.rotatedHeight(rotation);
+            float ratio = Math.min((float) size / width, (float) size / height);
+            int newWidth = Math.round(width * ratio), newHeight = Math.round(height * ratio);
+            int padX = (size - newWidth) / 2, padY = (size - newHeight) / 2;
+
+            FloatBuffer expected = directBuffer(size);
+            new LetterboxKernel(size, PAD_VAL, MEAN, STD, null).run(ImageKernels.yuvToArgb(frame, rotation),
+                    width, height, newWidth, newHeight, padX, padY, expected, 0);
+            FloatBuffer actual = directBuffer(size);
+            new YuvLetterboxKernel(size, PAD_VAL, MEAN, STD, pool).run(frame, rotation,
+                    newWidth, newHeight, padX, padY, actual, 0);
+
+            for (int i = 0; i < 3 * size * size; i++) {
+                // up to one 8-bit level: the reference rounds every converted tap, the kernel does not
+                assertEquals("rotation " + rotation + " at " + i, expected.get(i), actual.get(i), 1.01F / STD[i / (size * size)]);
+            }
+        }
+    }
+
+    @Test
+    public void planarMatchesArgbPath() {
+        assertMatchesArgbPath(i420(new Random(1), 96, 60), 64, null);
+    }
+
+    @Test
+    public void interleavedMatchesArgbPathInParallel() {
+        assertMatchesArgbPath(nv21(new Random(2), 160, 120), 128, ForkJoinPool.commonPool());
+    }
+
+    @Test
+    public void rotatesClockwise() {
+        // 2 x 2 frame with a white top-left pixel, gray elsewhere
+        ByteBuffer y = ByteBuffer.wrap(new byte[]{(byte) 255, 0, 0, 0});
+        ByteBuffer chroma = ByteBuffer.wrap(new byte[]{(byte) 128});
+        YuvFrame frame = new YuvFrame(2, 2, y, chroma, chroma, 2, 1, 1, 1);
+
+        assertEquals(0xFFFFFFFF, ImageKernels.yuvToArgb(frame, 0)[0]);
+        assertEquals(0xFFFFFFFF, ImageKernels.yuvToArgb(frame, 90)[1]);     // top-right
+        assertEquals(0xFFFFFFFF, ImageKernels.yuvToArgb(frame, 180)[3]);    // bottom-right
+        assertEquals(0xFFFFFFFF, ImageKernels.yuvToArgb(frame, 270)[2]);    // bottom-left
+        assertEquals(0xFF000000, ImageKernels.yuvToArgb(0, 128, 128));
+    }
+
+    @Test
+    public void reusedKernelMatchesFreshOne() {
+        int size = 128;
+        YuvLetterboxKernel reused = new YuvLetterboxKernel(size, PAD_VAL, MEAN, STD, new ForkJoinPool(4));
+        FloatBuffer[] outputs = {directBuffer(size), directBuffer(size), directBuffer(size)};
+        Random random = new Random(3);
+        YuvFrame[] frames = {i420(random, 160, 120), nv21(random, 64, 96), i420(random, 320, 240), nv21(random, 200, 100)};
+        for (int f = 0; f < frames.length; f++) {
+            int rotation = 90 * f;
+            int width = frames[f].rotatedWidth(rotation), height = frames[f].rotatedHeight(rotation);
+            int[] newSize = LetterboxKernel.fitSize(width, height, size);
+            int padX = (size - newSize[0]) / 2, padY = (size - newSize[1]) / 2;
+            FloatBuffer expected = directBuffer(size);
+            new YuvLetterboxKernel(size, PAD_VAL, MEAN, STD, null).run(frames[f], rotation, newSize[0], newSize[1], padX, padY, expected, 0);
+
+            // cycling through more outputs than the kernel keeps views of
+            FloatBuffer actual = outputs[f % outputs.length];
+            reused.run(frames[f], rotation, newSize[0], newSize[1], padX, padY, actual, 0);
+            for (int i = 0; i < 3 * size * size; i++) {
+                assertEquals(expected.get(i), actual.get(i), 0F);
+            }
+        }
+    }
+}
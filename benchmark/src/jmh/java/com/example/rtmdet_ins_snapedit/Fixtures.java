@@ -0,0 +1,118 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Synthetic, seeded model outputs and images for the benchmarks.
+ */
+final class Fixtures {
+    private static final long SEED = 42L;
+    private static final int NUM_CLASSES = 5;
+    private static final int DUPLICATES = 3;    // raw detections per object, so NMS/merge has work to do
+
+    static class Detections {
+        public int[][] boxes;       // (n, 4) - [x1, y1, x2, y2] in infer coordinates
+        public float[] scores;      // (n)
+        public long[] labels;       // (n)
+        public float[] masks;       // (n, inferSize, inferSize) flat, like the model output buffer
+
+        Detections(int[][] boxes, float[] scores, long[] labels, float[] masks) {
+            this.boxes = boxes;
+            this.scores = scores;
+            this.labels = labels;
+            this.masks = masks;
+        }
+    }
+
+    private Fixtures() {
+    }
+
+    /**
+     * Objects are filled ellipses covering roughly maskDensity of their box, each reported
+     * DUPLICATES times with jittered boxes the way the raw model output does.
+     */
+    static Detections detections(int count, int inferSize, float maskDensity) {
+        Random random = new Random(SEED);
+        int[][] boxes = new int[count][];
+        float[] scores = new float[count];
+        long[] labels = new long[count];
+        float[] masks = new float[count * inferSize * inferSize];
+
+        // ellipse radius factor so that ellipse area / box area ~= maskDensity
+        float radius = (float) Math.min(1.0, Math.sqrt(maskDensity / (Math.PI / 4)));
+        int[] base = null;
+        long baseLabel = 0;
+        for (int i = 0; i < count; i++) {
+            if (i % DUPLICATES == 0) {
+                int w = 20 + random.nextInt(inferSize / 3);
+                int h = 20 + random.nextInt(inferSize / 3);
+                int x = random.nextInt(inferSize - w);
+                int y = random.nextInt(inferSize - h);
+                base = new int[]{x, y, x + w, y + h};
+                baseLabel = random.nextInt(NUM_CLASSES);
+            }
+            int[] box = new int[4];
+            for (int k = 0; k < 4; k++) {
+                box[k] = Math.min(Math.max(0, base[k] + random.nextInt(7) - 3), inferSize - 1);
+            }
+            boxes[i] = box;
+            scores[i] = 0.3F + 0.65F * random.nextFloat();
+            labels[i] = baseLabel;
+            ellipseMask(masks, i * inferSize * inferSize, box, inferSize, radius);
+        }
+        return new Detections(boxes, scores, labels, masks);
+    }
+
+    private static void ellipseMask(float[] masks, int offset, int[] box, int inferSize, float radius) {
+        float cx = (box[0] + box[2]) / 2F, cy = (box[1] + box[3]) / 2F;
+        float rx = Math.max(1F, (box[2] - box[0]) / 2F * radius), ry = Math.max(1F, (box[3] - box[1]) / 2F * radius);
+        for (int y = box[1]; y <= box[3]; y++) {
+            for (int x = box[0]; x <= box[2]; x++) {
+                float dx = (x - cx) / rx, dy = (y - cy) / ry;
+                masks[offset + y * inferSize + x] = dx * dx + dy * dy <= 1F ? 0.9F : 0.1F;
+            }
+        }
+    }
+
+    /**
+     * Copy of the boxes, since post-processing modifies them in place (masks are only read and are shared).
+     */
+    static Detections copy(Detections detections, Detections into) {
+        int n = detections.boxes.length;
+        if (into == null) {
+            into = new Detections(new int[n][4], detections.scores.clone(), detections.labels.clone(), detections.masks);
+        }
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(detections.boxes[i], 0, into.boxes[i], 0, 4);
+        }
+        return into;
+    }
+
+    static int[] pixels(int width, int height) {
+        Random random = new Random(SEED);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+
+    /**
+     * Random NV21-like frame (interleaved V/U plane) in direct buffers, as camera images hold them.
+     */
+    static YuvFrame yuvFrame(int width, int height) {
+        Random random = new Random(SEED);
+        byte[] luma = new byte[width * height];
+        byte[] chroma = new byte[width * height / 2];
+        random.nextBytes(luma);
+        random.nextBytes(chroma);
+        ByteBuffer y = ByteBuffer.allocateDirect(luma.length);
+        y.put(luma).clear();
+        ByteBuffer vu = ByteBuffer.allocateDirect(chroma.length);
+        vu.put(chroma).clear();
+        ByteBuffer v = vu.duplicate();
+        vu.position(1);
+        return new YuvFrame(width, height, y, vu.slice(), v, width, 1, width, 2);
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pairwise primitives of the NMS/merge loop: box IoU over all pairs, mask crops and
+ * bit-packed mask intersections of neighbouring pairs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MaskOpsBenchmark {
+    @Param({"10", "100", "300"})
+    public int detections;
+
+    @Param({"640", "800"})
+    public int inferSize;
+
+    @Param({"0.25", "0.75"})
+    public float maskDensity;
+
+    private Fixtures.Detections fixture;
+    private BinaryMask[] binMasks;
+
+    @Setup
+    public void setup() {
+        fixture = Fixtures.detections(detections, inferSize, maskDensity);
+        binMasks = new BinaryMask[detections];
+        for (int i = 0; i < detections; i++) {
+            int[] box = fixture.boxes[i];
+            binMasks[i] = BinaryMask.fromProbabilities(fixture.masks, i * inferSize * inferSize, inferSize, box[0], box[1], box[2], box[3]);
+        }
+    }
+
+    @Benchmark
+    public void calcBoxIoU(Blackhole bh) {
+        int[][] boxes = fixture.boxes;
+        for (int i = 0; i < boxes.length; i++) {
+            for (int j = i + 1; j < boxes.length; j++) {
+                bh.consume(PostProcessor.calcBoxIoU(boxes[i], boxes[j]));
+            }
+        }
+    }
+
+    @Benchmark
+    public void cropMask(Blackhole bh) {
+        int[][] boxes = fixture.boxes;
+        for (int i = 0; i + 1 < boxes.length; i++) {
+            int[] box1 = boxes[i], box2 = boxes[i + 1];
+            int x1 = Math.min(box1[0], box2[0]);
+            int y1 = Math.min(box1[1], box2[1]);
+            int x2 = Math.max(box1[2], box2[2]);
+            int y2 = Math.max(box1[3], box2[3]);
+            bh.consume(PostProcessor.cropMask(fixture.masks, i * inferSize * inferSize, inferSize, x1, y1, x2, y2));
+            bh.consume(PostProcessor.cropMask(fixture.masks, (i + 1) * inferSize * inferSize, inferSize, x1, y1, x2, y2));
+        }
+    }
+
+    @Benchmark
+    public void binarize(Blackhole bh) {
+        for (int i = 0; i < detections; i++) {
+            int[] box = fixture.boxes[i];
+            bh.consume(BinaryMask.fromProbabilities(fixture.masks, i * inferSize * inferSize, inferSize, box[0], box[1], box[2], box[3]));
+        }
+    }
+
+    @Benchmark
+    public void maskIntersection(Blackhole bh) {
+        for (int i = 0; i + 1 < binMasks.length; i++) {
+            bh.consume(binMasks[i].intersection(binMasks[i + 1]));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Final step of post-processing: box-sized masks at infer resolution scaled up to the original image,
+ * materialized or run-length encoded for export.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MaskUpscaleBenchmark {
+    private static final int ORIG_SIZE = 1200;      // MainActivity.MAX_INPUT_SIZE
+
+    @Param({"10", "100", "300"})
+    public int detections;
+
+    @Param({"640", "800"})
+    public int inferSize;
+
+    @Param({"0.25", "0.75"})
+    public float maskDensity;
+
+    private int[][] boxes;
+    private byte[][] crops;
+    private BinaryMask[] rois;
+
+    @Setup
+    public void setup() {
+        Fixtures.Detections fixture = Fixtures.detections(detections, inferSize, maskDensity);
+        boxes = fixture.boxes;
+        crops = new byte[detections][];
+        for (int i = 0; i < detections; i++) {
+            int[] box = boxes[i];
+            crops[i] = PostProcessor.cropMask(fixture.masks, i * inferSize * inferSize, inferSize, box[0], box[1], box[2], box[3]);
+        }
+        rois = new BinaryMask[detections];
+        for (int i = 0; i < detections; i++) {
+            int[] box = boxes[i];
+            rois[i] = BinaryMask.fromProbabilities(fixture.masks, i * inferSize * inferSize, inferSize, box[0], box[1], box[2], box[3]);
+        }
+    }
+
+    @Benchmark
+    public void scaleMask(Blackhole bh) {
+        float scale = ORIG_SIZE / (float) inferSize;
+        for (int i = 0; i < crops.length; i++) {
+            int width = boxes[i][2] - boxes[i][0];
+            int height = boxes[i][3] - boxes[i][1];
+            bh.consume(PostProcessor.scaleMask(crops[i], width, height, (int) (width * scale), (int) (height * scale)));
+        }
+    }
+
+    @Benchmark
+    public void instanceMaskToBytes(Blackhole bh) {
+        float scale = ORIG_SIZE / (float) inferSize;
+        for (int i = 0; i < rois.length; i++) {
+            InstanceMask mask = new InstanceMask(rois[i], (int) (rois[i].width * scale), (int) (rois[i].height * scale));
+            bh.consume(mask.toBytes());
+        }
+    }
+
+    @Benchmark
+    public void instanceMaskToRle(Blackhole bh) {
+        float scale = ORIG_SIZE / (float) inferSize;
+        for (int i = 0; i < rois.length; i++) {
+            InstanceMask mask = new InstanceMask(rois[i], (int) (rois[i].width * scale), (int) (rois[i].height * scale));
+            bh.consume(MaskRle.toString(MaskRle.encode(mask, (int) (boxes[i][0] * scale), (int) (boxes[i][1] * scale), ORIG_SIZE, ORIG_SIZE)));
+        }
+    }
+}
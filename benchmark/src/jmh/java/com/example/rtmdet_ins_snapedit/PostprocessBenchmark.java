@@ -0,0 +1,79 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full PostProcessor.process: filtering, NMS + merge, mask merge, rescale and mask scaling;
+ * serial and with per-instance work split across the common pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PostprocessBenchmark {
+    private static final int ORIG_WIDTH = 1200;     // MainActivity.MAX_INPUT_SIZE
+    private static final int ORIG_HEIGHT = 900;
+
+    @Param({"10", "100", "300"})
+    public int detections;
+
+    @Param({"640", "800"})
+    public int inferSize;
+
+    @Param({"0.25", "0.75"})
+    public float maskDensity;
+
+    private Fixtures.Detections fixture;
+    private Fixtures.Detections working;
+    private PostProcessor postProcessor;
+    private PostProcessor parallelPostProcessor;
+    private int padY;
+
+    @Setup
+    public void setup() {
+        fixture = Fixtures.detections(detections, inferSize, maskDensity);
+        postProcessor = new PostProcessor(inferSize, 0.325F, 0.2F);
+        parallelPostProcessor = new PostProcessor(inferSize, 0.325F, 0.2F, new DetectorMetrics(), ForkJoinPool.commonPool());
+        padY = (inferSize - inferSize * ORIG_HEIGHT / ORIG_WIDTH) / 2;
+    }
+
+    // process() merges boxes in place, so every call gets a fresh copy of them
+    @Setup(Level.Invocation)
+    public void reset() {
+        working = Fixtures.copy(fixture, working);
+    }
+
+    @Benchmark
+    public PostProcessor.Result process() {
+        return postProcessor.process(working.boxes, working.scores, working.labels, working.masks, 0,
+                ORIG_WIDTH, ORIG_HEIGHT, 0, padY, true);
+    }
+
+    @Benchmark
+    public PostProcessor.Result processWithoutMasks() {
+        return postProcessor.process(working.boxes, working.scores, working.labels, working.masks, 0,
+                ORIG_WIDTH, ORIG_HEIGHT, 0, padY, false);
+    }
+
+    @Benchmark
+    public PostProcessor.Result processParallel() {
+        return parallelPostProcessor.process(working.boxes, working.scores, working.labels, working.masks, 0,
+                ORIG_WIDTH, ORIG_HEIGHT, 0, padY, true);
+    }
+}
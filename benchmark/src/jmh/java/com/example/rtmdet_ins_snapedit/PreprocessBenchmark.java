@@ -0,0 +1,129 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pad + normalize of a 4:3 image already resized to the infer size:
+ * the two-step path (new arrays per call) and the one-pass letterbox into a reused direct buffer.
+ * The fused kernel also resizes, starting from a 1200x900 source.
+ * The YUV paths start from a 1200x900 camera frame, upright or rotated by 90 degrees: conversion to
+ * ARGB and then the fused kernel, or the YUV kernel doing everything in one pass.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreprocessBenchmark {
+    private static final int PAD_VAL = 114;
+    private static final float[] MEAN = {103.53F, 116.28F, 123.675F};
+    private static final float[] STD = {57.375F, 57.12F, 58.395F};
+    private static final int SRC_WIDTH = 1200;      // MainActivity.MAX_INPUT_SIZE
+    private static final int SRC_HEIGHT = 900;
+
+    @Param({"640", "800"})
+    public int inferSize;
+
+    private int[] resized;
+    private int resizedHeight;
+    private int[] padded;
+    private FloatBuffer tensor;
+    private int[] source;
+    private LetterboxKernel serialKernel;
+    private LetterboxKernel parallelKernel;
+    private YuvFrame yuvFrame;
+    private YuvLetterboxKernel yuvKernel;
+
+    @Setup
+    public void setup() {
+        resizedHeight = inferSize * 3 / 4;
+        resized = Fixtures.pixels(inferSize, resizedHeight);
+        padded = ImageKernels.pad(resized, inferSize, resizedHeight, inferSize, PAD_VAL);
+        source = Fixtures.pixels(SRC_WIDTH, SRC_HEIGHT);
+        serialKernel = new LetterboxKernel(inferSize, PAD_VAL, MEAN, STD, null);
+        parallelKernel = new LetterboxKernel(inferSize, PAD_VAL, MEAN, STD, ForkJoinPool.commonPool());
+        yuvFrame = Fixtures.yuvFrame(SRC_WIDTH, SRC_HEIGHT);
+        yuvKernel = new YuvLetterboxKernel(inferSize, PAD_VAL, MEAN, STD, null);
+        tensor = ByteBuffer.allocateDirect(3 * inferSize * inferSize * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    @Benchmark
+    public int[] pad() {
+        return ImageKernels.pad(resized, inferSize, resizedHeight, inferSize, PAD_VAL);
+    }
+
+    @Benchmark
+    public FloatBuffer normalize() {
+        return ImageKernels.normalize(padded, inferSize, inferSize, MEAN, STD);
+    }
+
+    @Benchmark
+    public FloatBuffer padAndNormalize() {
+        int[] paddedPixels = ImageKernels.pad(resized, inferSize, resizedHeight, inferSize, PAD_VAL);
+        return ImageKernels.normalize(paddedPixels, inferSize, inferSize, MEAN, STD);
+    }
+
+    @Benchmark
+    public FloatBuffer letterbox() {
+        ImageKernels.letterbox(resized, inferSize, resizedHeight, inferSize, 0, (inferSize - resizedHeight) / 2,
+                PAD_VAL, MEAN, STD, tensor);
+        return tensor;
+    }
+
+    @Benchmark
+    public FloatBuffer fusedKernel() {
+        serialKernel.run(source, SRC_WIDTH, SRC_HEIGHT, inferSize, resizedHeight, 0, (inferSize - resizedHeight) / 2, tensor, 0);
+        return tensor;
+    }
+
+    @Benchmark
+    public FloatBuffer fusedKernelParallel() {
+        parallelKernel.run(source, SRC_WIDTH, SRC_HEIGHT, inferSize, resizedHeight, 0, (inferSize - resizedHeight) / 2, tensor, 0);
+        return tensor;
+    }
+
+    @Benchmark
+    public FloatBuffer yuvToArgbThenKernel() {
+        int[] argb = ImageKernels.yuvToArgb(yuvFrame, 0);
+        serialKernel.run(argb, SRC_WIDTH, SRC_HEIGHT, inferSize, resizedHeight, 0, (inferSize - resizedHeight) / 2, tensor, 0);
+        return tensor;
+    }
+
+    @Benchmark
+    public FloatBuffer yuvKernel() {
+        yuvKernel.run(yuvFrame, 0, inferSize, resizedHeight, 0, (inferSize - resizedHeight) / 2, tensor, 0);
+        return tensor;
+    }
+
+    @Benchmark
+    public FloatBuffer yuvToArgbThenKernelRotated() {
+        int[] argb = ImageKernels.yuvToArgb(yuvFrame, 90);
+        int newWidth = inferSize * SRC_HEIGHT / SRC_WIDTH;
+        serialKernel.run(argb, SRC_HEIGHT, SRC_WIDTH, newWidth, inferSize, (inferSize - newWidth) / 2, 0, tensor, 0);
+        return tensor;
+    }
+
+    @Benchmark
+    public FloatBuffer yuvKernelRotated() {
+        int newWidth = inferSize * SRC_HEIGHT / SRC_WIDTH;
+        yuvKernel.run(yuvFrame, 90, newWidth, inferSize, (inferSize - newWidth) / 2, 0, tensor, 0);
+        return tensor;
+    }
+}
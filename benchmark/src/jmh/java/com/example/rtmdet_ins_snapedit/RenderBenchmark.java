@@ -0,0 +1,101 @@
+package com.example.rtmdet_ins_snapedit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mask overlay of the output image: one bitmap materialized and blended per instance (the former
+ * ImageUtils.drawDetectionResult, minus its per-pixel JNI calls) against MaskCompositor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+    private static final int ORIG_SIZE = 1200;      // MainActivity.MAX_INPUT_SIZE
+    private static final int INFER_SIZE = 640;
+    private static final int COLOR = 0xFF0000;
+    private static final float OPACITY = 0.5F;
+
+    @Param({"10", "100"})
+    public int detections;
+
+    private int[] image;
+    private int[] pixels;
+    private List<int[]> boxes;
+    private List<InstanceMask> masks;
+    private MaskCompositor serial;
+    private MaskCompositor parallel;
+
+    @Setup
+    public void setup() {
+        Fixtures.Detections fixture = Fixtures.detections(detections, INFER_SIZE, 0.75F);
+        float scale = ORIG_SIZE / (float) INFER_SIZE;
+        boxes = new ArrayList<>();
+        masks = new ArrayList<>();
+        for (int i = 0; i < detections; i++) {
+            int[] box = fixture.boxes[i];
+            BinaryMask roi = BinaryMask.fromProbabilities(fixture.masks, i * INFER_SIZE * INFER_SIZE, INFER_SIZE, box[0], box[1], box[2], box[3]);
+            int[] scaled = {(int) (box[0] * scale), (int) (box[1] * scale), (int) (box[2] * scale), (int) (box[3] * scale)};
+            boxes.add(scaled);
+            masks.add(new InstanceMask(roi, scaled[2] - scaled[0], scaled[3] - scaled[1]));
+        }
+        image = Fixtures.pixels(ORIG_SIZE, ORIG_SIZE);
+        pixels = new int[image.length];
+        serial = new MaskCompositor(COLOR, OPACITY, null);
+        parallel = new MaskCompositor(COLOR, OPACITY, ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public int[] perInstanceBitmap() {
+        System.arraycopy(image, 0, pixels, 0, image.length);
+        for (int i = 0; i < masks.size(); i++) {
+            int[] box = boxes.get(i);
+            InstanceMask mask = masks.get(i);
+            int[] maskPixels = mask.toPixels(0xFF010101, 0xFF000000);
+            for (int y = 0; y < mask.height; y++) {
+                for (int x = 0; x < mask.width; x++) {
+                    if ((maskPixels[y * mask.width + x] >> 16 & 255) > 0) {
+                        int idx = (y + box[1]) * ORIG_SIZE + x + box[0];
+                        int dst = pixels[idx];
+                        int r = (int) ((COLOR >> 16 & 255) * OPACITY + (dst >> 16 & 255) * (1F - OPACITY));
+                        int g = (int) ((COLOR >> 8 & 255) * OPACITY + (dst >> 8 & 255) * (1F - OPACITY));
+                        int b = (int) ((COLOR & 255) * OPACITY + (dst & 255) * (1F - OPACITY));
+                        pixels[idx] = 0xFF000000 | r << 16 | g << 8 | b;
+                    }
+                }
+            }
+        }
+        return pixels;
+    }
+
+    @Benchmark
+    public int[] compositeSerial() {
+        System.arraycopy(image, 0, pixels, 0, image.length);
+        serial.composite(pixels, ORIG_SIZE, ORIG_SIZE, boxes, masks);
+        return pixels;
+    }
+
+    @Benchmark
+    public int[] compositeParallel() {
+        System.arraycopy(image, 0, pixels, 0, image.length);
+        parallel.composite(pixels, ORIG_SIZE, ORIG_SIZE, boxes, masks);
+        return pixels;
+    }
+}
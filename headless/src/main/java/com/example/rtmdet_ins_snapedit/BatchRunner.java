@@ -0,0 +1,528 @@
+package com.example.rtmdet_ins_snapedit;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+/**
+ * Headless batch detection over a directory of images, for bulk jobs on desktop / server JVMs.
+ * Every image goes through decode -> preprocess -> infer -> postprocess: decoding, letterboxing
+ * ({@link LetterboxKernel}) and post-processing ({@link PostProcessor}) run on a pool of worker
+ * threads, inference on a pool of sessions that share the cores. Results are written in input
+ * order by {@link ResultWriter}, and the run ends with throughput, per-stage latency percentiles
+ * and peak heap.
+ * <pre>
+ * ./gradlew :headless:run --args="--model rtmdetins_s_640.onnx --input photos --output results.jsonl"
+ * </pre>
+ */
+public class BatchRunner {
+
+    static class Options {
+        public File model;
+        public File input;
+        public File output;
+        public ResultWriter.Format format;      // null to pick from the output extension
+        public int inferSize = 640;
+        public float commonThres = 0.325F;
+        public float personThres = 0.2F;
+        public File classes;                    // optional classes file for per-class thresholds
+        public int maxCandidates = PostProcessor.DEFAULT_MAX_CANDIDATES;
+        public int maxDetections = PostProcessor.DEFAULT_MAX_DETECTIONS;
+        public boolean masks = true;
+        public int sessions;                    // 0 for one per 4 cores
+        public int workers;                     // 0 for one per core
+        public boolean tune;                    // pick the session profile with ProfileTuner
+        public File tuneCache = new File(System.getProperty("user.home"), ".rtmdet/profiles.properties");
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--no-masks")) {
+                    options.masks = false;
+                    continue;
+                }
+                if (arg.equals("--tune")) {
+                    options.tune = true;
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value of " + arg);
+                }
+                String value = args[++i];
+                switch (arg) {
+                    case "--model": options.model = new File(value); break;
+                    case "--input": options.input = new File(value); break;
+                    case "--output": options.output = new File(value); break;
+                    case "--format": options.format = ResultWriter.Format.valueOf(value.toUpperCase(Locale.ROOT)); break;
+                    case "--size": options.inferSize = Integer.parseInt(value); break;
+                    case "--threshold": options.commonThres = Float.parseFloat(value); break;
+                    case "--person-threshold": options.personThres = Float.parseFloat(value); break;
+                    case "--classes": options.classes = new File(value); break;
+                    case "--max-candidates": options.maxCandidates = Integer.parseInt(value); break;
+                    case "--max-detections": options.maxDetections = Integer.parseInt(value); break;
+                    case "--sessions": options.sessions = Integer.parseInt(value); break;
+                    case "--workers": options.workers = Integer.parseInt(value); break;
+                    case "--tune-cache": options.tuneCache = new File(value); break;
+                    default: throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            if (options.model == null || options.input == null || options.output == null) {
+                throw new IllegalArgumentException("--model, --input and --output are required");
+            }
+            return options;
+        }
+    }
+
+    private static final String USAGE = "usage: BatchRunner --model <onnx> --input <dir> --output <file.jsonl|file.bin>"
+            + " [--format json_lines|binary] [--size 640] [--threshold 0.325] [--person-threshold 0.2]"
+            + " [--classes file] [--max-candidates 300] [--max-detections 100] [--no-masks]"
+            + " [--sessions n] [--workers n] [--tune] [--tune-cache file]";
+    private static final String[] EXTENSIONS = {".jpg", ".jpeg", ".png", ".bmp", ".gif"};
+    private static final int PAD_VAL = 114;
+    private static final float[] MEAN = {103.53F, 116.28F, 123.675F};     // as ObjectDetector
+    private static final float[] STD = {57.375F, 57.12F, 58.395F};
+
+    // one image on its way through the stages
+    private static class Job {
+        final Path path;
+        final String imageId;
+        final long startNanos;
+        int width, height;
+        int padX, padY;
+        InputTensor input;
+        int[][] boxes;          // raw detections passing the score thresholds, in infer coordinates
+        float[] scores;
+        long[] labels;
+        float[] masks;          // (n, inferSize, inferSize) of the detections above, null if none
+        PostProcessor.Result result;
+
+        Job(Path path, String imageId) {
+            this.path = path;
+            this.imageId = imageId;
+            this.startNanos = System.nanoTime();
+        }
+    }
+
+    private final Options options;
+    private final PostProcessor postProcessor;
+    private final DetectorMetrics metrics = new DetectorMetrics();
+    private final DetectorMetrics.Recorder recorder = new DetectorMetrics.Recorder();
+    private final LatencyHistogram decodeLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LatencyHistogram imageLatency = new LatencyHistogram();     // end to end, queueing included
+    private final ArrayBlockingQueue<InputTensor> inputPool;
+    private final int maxInFlight;          // one job per input tensor
+    private final DetectorPool<OrtSession> sessions;
+    private final ExecutorService workers;
+    private final ExecutorService inferThreads;
+    private final ThreadLocal<LetterboxKernel> kernels;   // kernels are not reentrant: one per worker
+    // source pixels of the image being prepared, one per worker (not per input: inputs wait for a session)
+    private final ThreadLocal<int[]> pixelScratch = new ThreadLocal<>();
+
+    BatchRunner(final Options options) throws IOException, OrtException {
+        this.options = options;
+        int cores = Runtime.getRuntime().availableProcessors();
+        int sessionCount = options.sessions > 0 ? options.sessions : Math.max(1, cores / 4);
+        int workerCount = options.workers > 0 ? options.workers : cores;
+        metrics.addListener(recorder);
+        postProcessor = new PostProcessor(options.inferSize, options.commonThres, options.personThres, metrics);
+        postProcessor.setLimits(options.maxCandidates, options.maxDetections);
+        if (options.classes != null) {
+            List<String> lines = Files.readAllLines(options.classes.toPath(), StandardCharsets.UTF_8);
+            postProcessor.setClassThresholds(PostProcessor.parseClasses(lines, new ArrayList<String>()));
+        }
+
+        OrtEnvironment ortEnv = OrtEnvironment.getEnvironment();
+        byte[] model = Files.readAllBytes(options.model.toPath());
+        SessionProfile profile = selectProfile(ortEnv, model, Math.max(1, cores / sessionCount));
+        System.out.println("[LOG] " + sessionCount + " sessions (" + profile.name + ", " + profile.intraOpThreads
+                + " intra-op threads), " + workerCount + " workers");
+        ArrayList<OrtSession> members = new ArrayList<>();
+        try (OrtSession.SessionOptions sessionOptions = profile.createOptions()) {
+            for (int i = 0; i < sessionCount; i++) {
+                members.add(ortEnv.createSession(model, sessionOptions));
+            }
+        } catch (OrtException e) {
+            for (OrtSession session : members) {
+                session.close();
+            }
+            throw e;
+        }
+        sessions = new DetectorPool<>(members, null);
+
+        // enough inputs to keep every session busy while the workers prepare the next ones
+        String inputName = members.get(0).getInputNames().iterator().next();
+        maxInFlight = 2 * sessionCount + workerCount;
+        inputPool = new ArrayBlockingQueue<>(maxInFlight);
+        while (inputPool.size() < maxInFlight) {
+            inputPool.add(new InputTensor(ortEnv, inputName, options.inferSize));
+        }
+        workers = Executors.newFixedThreadPool(workerCount, threadFactory("batch-worker-"));
+        inferThreads = Executors.newFixedThreadPool(sessionCount, threadFactory("batch-infer-"));
+        kernels = new ThreadLocal<LetterboxKernel>() {
+            @Override
+            protected LetterboxKernel initialValue() {
+                return new LetterboxKernel(options.inferSize, PAD_VAL, MEAN, STD, null);
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        BatchRunner runner = new BatchRunner(options);
+        try {
+            runner.run();
+        } finally {
+            runner.close();
+        }
+    }
+
+    private SessionProfile selectProfile(OrtEnvironment ortEnv, byte[] model, int threadsPerSession) {
+        SessionProfile fallback = SessionProfile.defaults(0).withIntraOpThreads(threadsPerSession);
+        if (!options.tune) {
+            return fallback;
+        }
+        ProfileTuner tuner = new ProfileTuner(ProfileTuner.sessionTrials(ortEnv, model, options.inferSize), 1, 5);
+        String cacheKey = options.model.getName() + "/" + model.length + "/" + options.inferSize + "/" + threadsPerSession;
+        SessionProfile best = tuner.tune(SessionProfile.candidates(threadsPerSession, false), options.tuneCache, cacheKey);
+        return best != null ? best : fallback;
+    }
+
+    void run() throws IOException, InterruptedException {
+        List<Path> images = listImages(options.input.toPath());
+        System.out.println("[LOG] " + images.size() + " images in " + options.input);
+        resetPeakHeap();
+
+        ResultWriter.Format format = options.format;
+        if (format == null) {
+            format = options.output.getName().endsWith(".bin") ? ResultWriter.Format.BINARY : ResultWriter.Format.JSON_LINES;
+        }
+        int written = 0, failed = 0;
+        long startTime = System.nanoTime();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(options.output));
+             ResultWriter writer = new ResultWriter(out, format)) {
+            // at most one job per input tensor in flight, written back in input order
+            ArrayDeque<CompletableFuture<Job>> inFlight = new ArrayDeque<>();
+            Iterator<Path> next = images.iterator();
+            while (next.hasNext() || !inFlight.isEmpty()) {
+                while (next.hasNext() && inFlight.size() < maxInFlight) {
+                    inFlight.add(submit(next.next()));
+                }
+                if (inFlight.isEmpty()) {
+                    continue;
+                }
+                Job job;
+                try {
+                    job = inFlight.poll().get();
+                } catch (ExecutionException e) {
+                    System.out.println("[LOG] Image skipped: " + e.getCause());
+                    failed++;
+                    continue;
+                }
+                long writeStart = System.nanoTime();
+                writer.write(job.imageId, job.result, job.width, job.height);
+                long now = System.nanoTime();
+                writeLatency.record(now - writeStart);
+                imageLatency.record(now - job.startNanos);
+                written++;
+            }
+        }
+        report(written, failed, System.nanoTime() - startTime);
+    }
+
+    private CompletableFuture<Job> submit(Path path) {
+        final Job job = new Job(path, options.input.toPath().relativize(path).toString().replace('\\', '/'));
+        return CompletableFuture.supplyAsync(new Supplier<Job>() {
+            @Override
+            public Job get() {
+                try {
+                    return preprocess(job);
+                } catch (IOException | InterruptedException e) {
+                    throw new CompletionException(e);
+                }
+            }
+        }, workers).thenApplyAsync(new Function<Job, Job>() {
+            @Override
+            public Job apply(Job job) {
+                try {
+                    return sessions.run(new DetectorPool.Task<OrtSession, Job, Job>() {
+                        @Override
+                        public Job apply(OrtSession session, Job job) throws OrtException {
+                            return infer(session, job);
+                        }
+                    }, job);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }
+        }, inferThreads).thenApplyAsync(new Function<Job, Job>() {
+            @Override
+            public Job apply(Job job) {
+                return postprocess(job);
+            }
+        }, workers);
+    }
+
+    // decode, then letterbox into a pooled input tensor
+    private Job preprocess(Job job) throws IOException, InterruptedException {
+        long startTime = System.nanoTime();
+        BufferedImage image = ImageIO.read(job.path.toFile());
+        if (image == null) {
+            throw new IOException("Unsupported image " + job.path);
+        }
+        job.width = image.getWidth();
+        job.height = image.getHeight();
+        decodeLatency.record(System.nanoTime() - startTime);
+
+        startTime = metrics.start();
+        long startAllocated = metrics.startAllocated();
+        InputTensor input = inputPool.take();
+        metrics.record(DetectorMetrics.Stage.INPUT_TENSOR, startTime, startAllocated);
+
+        startTime = metrics.start();
+        startAllocated = metrics.startAllocated();
+        try {
+            int[] pixels = toArgb(image, pixels(job.width * job.height));
+            int[] newSize = LetterboxKernel.fitSize(job.width, job.height, options.inferSize);
+            job.padX = (options.inferSize - newSize[0]) / 2;
+            job.padY = (options.inferSize - newSize[1]) / 2;
+            kernels.get().run(pixels, job.width, job.height, newSize[0], newSize[1], job.padX, job.padY, input.data, 0);
+        } catch (RuntimeException e) {
+            inputPool.add(input);
+            throw e;
+        }
+        metrics.record(DetectorMetrics.Stage.PREPROCESS, startTime, startAllocated);
+        job.input = input;
+        return job;
+    }
+
+    // scratch of the calling worker holding at least count pixels
+    private int[] pixels(int count) {
+        int[] pixels = pixelScratch.get();
+        if (pixels == null || pixels.length < count) {
+            pixels = new int[count];
+            pixelScratch.set(pixels);
+        }
+        return pixels;
+    }
+
+    /**
+     * @return ARGB pixels of image, read straight from the raster for the usual decoder outputs
+     */
+    static int[] toArgb(BufferedImage image, int[] pixels) {
+        int width = image.getWidth(), height = image.getHeight();
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_3BYTE_BGR) {
+            byte[] bgr = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            for (int i = 0, p = 0; i < width * height; i++, p += 3) {
+                pixels[i] = 0xFF000000 | (bgr[p + 2] & 255) << 16 | (bgr[p + 1] & 255) << 8 | bgr[p] & 255;
+            }
+        } else if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+            int[] rgb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            int alpha = type == BufferedImage.TYPE_INT_RGB ? 0xFF000000 : 0;
+            for (int i = 0; i < width * height; i++) {
+                pixels[i] = rgb[i] | alpha;
+            }
+        } else {
+            image.getRGB(0, 0, width, height, pixels, 0, width);
+        }
+        return pixels;
+    }
+
+    // run the session, keep the detections passing the thresholds (and only their masks)
+    private Job infer(OrtSession session, Job job) throws OrtException {
+        InputTensor input = job.input;
+        long startTime = metrics.start();
+        long startAllocated = metrics.startAllocated();
+        OrtSession.Result output;
+        try {
+            output = session.run(input.inputs);
+        } finally {
+            job.input = null;
+            inputPool.add(input);
+        }
+        try {
+            metrics.record(DetectorMetrics.Stage.SESSION_RUN, startTime, startAllocated);
+            startTime = metrics.start();
+            startAllocated = metrics.startAllocated();
+            extract(output, job);
+            metrics.record(DetectorMetrics.Stage.EXTRACT, startTime, startAllocated);
+        } finally {
+            output.close();
+        }
+        return job;
+    }
+
+    // outputs as ObjectDetector.extract, compacted to the candidates so that queued jobs stay small
+    private void extract(OrtSession.Result output, Job job) {
+        OnnxTensor detsTensor = (OnnxTensor) output.get(0);     // in shape (1, n, 5) - [x1, y1, x2, y2, score]
+        OnnxTensor labelsTensor = (OnnxTensor) output.get(1);   // in shape (1, n)
+        OnnxTensor masksTensor = (OnnxTensor) output.get(2);    // in shape (1, n, h, w)
+        int n = (int) detsTensor.getInfo().getShape()[1];
+        long[] maskShape = masksTensor.getInfo().getShape();
+        int maskSize = (int) (maskShape[2] * maskShape[3]);
+
+        FloatBuffer dets = detsTensor.getFloatBuffer();
+        LongBuffer labels = labelsTensor.getLongBuffer();
+        ArrayList<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (postProcessor.isCandidate(dets.get(i * 5 + 4), labels.get(i))) {
+                candidates.add(i);
+            }
+        }
+        int m = candidates.size();
+        job.boxes = new int[m][];
+        job.scores = new float[m];
+        job.labels = new long[m];
+        FloatBuffer masks = m > 0 ? masksTensor.getFloatBuffer() : null;
+        job.masks = m > 0 ? new float[m * maskSize] : null;
+        for (int k = 0; k < m; k++) {
+            int i = candidates.get(k);
+            int d = i * 5;
+            job.boxes[k] = new int[]{(int) dets.get(d), (int) dets.get(d + 1), (int) dets.get(d + 2), (int) dets.get(d + 3)};
+            job.scores[k] = dets.get(d + 4);
+            job.labels[k] = labels.get(i);
+            masks.position(i * maskSize);
+            masks.get(job.masks, k * maskSize, maskSize);
+        }
+    }
+
+    private Job postprocess(Job job) {
+        job.result = postProcessor.process(job.boxes, job.scores, job.labels, job.masks, 0, job.width, job.height,
+                job.padX, job.padY, options.masks);
+        job.boxes = null;
+        job.masks = null;
+        return job;
+    }
+
+    private static List<Path> listImages(Path directory) throws IOException {
+        ArrayList<Path> images = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            Iterator<Path> iterator = paths.iterator();
+            while (iterator.hasNext()) {
+                Path path = iterator.next();
+                String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+                for (String extension : EXTENSIONS) {
+                    if (name.endsWith(extension) && Files.isRegularFile(path)) {
+                        images.add(path);
+                        break;
+                    }
+                }
+            }
+        }
+        Collections.sort(images);
+        return images;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    // sum of the peaks of the heap pools: an upper bound of the peak heap usage
+    private static long peakHeap() {
+        long bytes = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                bytes += pool.getPeakUsage().getUsed();
+            }
+        }
+        return bytes;
+    }
+
+    private void report(int written, int failed, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.println(String.format(Locale.ROOT, "%d images (%d failed) in %.1f s: %.2f images/s, peak heap %d MB",
+                written, failed, seconds, written / seconds, peakHeap() >> 20));
+        System.out.println(String.format(Locale.ROOT, "%-14s %8s %9s %9s %9s %9s", "stage (ms)", "count", "p50", "p95", "p99", "max"));
+        printStage("DECODE", decodeLatency);
+        DetectorMetrics.Snapshot snapshot = recorder.snapshot();
+        for (DetectorMetrics.Stage stage : DetectorMetrics.Stage.values()) {
+            DetectorMetrics.StageStats stats = snapshot.stages.get(stage);
+            printStage(stage.name(), stats.count, stats.p50Nanos, stats.p95Nanos, stats.p99Nanos, stats.maxNanos);
+        }
+        printStage("WRITE", writeLatency);
+        printStage("IMAGE", imageLatency);
+        System.out.println("[LOG] metrics: " + snapshot.toJson());
+    }
+
+    private static void printStage(String name, LatencyHistogram histogram) {
+        printStage(name, histogram.getCount(), histogram.getPercentile(50), histogram.getPercentile(95),
+                histogram.getPercentile(99), histogram.getMax());
+    }
+
+    private static void printStage(String name, long count, long p50, long p95, long p99, long max) {
+        System.out.println(String.format(Locale.ROOT, "%-14s %8d %9.2f %9.2f %9.2f %9.2f",
+                name, count, p50 / 1e6, p95 / 1e6, p99 / 1e6, max / 1e6));
+    }
+
+    void close() {
+        workers.shutdownNow();
+        inferThreads.shutdownNow();
+        for (InputTensor input : inputPool) {
+            input.close();
+        }
+        sessions.close();
+    }
+
+    private static ThreadFactory threadFactory(final String prefix) {
+        final AtomicInteger threads = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, prefix + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}